@@ -57,7 +57,8 @@ public class Main extends Application {
     }
 
     private void showClientView(LoginResult result) {
-        ClientView clientView = new ClientView(currentUser, result.getNetworkFacade(), result.getServerHost(), result.getServerPort());
+        ClientView clientView = new ClientView(currentUser, result.getNetworkFacade(), result.getServerHost(), result.getServerPort(),
+            result.getSessionToken());
         Scene scene = new Scene(clientView, 800, 600);
         primaryStage.setTitle("WhatsApp Clone - Cliente - " + currentUser.getUsername());
         primaryStage.setScene(scene);
@@ -0,0 +1,310 @@
+package com.whatsapp.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool acotado de conexiones JDBC. getConnection() entrega un proxy cuyo close() devuelve
+ * la conexión física al pool, así los repositorios siguen usando try-with-resources.
+ * Las conexiones ociosas se reusan en orden LIFO (las más recientes primero), se validan
+ * si estuvieron paradas un rato y se cierran al superar el tiempo ocioso o la vida máxima.
+ */
+public class ConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+    // Por debajo de este tiempo ocioso no se valida la conexión al prestarla
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long EVICTION_PERIOD_SECONDS = 30;
+    private static final long STATS_PERIOD_SECONDS = 60;
+
+    private final DatabaseConfig config;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    // Métricas
+    private final AtomicInteger total = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    ConnectionPool(DatabaseConfig config) {
+        this.config = config;
+        this.maxSize = config.getPoolMaxSize();
+        this.borrowTimeoutMillis = config.getPoolBorrowTimeoutMillis();
+        this.idleTimeoutMillis = config.getPoolIdleTimeoutMillis();
+        this.maxLifetimeMillis = config.getPoolMaxLifetimeMillis();
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "db-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleAtFixedRate(this::evictIdle, EVICTION_PERIOD_SECONDS, EVICTION_PERIOD_SECONDS, TimeUnit.SECONDS);
+        housekeeper.scheduleAtFixedRate(this::logStats, STATS_PERIOD_SECONDS, STATS_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Presta una conexión; espera hasta db.pool.borrowTimeoutMs si están todas en uso
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("El pool de conexiones está cerrado");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("No hay conexiones libres tras " + borrowTimeoutMillis
+                    + " ms (máximo " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido esperando una conexión", e);
+        }
+        long waited = System.nanoTime() - start;
+        borrows.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = open();
+            }
+            return new Lease(pooled).proxy();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            long now = System.currentTimeMillis();
+            if (now - pooled.createdAt >= maxLifetimeMillis) {
+                discard(pooled);
+                continue;
+            }
+            if (now - pooled.lastUsed >= VALIDATE_AFTER_IDLE_MILLIS && !isValid(pooled.physical)) {
+                logger.debug("Conexión inválida descartada del pool");
+                discard(pooled);
+                continue;
+            }
+            return pooled;
+        }
+        return null;
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection physical = DriverManager.getConnection(
+            config.getConnectionUrl(),
+            config.getUsername(),
+            config.getPassword()
+        );
+        total.incrementAndGet();
+        created.increment();
+        return new PooledConnection(physical);
+    }
+
+    /**
+     * Vuelve a dejar la conexión lista para el siguiente préstamo
+     */
+    private void release(PooledConnection pooled) {
+        try {
+            boolean reusable = !closed
+                && !pooled.physical.isClosed()
+                && System.currentTimeMillis() - pooled.createdAt < maxLifetimeMillis;
+            if (reusable) {
+                if (!pooled.physical.getAutoCommit()) {
+                    pooled.physical.rollback();
+                    pooled.physical.setAutoCommit(true);
+                }
+                pooled.physical.clearWarnings();
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            } else {
+                discard(pooled);
+            }
+        } catch (SQLException e) {
+            logger.warn("No se pudo restablecer la conexión devuelta; se descarta", e);
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        total.decrementAndGet();
+        evicted.increment();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            logger.debug("Error cerrando conexión física", e);
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Cierra las ociosas que superaron el tiempo ocioso o la vida máxima (las más viejas están al final)
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            PooledConnection pooled = iterator.next();
+            if (now - pooled.lastUsed >= idleTimeoutMillis || now - pooled.createdAt >= maxLifetimeMillis) {
+                if (idle.removeLastOccurrence(pooled)) {
+                    discard(pooled);
+                }
+            }
+        }
+    }
+
+    private void logStats() {
+        long count = borrows.sum();
+        if (count == 0) {
+            return;
+        }
+        logger.info("Pool BD: {} activas, {} ociosas, {} préstamos, espera media {} ms (máx {} ms), {} timeouts, {} creadas, {} cerradas",
+            getActiveCount(), getIdleCount(), count,
+            String.format("%.2f", getAverageWaitMillis()),
+            String.format("%.2f", getMaxWaitMillis()),
+            timeouts.sum(), created.sum(), evicted.sum());
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getTotalCount() {
+        return total.get();
+    }
+
+    public long getBorrowCount() {
+        return borrows.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = borrows.sum();
+        return count == 0 ? 0 : waitNanos.sum() / (double) count / 1_000_000.0;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    private static final class PooledConnection {
+        private final Connection physical;
+        private final long createdAt;
+        private volatile long lastUsed;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsed = createdAt;
+        }
+    }
+
+    /**
+     * Un préstamo: el proxy deja de funcionar al cerrarlo aunque la conexión física
+     * ya esté prestada a otro hilo
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        private Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                this
+            );
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) {
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned.get() || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+            if (returned.get()) {
+                throw new SQLException("La conexión ya fue devuelta al pool");
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -11,6 +11,18 @@ public class DatabaseConfig {
     private static final String DEFAULT_DB = "whatsapp_clone";
     private static final String DEFAULT_USER = "root";
     private static final String DEFAULT_PASSWORD = "";
+    private static final int DEFAULT_POOL_MAX_SIZE = 10;
+    private static final long DEFAULT_POOL_BORROW_TIMEOUT_MS = 5000;
+    private static final long DEFAULT_POOL_IDLE_TIMEOUT_MS = 10 * 60 * 1000L;
+    private static final long DEFAULT_POOL_MAX_LIFETIME_MS = 30 * 60 * 1000L;
+    private static final int DEFAULT_LOG_BUFFER_CAPACITY = 8192;
+    private static final int DEFAULT_LOG_BATCH_SIZE = 200;
+    private static final long DEFAULT_LOG_FLUSH_INTERVAL_MS = 500;
+    private static final String DEFAULT_LOG_OVERFLOW = "DROP_LOW";
+    private static final int DEFAULT_TRANSFER_BUFFER_CAPACITY = 4096;
+    private static final int DEFAULT_TRANSFER_BATCH_SIZE = 100;
+    private static final long DEFAULT_TRANSFER_FLUSH_INTERVAL_MS = 250;
+    private static final long DEFAULT_TRANSFER_MAX_BLOCK_MS = 100;
 
     private String host;
     private String port;
@@ -18,6 +30,18 @@ public class DatabaseConfig {
     private String username;
     private String password;
     private String serverUsername; // Username del servidor para crear BD única
+    private int poolMaxSize;
+    private long poolBorrowTimeoutMillis;
+    private long poolIdleTimeoutMillis;
+    private long poolMaxLifetimeMillis;
+    private int logBufferCapacity;
+    private int logBatchSize;
+    private long logFlushIntervalMillis;
+    private String logOverflow;
+    private int transferBufferCapacity;
+    private int transferBatchSize;
+    private long transferFlushIntervalMillis;
+    private long transferMaxBlockMillis;
 
     public DatabaseConfig() {
         loadConfig();
@@ -56,10 +80,37 @@ public class DatabaseConfig {
             this.username = DEFAULT_USER;
             this.password = DEFAULT_PASSWORD;
         }
+
+        // Pool de conexiones (ver ConnectionPool)
+        this.poolMaxSize = (int) Math.max(1, readLong(props, "db.pool.maxSize", DEFAULT_POOL_MAX_SIZE));
+        this.poolBorrowTimeoutMillis = Math.max(0, readLong(props, "db.pool.borrowTimeoutMs", DEFAULT_POOL_BORROW_TIMEOUT_MS));
+        this.poolIdleTimeoutMillis = Math.max(1000, readLong(props, "db.pool.idleTimeoutMs", DEFAULT_POOL_IDLE_TIMEOUT_MS));
+        this.poolMaxLifetimeMillis = Math.max(1000, readLong(props, "db.pool.maxLifetimeMs", DEFAULT_POOL_MAX_LIFETIME_MS));
+
+        // Escritura diferida de la tabla Log (ver LogService)
+        this.logBufferCapacity = (int) Math.max(16, readLong(props, "db.log.bufferCapacity", DEFAULT_LOG_BUFFER_CAPACITY));
+        this.logBatchSize = (int) Math.max(1, readLong(props, "db.log.batchSize", DEFAULT_LOG_BATCH_SIZE));
+        this.logFlushIntervalMillis = Math.max(1, readLong(props, "db.log.flushIntervalMs", DEFAULT_LOG_FLUSH_INTERVAL_MS));
+        this.logOverflow = props.getProperty("db.log.overflow", DEFAULT_LOG_OVERFLOW).trim();
+
+        // Registros TEXTO de Transferencia por lotes (ver TransferenciaLedger)
+        this.transferBufferCapacity = (int) Math.max(16, readLong(props, "db.transfer.bufferCapacity", DEFAULT_TRANSFER_BUFFER_CAPACITY));
+        this.transferBatchSize = (int) Math.max(1, readLong(props, "db.transfer.batchSize", DEFAULT_TRANSFER_BATCH_SIZE));
+        this.transferFlushIntervalMillis = Math.max(1, readLong(props, "db.transfer.flushIntervalMs", DEFAULT_TRANSFER_FLUSH_INTERVAL_MS));
+        this.transferMaxBlockMillis = Math.max(0, readLong(props, "db.transfer.maxBlockMs", DEFAULT_TRANSFER_MAX_BLOCK_MS));
+    }
+
+    private long readLong(Properties props, String key, long defaultValue) {
+        try {
+            return Long.parseLong(props.getProperty(key, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
     }
 
     public String getConnectionUrl() {
-        return String.format("jdbc:mysql://%s:%s/%s?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true", 
+        // rewriteBatchedStatements: el driver convierte los lotes de INSERT en un INSERT multi-fila
+        return String.format("jdbc:mysql://%s:%s/%s?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true&rewriteBatchedStatements=true", 
                             host, port, database);
     }
 
@@ -82,5 +133,58 @@ public class DatabaseConfig {
     public String getPort() {
         return port;
     }
-}
 
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    public long getPoolBorrowTimeoutMillis() {
+        return poolBorrowTimeoutMillis;
+    }
+
+    public long getPoolIdleTimeoutMillis() {
+        return poolIdleTimeoutMillis;
+    }
+
+    public long getPoolMaxLifetimeMillis() {
+        return poolMaxLifetimeMillis;
+    }
+
+    public int getLogBufferCapacity() {
+        return logBufferCapacity;
+    }
+
+    public int getLogBatchSize() {
+        return logBatchSize;
+    }
+
+    public long getLogFlushIntervalMillis() {
+        return logFlushIntervalMillis;
+    }
+
+    /**
+     * DROP_LOW (descarta DEBUG/INFO primero) o BLOCK (todos esperan lugar)
+     */
+    public String getLogOverflow() {
+        return logOverflow;
+    }
+
+    public int getTransferBufferCapacity() {
+        return transferBufferCapacity;
+    }
+
+    public int getTransferBatchSize() {
+        return transferBatchSize;
+    }
+
+    public long getTransferFlushIntervalMillis() {
+        return transferFlushIntervalMillis;
+    }
+
+    /**
+     * Espera máxima del emisor con el buffer lleno antes de descartar el registro
+     */
+    public long getTransferMaxBlockMillis() {
+        return transferMaxBlockMillis;
+    }
+}
@@ -12,17 +12,19 @@ public class DatabaseManager {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseManager.class);
     private static DatabaseManager instance;
     private final DatabaseConfig config;
-    private Connection connection;
+    private final ConnectionPool pool;
     private String serverUsername;
 
     private DatabaseManager() {
         this.config = new DatabaseConfig();
+        this.pool = new ConnectionPool(config);
         initializeDatabase();
     }
 
     private DatabaseManager(String serverUsername) {
         this.serverUsername = serverUsername;
         this.config = new DatabaseConfig(serverUsername);
+        this.pool = new ConnectionPool(config);
         initializeDatabase();
     }
 
@@ -35,20 +37,27 @@ public class DatabaseManager {
 
     public static synchronized DatabaseManager getInstance(String serverUsername) {
         if (instance == null || instance.serverUsername == null) {
+            if (instance != null) {
+                instance.close();
+            }
             instance = new DatabaseManager(serverUsername);
         }
         return instance;
     }
 
+    /**
+     * Presta una conexión del pool; close() la devuelve
+     */
     public Connection getConnection() throws SQLException {
-        if (connection == null || connection.isClosed()) {
-            connection = DriverManager.getConnection(
-                config.getConnectionUrl(),
-                config.getUsername(),
-                config.getPassword()
-            );
-        }
-        return connection;
+        return pool.getConnection();
+    }
+
+    public DatabaseConfig getConfig() {
+        return config;
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
     }
 
     private void initializeDatabase() {
@@ -123,9 +132,12 @@ public class DatabaseManager {
                         Fin DATETIME,
                         UserId INT NOT NULL,
                         PeerIp VARCHAR(45) NOT NULL,
+                        BytesTransferidos BIGINT NOT NULL DEFAULT 0,
+                        ResumeKey VARCHAR(64),
                         FOREIGN KEY (UserId) REFERENCES Usuario(Id) ON DELETE CASCADE,
                         INDEX idx_estado (Estado),
-                        INDEX idx_user (UserId)
+                        INDEX idx_user (UserId),
+                        INDEX idx_resume_key (ResumeKey)
                     ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4
                 """;
 
@@ -214,13 +226,7 @@ public class DatabaseManager {
     }
 
     public void close() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-            }
-        } catch (SQLException e) {
-            logger.error("Error al cerrar la conexión", e);
-        }
+        pool.close();
     }
 }
 
@@ -0,0 +1,248 @@
+package com.whatsapp.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Escritura diferida a la base: los productores encolan en un buffer acotado y un hilo
+ * de fondo escribe lotes cuando se junta batchSize elementos o pasa flushInterval.
+ * Qué hacer con el buffer lleno lo decide el llamador (offer descarta, put espera).
+ */
+public class WriteBehindBuffer<T> {
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindBuffer.class);
+    // Espera máxima por vuelta del escritor: acota la demora de flush() y close()
+    private static final long MAX_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long STATS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    @FunctionalInterface
+    public interface BatchWriter<T> {
+        void write(List<T> batch) throws Exception;
+    }
+
+    private final String name;
+    private final ArrayBlockingQueue<T> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final BatchWriter<T> writer;
+    private Thread worker;
+    private volatile boolean running = true;
+    private volatile CountDownLatch flushRequest;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    // Solo los escribe el hilo escritor
+    private volatile long batches;
+    private volatile long flushNanos;
+    private volatile long maxFlushNanos;
+    private long lastStatsNanos = System.nanoTime();
+
+    private WriteBehindBuffer(String name, int capacity, int batchSize, long flushIntervalMillis, BatchWriter<T> writer) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+        this.writer = writer;
+    }
+
+    /**
+     * Crea el buffer y arranca su hilo escritor una vez construido
+     */
+    public static <T> WriteBehindBuffer<T> start(String name, int capacity, int batchSize, long flushIntervalMillis,
+                                                 BatchWriter<T> writer) {
+        WriteBehindBuffer<T> buffer = new WriteBehindBuffer<>(name, capacity, batchSize, flushIntervalMillis, writer);
+        buffer.worker = new Thread(buffer::run, name + "-writer");
+        buffer.worker.setDaemon(true);
+        buffer.worker.start();
+        return buffer;
+    }
+
+    /**
+     * Encola sin esperar; devuelve false (y cuenta el descarte) si el buffer está lleno
+     */
+    public boolean offer(T item) {
+        if (running && queue.offer(item)) {
+            return true;
+        }
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * Encola esperando a que haya lugar; solo para elementos que no se pueden perder
+     */
+    public void put(T item) throws InterruptedException {
+        if (!running) {
+            dropped.increment();
+            return;
+        }
+        queue.put(item);
+    }
+
+    /**
+     * Encola esperando como máximo timeoutMillis; pasado ese tiempo descarta y devuelve false
+     */
+    public boolean offer(T item, long timeoutMillis) {
+        try {
+            if (running && queue.offer(item, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * Lugar libre en el buffer; sirve para reservar espacio a los elementos importantes
+     */
+    public int remainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    public int capacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    /**
+     * Espera a que se escriba lo encolado hasta ahora (con límite de tiempo)
+     */
+    public void flush(long timeoutMillis) {
+        CountDownLatch latch = new CountDownLatch(1);
+        flushRequest = latch;
+        try {
+            if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warn("{}: flush sin terminar tras {} ms ({} pendientes)", name, timeoutMillis, queue.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deja de aceptar elementos y escribe lo que quede antes de volver
+     */
+    public void close(long timeoutMillis) {
+        running = false;
+        try {
+            worker.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            logger.warn("{}: {} elementos sin escribir al cerrar", name, queue.size());
+        }
+    }
+
+    private void run() {
+        List<T> batch = new ArrayList<>(batchSize);
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (running || !queue.isEmpty()) {
+            // flush() o close(): se escribe ya lo que haya
+            boolean urgent = !running || flushRequest != null;
+            try {
+                long wait = Math.min(deadline - System.nanoTime(), MAX_POLL_NANOS);
+                T item = wait > 0 && !urgent ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                if (item != null) {
+                    batch.add(item);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (batch.size() >= batchSize || System.nanoTime() - deadline >= 0 || urgent) {
+                writeBatch(batch);
+                if (queue.isEmpty()) {
+                    completeFlush();
+                }
+                deadline = System.nanoTime() + flushIntervalNanos;
+            }
+            logStats();
+        }
+        writeBatch(batch);
+        completeFlush();
+    }
+
+    private void writeBatch(List<T> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            writer.write(batch);
+            written.add(batch.size());
+            long elapsed = System.nanoTime() - start;
+            batches++;
+            flushNanos += elapsed;
+            maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+        } catch (Exception e) {
+            failedBatches.increment();
+            dropped.add(batch.size());
+            logger.error("{}: no se pudo escribir un lote de {} elementos", name, batch.size(), e);
+        }
+        batch.clear();
+    }
+
+    private void completeFlush() {
+        CountDownLatch latch = flushRequest;
+        if (latch != null) {
+            flushRequest = null;
+            latch.countDown();
+        }
+    }
+
+    private void logStats() {
+        long now = System.nanoTime();
+        if (now - lastStatsNanos < STATS_INTERVAL_NANOS || batches == 0) {
+            return;
+        }
+        lastStatsNanos = now;
+        logger.info("{}: {} filas en {} lotes ({} filas/lote), escritura media {} ms (máx {} ms), {} descartadas, {} en cola",
+            name, getWritten(), batches, String.format("%.1f", getAverageBatchSize()),
+            String.format("%.2f", getAverageFlushMillis()), String.format("%.2f", getMaxFlushMillis()),
+            getDropped(), getQueued());
+    }
+
+    public long getBatchCount() {
+        return batches;
+    }
+
+    public double getAverageBatchSize() {
+        long count = batches;
+        return count == 0 ? 0 : getWritten() / (double) count;
+    }
+
+    public double getAverageFlushMillis() {
+        long count = batches;
+        return count == 0 ? 0 : flushNanos / (double) count / 1_000_000.0;
+    }
+
+    public double getMaxFlushMillis() {
+        return maxFlushNanos / 1_000_000.0;
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getFailedBatches() {
+        return failedBatches.sum();
+    }
+}
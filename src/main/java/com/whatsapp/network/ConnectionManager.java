@@ -1,14 +1,25 @@
 package com.whatsapp.network;
 
+import com.whatsapp.network.buffer.BufferPool;
+import com.whatsapp.network.buffer.PooledFrame;
 import com.whatsapp.network.factory.SocketFactory;
+import com.whatsapp.network.nio.NioServerEngine;
+import com.whatsapp.network.outbound.OutboundQueue;
+import com.whatsapp.network.outbound.StreamWriter;
+import com.whatsapp.network.outbound.TrafficClass;
+import com.whatsapp.network.outbound.WriteStats;
 import com.whatsapp.network.observer.EventAggregator;
 import com.whatsapp.network.observer.NetworkEvent;
+import com.whatsapp.protocol.ChecksumNegotiation;
+import com.whatsapp.protocol.PeerFeatures;
 import com.whatsapp.service.LogService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -17,7 +28,9 @@ public class ConnectionManager {
     private static final Logger logger = LoggerFactory.getLogger(ConnectionManager.class);
     private static ConnectionManager instance;
     private final Map<String, Socket> connections;
-    private final Map<String, DataOutputStream> outputStreams;
+    // Escritor dedicado por conexión del motor bloqueante (el motor NIO tiene su propia cola)
+    private final Map<String, StreamWriter> writers;
+    private final ScheduledExecutorService outboundMonitor;
     private ExecutorService executorService;
     private ServerSocket serverSocket;
     private final AtomicBoolean isRunning;
@@ -26,18 +39,36 @@ public class ConnectionManager {
     private ConnectionStateListener stateListener;
     private final EventAggregator eventAggregator;
     private final LogService logService;
+    private final BufferPool bufferPool;
+    private final NetworkConfig networkConfig;
+    private ServerEngineType serverEngineType;
+    private ExecutorMode executorMode;
+    private volatile NioServerEngine nioServerEngine;
     private String traceId;
+    private long lastStatsFrames;
+    private long lastStatsWrites;
 
     private ConnectionManager() {
         this.connections = new ConcurrentHashMap<>();
-        this.outputStreams = new ConcurrentHashMap<>();
-        this.executorService = Executors.newCachedThreadPool();
+        this.writers = new ConcurrentHashMap<>();
+        this.networkConfig = new NetworkConfig();
+        this.executorMode = networkConfig.getExecutorMode();
+        this.executorService = createExecutorService();
         this.isRunning = new AtomicBoolean(false);
         this.serverMode = new AtomicBoolean(false);
         this.state = ConnectionState.DESCONECTADO;
         this.eventAggregator = EventAggregator.getInstance();
         this.logService = LogService.getInstance();
+        this.bufferPool = BufferPool.getInstance();
+        this.serverEngineType = networkConfig.getServerEngine();
         this.traceId = logService.generateTraceId();
+        this.outboundMonitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbound-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        outboundMonitor.scheduleAtFixedRate(this::disconnectSlowConsumers, 1, 1, TimeUnit.SECONDS);
+        outboundMonitor.scheduleAtFixedRate(this::logWriteStats, 60, 60, TimeUnit.SECONDS);
     }
 
     public static synchronized ConnectionManager getInstance() {
@@ -53,6 +84,11 @@ public class ConnectionManager {
         }
 
         ensureExecutorService();
+        if (serverEngineType == ServerEngineType.NIO) {
+            startNioServer(port);
+            return;
+        }
+
         serverSocket = SocketFactory.createTcpServerSocket(port);
         isRunning.set(true);
         serverMode.set(true);
@@ -67,42 +103,12 @@ public class ConnectionManager {
                     Socket clientSocket = serverSocket.accept();
                     String clientId = clientSocket.getRemoteSocketAddress().toString();
                     connections.put(clientId, clientSocket);
-                    outputStreams.put(clientId, new DataOutputStream(clientSocket.getOutputStream()));
-                    
-                    logService.logInfo("Cliente conectado: " + clientId, "ConnectionManager", traceId, null);
-                    eventAggregator.publish(new NetworkEvent(NetworkEvent.EventType.CONNECTED, clientId, "SERVER"));
+                    startWriter(clientId, clientSocket);
+                    onClientAccepted(clientId);
                     
                     // Iniciar hilo para recibir mensajes de este cliente
                     ensureExecutorService();
                     executorService.submit(() -> handleClient(clientId, clientSocket));
-                    
-                    // Enviar lista de usuarios conectados al nuevo cliente (después de iniciar el hilo)
-                    // Usar un pequeño retraso para asegurar que el cliente esté listo
-                    final String finalClientId = clientId;
-                    ensureExecutorService();
-                    executorService.submit(() -> {
-                        try {
-                            Thread.sleep(200); // Aumentar retraso para asegurar que el cliente esté listo
-                            com.whatsapp.service.ControlService controlService = new com.whatsapp.service.ControlService();
-                            Set<String> allClients = new java.util.HashSet<>(connections.keySet());
-                            logger.info("Enviando lista de usuarios a " + finalClientId + ": " + allClients);
-                            controlService.sendUserList(finalClientId);
-                            // Notificar a todos los demás clientes sobre el nuevo usuario (excluyendo al nuevo)
-                            Set<String> otherClients = new java.util.HashSet<>(allClients);
-                            otherClients.remove(finalClientId);
-                            for (String otherClientId : otherClients) {
-                                try {
-                                    logger.info("Notificando a " + otherClientId + " sobre nuevo usuario: " + finalClientId);
-                                    controlService.sendControlMessage(otherClientId, 
-                                        com.whatsapp.service.ControlService.CONTROL_USER_CONNECTED, finalClientId);
-                                } catch (Exception e) {
-                                    logger.warn("Error notificando a cliente " + otherClientId, e);
-                                }
-                            }
-                        } catch (Exception e) {
-                            logger.error("Error enviando lista de usuarios al nuevo cliente", e);
-                        }
-                    });
                 }
             } catch (IOException e) {
                 if (isRunning.get()) {
@@ -113,12 +119,70 @@ public class ConnectionManager {
         });
     }
 
+    private void startNioServer(int port) throws IOException {
+        nioServerEngine = new NioServerEngine(networkConfig.getIoLoops(), new NioServerEngine.Listener() {
+            @Override
+            public void onAccepted(String connectionId, SocketChannel channel) {
+                connections.put(connectionId, channel.socket());
+                // No bloquear el loop de E/S con el registro en BD
+                runAsync(() -> onClientAccepted(connectionId));
+            }
+
+            @Override
+            public void onFrame(String connectionId, PooledFrame frame) {
+                dispatchFrame(connectionId, frame);
+            }
+
+            @Override
+            public void onClosed(String connectionId) {
+                if (isRunning.get()) {
+                    runAsync(() -> disconnectClient(connectionId));
+                }
+            }
+        }, this::runAsync, this::createOutboundQueue, networkConfig.getMaxBatchFrames());
+        nioServerEngine.start(port);
+        isRunning.set(true);
+        serverMode.set(true);
+        setState(ConnectionState.ACTIVO);
+
+        logService.logInfo("Servidor NIO iniciado en puerto " + port, "ConnectionManager", traceId, null);
+        eventAggregator.publish(new NetworkEvent(NetworkEvent.EventType.CONNECTED, "Servidor iniciado", "SERVER"));
+    }
+
+    private void runAsync(Runnable task) {
+        ensureExecutorService();
+        executorService.execute(task);
+    }
+
+    private void onClientAccepted(String clientId) {
+        logService.logInfo("Cliente conectado: " + clientId, "ConnectionManager", traceId, null);
+        eventAggregator.publish(new NetworkEvent(NetworkEvent.EventType.CONNECTED, clientId, "SERVER"));
+
+        // Enviar lista de usuarios conectados al nuevo cliente (después de iniciar la lectura)
+        // Usar un pequeño retraso para asegurar que el cliente esté listo
+        final String finalClientId = clientId;
+        ensureExecutorService();
+        executorService.submit(() -> {
+            try {
+                Thread.sleep(200); // Aumentar retraso para asegurar que el cliente esté listo
+                com.whatsapp.service.ControlService controlService = com.whatsapp.service.ControlService.getInstance();
+                controlService.sendHello(finalClientId);
+                // Snapshot de presencia; los demás clientes reciben el alta como delta
+                // cuando el nuevo usuario registra su alias
+                logger.info("Enviando snapshot de presencia a " + finalClientId);
+                controlService.sendUserList(finalClientId);
+            } catch (Exception e) {
+                logger.error("Error enviando lista de usuarios al nuevo cliente", e);
+            }
+        });
+    }
+
     public Socket connectToServer(String host, int port) throws IOException {
         ensureExecutorService();
         Socket socket = SocketFactory.createTcpSocket(host, port);
         String connectionId = socket.getRemoteSocketAddress().toString();
         connections.put(connectionId, socket);
-        outputStreams.put(connectionId, new DataOutputStream(socket.getOutputStream()));
+        startWriter(connectionId, socket);
         isRunning.set(true);
         serverMode.set(false);
         setState(ConnectionState.ACTIVO);
@@ -132,29 +196,74 @@ public class ConnectionManager {
         return socket;
     }
 
+    private OutboundQueue createOutboundQueue(String connectionId) {
+        return new OutboundQueue(connectionId, networkConfig.getOutboundCapacityBytes(),
+            networkConfig.getOutboundHighWaterBytes(), networkConfig.getBulkTimeoutMillis());
+    }
+
+    private void startWriter(String connectionId, Socket socket) throws IOException {
+        StreamWriter writer = new StreamWriter(connectionId, socket.getOutputStream(),
+            createOutboundQueue(connectionId), id -> runAsync(() -> disconnectClient(id)),
+            networkConfig.getMaxBatchFrames(), networkConfig.getLingerMicros());
+        writers.put(connectionId, writer);
+        executorService.submit(writer);
+    }
+
+    /**
+     * Desconecta a los clientes que no consumen: su cola de salida lleva por encima
+     * de la marca de agua más tiempo que outbound.slowConsumerMs.
+     */
+    private void disconnectSlowConsumers() {
+        if (!isRunning.get()) {
+            return;
+        }
+        long deadlineNanos = TimeUnit.MILLISECONDS.toNanos(networkConfig.getSlowConsumerMillis());
+        List<String> slow = new ArrayList<>();
+        for (Map.Entry<String, StreamWriter> entry : writers.entrySet()) {
+            if (entry.getValue().getQueue().isSlowConsumer(deadlineNanos)) {
+                slow.add(entry.getKey());
+            }
+        }
+        NioServerEngine engine = nioServerEngine;
+        if (engine != null) {
+            slow.addAll(engine.findSlowConsumers(deadlineNanos));
+        }
+        for (String connectionId : slow) {
+            logger.warn("Cliente lento, desconectando: " + connectionId);
+            logService.logWarning("Cliente lento desconectado: " + connectionId, "ConnectionManager", traceId, null);
+            runAsync(() -> disconnectClient(connectionId));
+        }
+    }
+
+    /**
+     * Registra cuántos frames se agruparon por escritura al socket en el último intervalo.
+     */
+    private void logWriteStats() {
+        WriteStats stats = WriteStats.getInstance();
+        long frames = stats.getFrames();
+        long writes = stats.getWrites();
+        long deltaWrites = writes - lastStatsWrites;
+        if (deltaWrites > 0) {
+            long deltaFrames = frames - lastStatsFrames;
+            logger.info(String.format("Escritura de red: %d frames en %d escrituras (%.2f frames/escritura)",
+                deltaFrames, deltaWrites, (double) deltaFrames / deltaWrites));
+        }
+        lastStatsFrames = frames;
+        lastStatsWrites = writes;
+    }
+
     private void handleClient(String clientId, Socket socket) {
         try (DataInputStream input = new DataInputStream(socket.getInputStream())) {
             while (isRunning.get() && !socket.isClosed()) {
                 int length = input.readInt();
                 if (length > 0 && length < 10 * 1024 * 1024) { // Max 10MB
-                    byte[] data = new byte[length];
-                    input.readFully(data);
-                    logger.debug("Mensaje recibido de " + clientId + ", tamaño: " + length);
-                    // Verificar si es mensaje de control para logging
-                    if (length >= com.whatsapp.protocol.MessageHeader.HEADER_SIZE) {
-                        try {
-                            byte[] headerBytes = new byte[com.whatsapp.protocol.MessageHeader.HEADER_SIZE];
-                            System.arraycopy(data, 0, headerBytes, 0, headerBytes.length);
-                            com.whatsapp.protocol.MessageHeader header = 
-                                com.whatsapp.protocol.MessageHeader.fromBytes(headerBytes);
-                            if (header.getTipo() == com.whatsapp.protocol.MessageHeader.MessageType.CONTROL) {
-                                logger.info("Mensaje de CONTROL recibido de " + clientId);
-                            }
-                        } catch (Exception e) {
-                            // Ignorar errores de parsing para logging
-                        }
+                    PooledFrame frame = bufferPool.acquire(length);
+                    try {
+                        input.readFully(frame.array(), 0, length);
+                        dispatchFrame(clientId, frame);
+                    } finally {
+                        frame.release();
                     }
-                    eventAggregator.publish(new NetworkEvent(NetworkEvent.EventType.MESSAGE_RECEIVED, data, clientId));
                 }
             }
         } catch (IOException e) {
@@ -165,45 +274,92 @@ public class ConnectionManager {
         }
     }
 
+    /**
+     * Publica un frame recibido. Los observers se ejecutan en este mismo hilo, así que
+     * el lector puede liberar el frame al volver; quien lo necesite después lo retiene.
+     */
+    private void dispatchFrame(String clientId, PooledFrame frame) {
+        logger.debug("Mensaje recibido de " + clientId + ", tamaño: " + frame.length());
+        // Verificar si es mensaje de control para logging (el tipo es el primer byte del header)
+        if (frame.length() >= com.whatsapp.protocol.MessageHeader.HEADER_SIZE
+            && frame.array()[0] == com.whatsapp.protocol.MessageHeader.MessageType.CONTROL) {
+            logger.info("Mensaje de CONTROL recibido de " + clientId);
+        }
+        eventAggregator.publish(new NetworkEvent(NetworkEvent.EventType.FRAME_RECEIVED, frame, clientId));
+    }
+
     public void send(String connectionId, byte[] data) throws IOException {
-        DataOutputStream out = outputStreams.get(connectionId);
-        if (out == null) {
-            throw new IOException("Conexión no encontrada: " + connectionId);
+        sendFrame(connectionId, OutboundQueue.frameOf(data), TrafficClass.of(data));
+    }
+
+    /**
+     * Encola un frame ya armado (prefijo de longitud + header + payload) sin copiarlo.
+     * El llamador cede el buffer: no debe reusarlo ni moverle la posición después.
+     */
+    public void sendFrame(String connectionId, ByteBuffer frame) throws IOException {
+        sendFrame(connectionId, frame, TrafficClass.of(frame.get(frame.position() + 4)));
+    }
+
+    private void sendFrame(String connectionId, ByteBuffer frame, TrafficClass trafficClass) throws IOException {
+        NioServerEngine engine = nioServerEngine;
+        if (engine != null && engine.owns(connectionId)) {
+            engine.send(connectionId, frame, trafficClass);
+            return;
         }
-        synchronized (out) {
-            out.writeInt(data.length);
-            out.write(data);
-            out.flush();
+        StreamWriter writer = writers.get(connectionId);
+        if (writer == null) {
+            throw new IOException("Conexión no encontrada: " + connectionId);
         }
+        writer.enqueue(frame, trafficClass);
     }
 
-    public void broadcast(byte[] data) {
-        for (String connectionId : outputStreams.keySet()) {
+    /**
+     * Envía el mismo mensaje (header + payload) a varias conexiones. Se arma un único
+     * frame y cada cola recibe una vista de solo lectura sobre él, sin copiar los bytes.
+     */
+    public void multicast(Collection<String> connectionIds, ByteBuffer message) {
+        ByteBuffer frame = OutboundQueue.frameOf(message).asReadOnlyBuffer();
+        TrafficClass trafficClass = TrafficClass.of(message);
+        for (String connectionId : connectionIds) {
             try {
-                send(connectionId, data);
+                sendFrame(connectionId, frame.duplicate(), trafficClass);
             } catch (IOException e) {
                 logger.error("Error enviando a " + connectionId, e);
             }
         }
     }
 
+    public void broadcast(byte[] data) {
+        multicast(new ArrayList<>(connections.keySet()), ByteBuffer.wrap(data));
+    }
+
     public void disconnectClient(String connectionId) {
         try {
             Socket socket = connections.remove(connectionId);
-            DataOutputStream out = outputStreams.remove(connectionId);
+            StreamWriter writer = writers.remove(connectionId);
+            if (socket == null && writer == null) {
+                return; // Ya desconectado (p. ej. por el lector y el escritor a la vez)
+            }
+            ChecksumNegotiation.getInstance().remove(connectionId);
+            PeerFeatures.getInstance().remove(connectionId);
+            NioServerEngine engine = nioServerEngine;
+            if (engine != null) {
+                engine.close(connectionId);
+            }
+            // Cerrar el escritor antes que el socket para que no lo reporte como fallo
+            if (writer != null) {
+                writer.close();
+            }
             if (socket != null && !socket.isClosed()) {
                 socket.close();
             }
-            if (out != null) {
-                out.close();
-            }
             logService.logInfo("Cliente desconectado: " + connectionId, "ConnectionManager", traceId, null);
             eventAggregator.publish(new NetworkEvent(NetworkEvent.EventType.DISCONNECTED, connectionId, "SERVER"));
             
             // Notificar a todos los clientes sobre la desconexión
-            if (isRunning.get() && serverSocket != null) {
+            if (isRunning.get() && serverMode.get()) {
                 try {
-                    com.whatsapp.service.ControlService controlService = new com.whatsapp.service.ControlService();
+                    com.whatsapp.service.ControlService controlService = com.whatsapp.service.ControlService.getInstance();
                     controlService.notifyUserDisconnected(connectionId);
                 } catch (Exception e) {
                     logger.warn("Error notificando desconexión a clientes", e);
@@ -230,12 +386,30 @@ public class ConnectionManager {
                 logger.error("Error cerrando servidor", e);
             }
         }
+        if (nioServerEngine != null) {
+            nioServerEngine.stop();
+            nioServerEngine = null;
+        }
         
         executorService.shutdownNow();
         ensureExecutorService();
         logService.logInfo("ConnectionManager detenido", "ConnectionManager", traceId, null);
     }
 
+    /**
+     * Selecciona el motor de E/S a usar en el próximo startServer (por defecto el de network.properties).
+     */
+    public void setServerEngineType(ServerEngineType serverEngineType) {
+        if (isRunning.get()) {
+            throw new IllegalStateException("No se puede cambiar el motor con el servidor en ejecución");
+        }
+        this.serverEngineType = serverEngineType == null ? ServerEngineType.BLOCKING : serverEngineType;
+    }
+
+    public ServerEngineType getServerEngineType() {
+        return serverEngineType;
+    }
+
     public void setStateListener(ConnectionStateListener listener) {
         this.stateListener = listener;
     }
@@ -277,9 +451,40 @@ public class ConnectionManager {
         }
     }
 
+    /**
+     * Selecciona el tipo de hilos para lectores y tareas por conexión. Se aplica al
+     * próximo startServer/connectToServer (por defecto el de network.properties).
+     */
+    public void setExecutorMode(ExecutorMode executorMode) {
+        if (isRunning.get()) {
+            throw new IllegalStateException("No se puede cambiar el modo de hilos con conexiones activas");
+        }
+        ExecutorMode newMode = executorMode == null ? ExecutorMode.PLATFORM : executorMode;
+        if (newMode != this.executorMode) {
+            this.executorMode = newMode;
+            executorService.shutdown();
+            executorService = createExecutorService();
+        }
+    }
+
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    public NetworkConfig getNetworkConfig() {
+        return networkConfig;
+    }
+
+    private ExecutorService createExecutorService() {
+        if (executorMode == ExecutorMode.VIRTUAL) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        return Executors.newCachedThreadPool();
+    }
+
     private void ensureExecutorService() {
         if (executorService == null || executorService.isShutdown() || executorService.isTerminated()) {
-            executorService = Executors.newCachedThreadPool();
+            executorService = createExecutorService();
         }
     }
 }
@@ -0,0 +1,22 @@
+package com.whatsapp.network;
+
+/**
+ * Tipo de hilos usados por el ConnectionManager para lectores y tareas por conexión.
+ * PLATFORM: pool cacheado de hilos del sistema. VIRTUAL: un hilo virtual por tarea.
+ */
+public enum ExecutorMode {
+    PLATFORM,
+    VIRTUAL;
+
+    public static ExecutorMode fromString(String value) {
+        if (value == null) {
+            return PLATFORM;
+        }
+        for (ExecutorMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(value.trim())) {
+                return mode;
+            }
+        }
+        return PLATFORM;
+    }
+}
@@ -0,0 +1,199 @@
+package com.whatsapp.network;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Configuración de la capa de red. Se lee de network.properties y cada clave
+ * puede sobrescribirse con una propiedad de sistema (-Dwhatsapp.&lt;clave&gt;=valor).
+ */
+public class NetworkConfig {
+    private static final String CONFIG_FILE = "network.properties";
+    private static final String SYSTEM_PREFIX = "whatsapp.";
+    private static final String DEFAULT_SERVER_ENGINE = "BLOCKING";
+    private static final String DEFAULT_EXECUTOR_MODE = "PLATFORM";
+    private static final int DEFAULT_IO_LOOPS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int DEFAULT_OUTBOUND_CAPACITY = 16 * 1024 * 1024;
+    private static final int DEFAULT_OUTBOUND_HIGH_WATER = 8 * 1024 * 1024;
+    private static final int DEFAULT_BULK_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_SLOW_CONSUMER_MS = 10000;
+    private static final int DEFAULT_MAX_BATCH_FRAMES = 64;
+    private static final int DEFAULT_LINGER_MICROS = 0;
+    private static final int DEFAULT_PRESENCE_COALESCE_MS = 50;
+    private static final int DEFAULT_AUTH_WORKERS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_AUTH_QUEUE_CAPACITY = 64;
+    private static final int DEFAULT_AUTH_RATE_PER_MINUTE = 10;
+    private static final int DEFAULT_AUTH_BURST = 5;
+    private static final int DEFAULT_SESSION_TTL_MINUTES = 12 * 60;
+    private static final int DEFAULT_RPC_TIMEOUT_MS = 10000;
+    private static final int DEFAULT_TRANSFER_WINDOW_CHUNKS = 64;
+    private static final int DEFAULT_TRANSFER_CREDIT_TIMEOUT_MS = 30000;
+    private static final String DEFAULT_BLOB_DIR = "blobs";
+    private static final int DEFAULT_BLOB_MAX_MEGABYTES = 0;
+
+    private ServerEngineType serverEngine;
+    private int ioLoops;
+    private ExecutorMode executorMode;
+    private int outboundCapacityBytes;
+    private int outboundHighWaterBytes;
+    private int bulkTimeoutMillis;
+    private int slowConsumerMillis;
+    private int maxBatchFrames;
+    private int lingerMicros;
+    private int presenceCoalesceMillis;
+    private int authWorkers;
+    private int authQueueCapacity;
+    private int authRatePerMinute;
+    private int authBurst;
+    private String sessionSecret;
+    private int sessionTtlMinutes;
+    private int rpcTimeoutMillis;
+    private int transferWindowChunks;
+    private int transferCreditTimeoutMillis;
+    private String blobDir;
+    private int blobMaxMegabytes;
+
+    public NetworkConfig() {
+        loadConfig();
+    }
+
+    private void loadConfig() {
+        Properties props = new Properties();
+        try (FileInputStream fis = new FileInputStream(CONFIG_FILE)) {
+            props.load(fis);
+        } catch (IOException e) {
+            // Si no existe el archivo, usar valores por defecto
+        }
+
+        this.serverEngine = ServerEngineType.fromString(read(props, "server.engine", DEFAULT_SERVER_ENGINE));
+        this.ioLoops = Math.max(1, readInt(props, "server.ioLoops", DEFAULT_IO_LOOPS));
+        this.executorMode = ExecutorMode.fromString(read(props, "executor.mode", DEFAULT_EXECUTOR_MODE));
+        this.outboundCapacityBytes = Math.max(64 * 1024, readInt(props, "outbound.capacityBytes", DEFAULT_OUTBOUND_CAPACITY));
+        this.outboundHighWaterBytes = Math.max(1, readInt(props, "outbound.highWaterBytes", DEFAULT_OUTBOUND_HIGH_WATER));
+        this.bulkTimeoutMillis = Math.max(0, readInt(props, "outbound.bulkTimeoutMs", DEFAULT_BULK_TIMEOUT_MS));
+        this.slowConsumerMillis = Math.max(1, readInt(props, "outbound.slowConsumerMs", DEFAULT_SLOW_CONSUMER_MS));
+        this.maxBatchFrames = Math.max(1, readInt(props, "outbound.maxBatchFrames", DEFAULT_MAX_BATCH_FRAMES));
+        this.lingerMicros = Math.max(0, readInt(props, "outbound.lingerMicros", DEFAULT_LINGER_MICROS));
+        this.presenceCoalesceMillis = Math.max(0, readInt(props, "presence.coalesceMs", DEFAULT_PRESENCE_COALESCE_MS));
+        this.authWorkers = Math.max(1, readInt(props, "auth.workers", DEFAULT_AUTH_WORKERS));
+        this.authQueueCapacity = Math.max(1, readInt(props, "auth.queueCapacity", DEFAULT_AUTH_QUEUE_CAPACITY));
+        this.authRatePerMinute = Math.max(1, readInt(props, "auth.ratePerMinute", DEFAULT_AUTH_RATE_PER_MINUTE));
+        this.authBurst = Math.max(1, readInt(props, "auth.burst", DEFAULT_AUTH_BURST));
+        this.sessionSecret = read(props, "session.secret", "");
+        this.sessionTtlMinutes = Math.max(1, readInt(props, "session.ttlMinutes", DEFAULT_SESSION_TTL_MINUTES));
+        this.rpcTimeoutMillis = Math.max(100, readInt(props, "rpc.timeoutMs", DEFAULT_RPC_TIMEOUT_MS));
+        this.transferWindowChunks = Math.max(1, Math.min(1024,
+            readInt(props, "transfer.windowChunks", DEFAULT_TRANSFER_WINDOW_CHUNKS)));
+        this.transferCreditTimeoutMillis = Math.max(1000,
+            readInt(props, "transfer.creditTimeoutMs", DEFAULT_TRANSFER_CREDIT_TIMEOUT_MS));
+        this.blobDir = read(props, "blob.dir", DEFAULT_BLOB_DIR);
+        this.blobMaxMegabytes = Math.max(0, readInt(props, "blob.maxMegabytes", DEFAULT_BLOB_MAX_MEGABYTES));
+    }
+
+    private String read(Properties props, String key, String defaultValue) {
+        String value = System.getProperty(SYSTEM_PREFIX + key);
+        if (value == null || value.isBlank()) {
+            value = props.getProperty(key, defaultValue);
+        }
+        return value.trim();
+    }
+
+    private int readInt(Properties props, String key, int defaultValue) {
+        try {
+            return Integer.parseInt(read(props, key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public ServerEngineType getServerEngine() {
+        return serverEngine;
+    }
+
+    public int getIoLoops() {
+        return ioLoops;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    public int getOutboundCapacityBytes() {
+        return outboundCapacityBytes;
+    }
+
+    public int getOutboundHighWaterBytes() {
+        return outboundHighWaterBytes;
+    }
+
+    public int getBulkTimeoutMillis() {
+        return bulkTimeoutMillis;
+    }
+
+    public int getSlowConsumerMillis() {
+        return slowConsumerMillis;
+    }
+
+    public int getMaxBatchFrames() {
+        return maxBatchFrames;
+    }
+
+    public int getLingerMicros() {
+        return lingerMicros;
+    }
+
+    public int getPresenceCoalesceMillis() {
+        return presenceCoalesceMillis;
+    }
+
+    public int getAuthWorkers() {
+        return authWorkers;
+    }
+
+    public int getAuthQueueCapacity() {
+        return authQueueCapacity;
+    }
+
+    public int getAuthRatePerMinute() {
+        return authRatePerMinute;
+    }
+
+    public int getAuthBurst() {
+        return authBurst;
+    }
+
+    /**
+     * Clave HMAC de los tokens de sesión en Base64; vacía si no se configuró
+     */
+    public String getSessionSecret() {
+        return sessionSecret;
+    }
+
+    public int getSessionTtlMinutes() {
+        return sessionTtlMinutes;
+    }
+
+    public int getRpcTimeoutMillis() {
+        return rpcTimeoutMillis;
+    }
+
+    public int getTransferWindowChunks() {
+        return transferWindowChunks;
+    }
+
+    public int getTransferCreditTimeoutMillis() {
+        return transferCreditTimeoutMillis;
+    }
+
+    public String getBlobDir() {
+        return blobDir;
+    }
+
+    /**
+     * Tamaño máximo del almacén de blobs; 0 lo desactiva
+     */
+    public long getBlobMaxBytes() {
+        return blobMaxMegabytes * 1024L * 1024L;
+    }
+}
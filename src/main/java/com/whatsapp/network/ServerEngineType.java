@@ -0,0 +1,22 @@
+package com.whatsapp.network;
+
+/**
+ * Motor de E/S usado por el servidor para atender clientes.
+ * BLOCKING: un hilo lector por socket. NIO: Selector con un número fijo de loops.
+ */
+public enum ServerEngineType {
+    BLOCKING,
+    NIO;
+
+    public static ServerEngineType fromString(String value) {
+        if (value == null) {
+            return BLOCKING;
+        }
+        for (ServerEngineType type : values()) {
+            if (type.name().equalsIgnoreCase(value.trim())) {
+                return type;
+            }
+        }
+        return BLOCKING;
+    }
+}
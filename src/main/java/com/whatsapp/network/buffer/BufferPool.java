@@ -0,0 +1,92 @@
+package com.whatsapp.network.buffer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool de buffers de recepción por clases de tamaño. Cada frame leído toma el
+ * arreglo de la clase más chica que lo contiene; los frames más grandes que la
+ * última clase se asignan en el heap y no vuelven al pool.
+ */
+public class BufferPool {
+    private static final BufferPool INSTANCE = new BufferPool(
+        new int[] {2 * 1024, 16 * 1024, 128 * 1024, 1024 * 1024},
+        new int[] {256, 128, 64, 16}
+    );
+
+    private final int[] classSizes;
+    private final int[] maxPooled;
+    private final Queue<byte[]>[] free;
+    private final AtomicInteger[] freeCount;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool(int[] classSizes, int[] maxPooled) {
+        this.classSizes = classSizes.clone();
+        this.maxPooled = maxPooled.clone();
+        this.free = new Queue[classSizes.length];
+        this.freeCount = new AtomicInteger[classSizes.length];
+        for (int i = 0; i < classSizes.length; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            freeCount[i] = new AtomicInteger();
+        }
+    }
+
+    public static BufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Devuelve un frame con referencia inicial 1 y capacidad para length bytes.
+     */
+    public PooledFrame acquire(int length) {
+        int sizeClass = classFor(length);
+        if (sizeClass < 0) {
+            oversized.increment();
+            return new PooledFrame(null, -1, new byte[length], length);
+        }
+        byte[] array = free[sizeClass].poll();
+        if (array != null) {
+            freeCount[sizeClass].decrementAndGet();
+            hits.increment();
+        } else {
+            array = new byte[classSizes[sizeClass]];
+            misses.increment();
+        }
+        return new PooledFrame(this, sizeClass, array, length);
+    }
+
+    void recycle(int sizeClass, byte[] array) {
+        if (freeCount[sizeClass].incrementAndGet() > maxPooled[sizeClass]) {
+            // Pool lleno para esta clase: dejar el arreglo al GC
+            freeCount[sizeClass].decrementAndGet();
+            return;
+        }
+        free[sizeClass].offer(array);
+    }
+
+    private int classFor(int length) {
+        for (int i = 0; i < classSizes.length; i++) {
+            if (length <= classSizes[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getOversized() {
+        return oversized.sum();
+    }
+}
@@ -0,0 +1,65 @@
+package com.whatsapp.network.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Frame recibido (header + payload) sobre un arreglo del BufferPool, con conteo de
+ * referencias. Quien lo lee lo libera después de publicarlo; un handler que necesite
+ * conservarlo más allá de su llamada debe invocar retain() y luego release().
+ */
+public final class PooledFrame {
+    private final BufferPool pool;
+    private final int sizeClass;
+    private final byte[] array;
+    private final int length;
+    private final AtomicInteger refCount;
+
+    PooledFrame(BufferPool pool, int sizeClass, byte[] array, int length) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.array = array;
+        this.length = length;
+        this.refCount = new AtomicInteger(1);
+    }
+
+    /**
+     * Arreglo de respaldo; solo los primeros length() bytes son del frame.
+     */
+    public byte[] array() {
+        return array;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Vista del frame (posición 0, límite length()) respaldada por el arreglo del pool.
+     */
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(array, 0, length);
+    }
+
+    public PooledFrame retain() {
+        int current;
+        do {
+            current = refCount.get();
+            if (current <= 0) {
+                throw new IllegalStateException("Frame ya liberado");
+            }
+        } while (!refCount.compareAndSet(current, current + 1));
+        return this;
+    }
+
+    public void release() {
+        int remaining = refCount.decrementAndGet();
+        if (remaining == 0) {
+            if (pool != null) {
+                pool.recycle(sizeClass, array);
+            }
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Frame liberado más veces de las retenidas");
+        }
+    }
+}
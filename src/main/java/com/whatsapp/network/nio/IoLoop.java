@@ -0,0 +1,136 @@
+package com.whatsapp.network.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hilo de E/S con su propio Selector. Las operaciones sobre las claves se encolan
+ * como tareas y se ejecutan dentro del loop para no competir con select().
+ */
+class IoLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(IoLoop.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final NioServerEngine engine;
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private final ByteBuffer readBuffer;
+    private final Thread thread;
+    private volatile boolean running;
+
+    IoLoop(NioServerEngine engine, String name) throws IOException {
+        this.engine = engine;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    void register(SelectableChannel channel, int ops, NioConnection connection) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, ops, connection);
+                if (connection != null) {
+                    connection.attach(key);
+                }
+            } catch (ClosedChannelException e) {
+                if (connection != null) {
+                    connection.close(true);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Error en loop de E/S", e);
+                }
+            }
+        }
+        closeSelector();
+    }
+
+    private void handleKey(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (key.isAcceptable()) {
+                engine.accept();
+                return;
+            }
+            if (key.isReadable()) {
+                connection.onReadable(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flushWrites();
+            }
+        } catch (CancelledKeyException e) {
+            // La conexión se cerró mientras se procesaba la clave
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.warn("Error ejecutando tarea del loop de E/S", e);
+            }
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void closeSelector() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            logger.warn("Error cerrando selector", e);
+        }
+    }
+}
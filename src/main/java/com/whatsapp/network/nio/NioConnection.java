@@ -0,0 +1,247 @@
+package com.whatsapp.network.nio;
+
+import com.whatsapp.network.buffer.BufferPool;
+import com.whatsapp.network.buffer.PooledFrame;
+import com.whatsapp.network.outbound.OutboundQueue;
+import com.whatsapp.network.outbound.TrafficClass;
+import com.whatsapp.network.outbound.WriteStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estado de una conexión atendida por el motor NIO: decodificador de frames
+ * con prefijo de longitud, cola de entrada despachada en serie y cola de salida.
+ */
+class NioConnection {
+    private static final Logger logger = LoggerFactory.getLogger(NioConnection.class);
+    private static final long MAX_PENDING_INBOUND_BYTES = 32L * 1024 * 1024;
+
+    private final String connectionId;
+    private final SocketChannel channel;
+    private final IoLoop loop;
+    private final NioServerEngine engine;
+    private SelectionKey key;
+
+    // Lectura (solo desde el loop)
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+    private PooledFrame body;
+    private int bodyPosition;
+    private boolean readPaused;
+
+    // Despacho de frames completos en orden
+    private final Queue<PooledFrame> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingInboundBytes = new AtomicLong();
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean(false);
+
+    // Escritura
+    private final OutboundQueue outbound;
+    private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>();
+    private final ByteBuffer[] gather;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    NioConnection(String connectionId, SocketChannel channel, IoLoop loop, NioServerEngine engine,
+                  OutboundQueue outbound) {
+        this.connectionId = connectionId;
+        this.channel = channel;
+        this.loop = loop;
+        this.engine = engine;
+        this.outbound = outbound;
+        this.gather = new ByteBuffer[engine.getMaxBatchFrames()];
+    }
+
+    String getConnectionId() {
+        return connectionId;
+    }
+
+    OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+        if (!outbound.isEmpty()) {
+            flushWrites();
+        }
+    }
+
+    void onReadable(ByteBuffer readBuffer) {
+        readBuffer.clear();
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            logger.debug("Error leyendo de {}: {}", connectionId, e.getMessage());
+            close(true);
+            return;
+        }
+        if (read < 0) {
+            close(true);
+            return;
+        }
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+            if (body == null) {
+                while (lengthBuffer.hasRemaining() && readBuffer.hasRemaining()) {
+                    lengthBuffer.put(readBuffer.get());
+                }
+                if (lengthBuffer.hasRemaining()) {
+                    break;
+                }
+                lengthBuffer.flip();
+                int length = lengthBuffer.getInt();
+                lengthBuffer.clear();
+                if (length == 0) {
+                    continue;
+                }
+                if (length < 0 || length >= NioServerEngine.MAX_FRAME_SIZE) {
+                    logger.warn("Longitud de frame inválida ({}) desde {}; cerrando conexión", length, connectionId);
+                    close(true);
+                    return;
+                }
+                body = BufferPool.getInstance().acquire(length);
+                bodyPosition = 0;
+            }
+            int take = Math.min(readBuffer.remaining(), body.length() - bodyPosition);
+            readBuffer.get(body.array(), bodyPosition, take);
+            bodyPosition += take;
+            if (bodyPosition == body.length()) {
+                enqueueInbound(body);
+                body = null;
+            }
+        }
+    }
+
+    private void enqueueInbound(PooledFrame frame) {
+        inbound.add(frame);
+        long pending = pendingInboundBytes.addAndGet(frame.length());
+        if (pending > MAX_PENDING_INBOUND_BYTES && !readPaused && key != null && key.isValid()) {
+            // El consumidor va atrasado: dejar de leer hasta que se vacíe la cola
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        if (dispatchScheduled.compareAndSet(false, true)) {
+            engine.dispatch(this::drainInbound);
+        }
+    }
+
+    private void drainInbound() {
+        do {
+            PooledFrame frame;
+            while ((frame = inbound.poll()) != null) {
+                try {
+                    engine.deliverFrame(connectionId, frame);
+                } catch (RuntimeException e) {
+                    logger.warn("Error despachando frame de {}", connectionId, e);
+                } finally {
+                    frame.release();
+                }
+                pendingInboundBytes.addAndGet(-frame.length());
+            }
+            dispatchScheduled.set(false);
+        } while (!inbound.isEmpty() && dispatchScheduled.compareAndSet(false, true));
+
+        if (readPaused) {
+            loop.execute(this::resumeReading);
+        }
+    }
+
+    private void resumeReading() {
+        if (readPaused && pendingInboundBytes.get() <= MAX_PENDING_INBOUND_BYTES / 2 && key != null && key.isValid()) {
+            readPaused = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    void enqueue(ByteBuffer frame, TrafficClass trafficClass) throws IOException {
+        if (closed.get()) {
+            throw new IOException("Conexión cerrada: " + connectionId);
+        }
+        outbound.offer(frame, trafficClass);
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flushWrites);
+        }
+    }
+
+    void flushWrites() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        flushScheduled.set(false);
+        try {
+            // Solo se toman de la cola los frames que caben en una escritura; el resto
+            // queda en la OutboundQueue, donde cuenta para la marca de agua.
+            while (outbound.drainTo(writing, gather.length - writing.size()) > 0 || !writing.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer buffer : writing) {
+                    gather[count++] = buffer;
+                    if (count == gather.length) {
+                        break;
+                    }
+                }
+                long written = channel.write(gather, 0, count);
+                int completed = 0;
+                while (!writing.isEmpty() && !writing.peekFirst().hasRemaining()) {
+                    writing.pollFirst();
+                    completed++;
+                }
+                if (written > 0) {
+                    WriteStats.getInstance().record(completed, written);
+                }
+                if (written == 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Error escribiendo a {}: {}", connectionId, e.getMessage());
+            close(true);
+            return;
+        } finally {
+            Arrays.fill(gather, null);
+        }
+
+        if (writing.isEmpty()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } else {
+            // El socket está lleno: esperar OP_WRITE
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    void close(boolean notify) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Error cerrando canal {}", connectionId, e);
+        }
+        outbound.close();
+        // El frame a medio leer vuelve al pool desde el loop, que es el único que toca body
+        loop.execute(this::releasePartialBody);
+        engine.connectionClosed(this, notify);
+    }
+
+    private void releasePartialBody() {
+        if (body != null) {
+            body.release();
+            body = null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.whatsapp.network.nio;
+
+import com.whatsapp.network.buffer.PooledFrame;
+import com.whatsapp.network.outbound.OutboundQueue;
+import com.whatsapp.network.outbound.TrafficClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Motor de servidor basado en ServerSocketChannel y Selector.
+ * Un número fijo de IoLoops atiende todas las conexiones; los frames completos
+ * (prefijo de 4 bytes + datos) se entregan en orden por conexión sobre el executor de despacho.
+ */
+public class NioServerEngine {
+    private static final Logger logger = LoggerFactory.getLogger(NioServerEngine.class);
+    static final int MAX_FRAME_SIZE = 10 * 1024 * 1024; // Max 10MB, igual que el motor bloqueante
+
+    /**
+     * Callbacks hacia el ConnectionManager.
+     */
+    public interface Listener {
+        void onAccepted(String connectionId, SocketChannel channel);
+        /** El frame se libera al volver; retenerlo si se usa después. */
+        void onFrame(String connectionId, PooledFrame frame);
+        void onClosed(String connectionId);
+    }
+
+    private final int ioLoopCount;
+    private final Listener listener;
+    private final Executor dispatchExecutor;
+    private final Function<String, OutboundQueue> queueFactory;
+    private final int maxBatchFrames;
+    private final Map<String, NioConnection> connections;
+    private final AtomicBoolean running;
+    private final AtomicInteger nextLoop;
+    private IoLoop[] loops;
+    private ServerSocketChannel serverChannel;
+
+    public NioServerEngine(int ioLoopCount, Listener listener, Executor dispatchExecutor,
+                           Function<String, OutboundQueue> queueFactory, int maxBatchFrames) {
+        this.ioLoopCount = Math.max(1, ioLoopCount);
+        this.listener = listener;
+        this.dispatchExecutor = dispatchExecutor;
+        this.queueFactory = queueFactory;
+        this.maxBatchFrames = Math.max(1, maxBatchFrames);
+        this.connections = new ConcurrentHashMap<>();
+        this.running = new AtomicBoolean(false);
+        this.nextLoop = new AtomicInteger(0);
+    }
+
+    public void start(int port) throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("El motor NIO ya está en ejecución");
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+
+        loops = new IoLoop[ioLoopCount];
+        for (int i = 0; i < ioLoopCount; i++) {
+            loops[i] = new IoLoop(this, "nio-io-" + i);
+        }
+        for (IoLoop loop : loops) {
+            loop.start();
+        }
+        // El primer loop también atiende las aceptaciones
+        loops[0].register(serverChannel, SelectionKey.OP_ACCEPT, null);
+        logger.info("Motor NIO escuchando en puerto {} con {} loops de E/S", port, ioLoopCount);
+    }
+
+    void accept() {
+        SocketChannel channel;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                String connectionId = channel.getRemoteAddress().toString();
+                IoLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                NioConnection connection = new NioConnection(connectionId, channel, loop, this,
+                    queueFactory.apply(connectionId));
+                connections.put(connectionId, connection);
+                listener.onAccepted(connectionId, channel);
+                loop.register(channel, SelectionKey.OP_READ, connection);
+            }
+        } catch (IOException e) {
+            if (running.get()) {
+                logger.error("Error aceptando conexión NIO", e);
+            }
+        }
+    }
+
+    /**
+     * Encola un frame ya armado (prefijo de longitud + datos). El buffer no se copia:
+     * el llamador no debe compartir su posición con otras conexiones.
+     */
+    public void send(String connectionId, ByteBuffer frame, TrafficClass trafficClass) throws IOException {
+        NioConnection connection = connections.get(connectionId);
+        if (connection == null) {
+            throw new IOException("Conexión no encontrada: " + connectionId);
+        }
+        connection.enqueue(frame, trafficClass);
+    }
+
+    /**
+     * Conexiones cuya cola de salida supera la marca de agua desde hace más de deadlineNanos.
+     */
+    public List<String> findSlowConsumers(long deadlineNanos) {
+        List<String> slow = new ArrayList<>();
+        for (NioConnection connection : connections.values()) {
+            if (connection.getOutbound().isSlowConsumer(deadlineNanos)) {
+                slow.add(connection.getConnectionId());
+            }
+        }
+        return slow;
+    }
+
+    public boolean owns(String connectionId) {
+        return connectionId != null && connections.containsKey(connectionId);
+    }
+
+    /**
+     * Cierra una conexión a pedido del ConnectionManager (sin volver a notificar onClosed).
+     */
+    public void close(String connectionId) {
+        NioConnection connection = connections.remove(connectionId);
+        if (connection != null) {
+            connection.close(false);
+        }
+    }
+
+    public void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        for (String connectionId : connections.keySet()) {
+            close(connectionId);
+        }
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            logger.error("Error cerrando canal del servidor", e);
+        }
+        if (loops != null) {
+            for (IoLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    int getMaxBatchFrames() {
+        return maxBatchFrames;
+    }
+
+    boolean isRunning() {
+        return running.get();
+    }
+
+    void dispatch(Runnable task) {
+        dispatchExecutor.execute(task);
+    }
+
+    void deliverFrame(String connectionId, PooledFrame frame) {
+        listener.onFrame(connectionId, frame);
+    }
+
+    void connectionClosed(NioConnection connection, boolean notify) {
+        connections.remove(connection.getConnectionId(), connection);
+        if (notify && running.get()) {
+            listener.onClosed(connection.getConnectionId());
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.whatsapp.network.observer;
+
+/**
+ * Cómo recibe los eventos un suscriptor: SYNC en el hilo que publica (lector de red),
+ * ASYNC a través de una cola acotada propia con su despachador.
+ */
+public enum DeliveryMode {
+    SYNC,
+    ASYNC
+}
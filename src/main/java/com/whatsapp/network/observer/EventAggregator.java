@@ -1,14 +1,43 @@
 package com.whatsapp.network.observer;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Publica eventos de red indexados por tipo: cada evento solo recorre las suscripciones
+ * de su EventType. Los suscriptores ASYNC tienen cola y despachador propios, de modo que
+ * un observer lento (la UI) no frena al lector de red.
+ */
 public class EventAggregator {
+    private static final Logger logger = LoggerFactory.getLogger(EventAggregator.class);
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
     private static EventAggregator instance;
-    private final List<NetworkEventObserver> observers;
+    private final Map<NetworkEvent.EventType, List<Subscription>> subscriptions;
+    private final List<Subscription> all;
+    private final ExecutorService asyncExecutor;
 
     private EventAggregator() {
-        this.observers = new CopyOnWriteArrayList<>();
+        this.subscriptions = new EnumMap<>(NetworkEvent.EventType.class);
+        for (NetworkEvent.EventType type : NetworkEvent.EventType.values()) {
+            subscriptions.put(type, new CopyOnWriteArrayList<>());
+        }
+        this.all = new CopyOnWriteArrayList<>();
+        this.asyncExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "event-dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public static synchronized EventAggregator getInstance() {
@@ -18,22 +47,59 @@ public class EventAggregator {
         return instance;
     }
 
+    /**
+     * Suscripción a todos los tipos, entregada en el hilo que publica
+     */
     public void subscribe(NetworkEventObserver observer) {
-        observers.add(observer);
+        subscribe(observer, EnumSet.allOf(NetworkEvent.EventType.class), null, DeliveryMode.SYNC);
+    }
+
+    public void subscribe(NetworkEventObserver observer, Set<NetworkEvent.EventType> types, DeliveryMode mode) {
+        subscribe(observer, types, null, mode);
+    }
+
+    /**
+     * @param source si no es null, solo se entregan los eventos con esa fuente
+     */
+    public void subscribe(NetworkEventObserver observer, Set<NetworkEvent.EventType> types, String source,
+                          DeliveryMode mode) {
+        Set<NetworkEvent.EventType> copy = types.isEmpty()
+            ? EnumSet.noneOf(NetworkEvent.EventType.class)
+            : EnumSet.copyOf(types);
+        Subscription subscription = new Subscription(observer, copy, source, mode,
+            DEFAULT_QUEUE_CAPACITY, asyncExecutor);
+        all.add(subscription);
+        for (NetworkEvent.EventType type : copy) {
+            subscriptions.get(type).add(subscription);
+        }
     }
 
+    /**
+     * Quita todas las suscripciones del observer
+     */
     public void unsubscribe(NetworkEventObserver observer) {
-        observers.remove(observer);
+        for (Subscription subscription : all) {
+            if (subscription.getObserver() == observer) {
+                all.remove(subscription);
+                for (NetworkEvent.EventType type : subscription.getTypes()) {
+                    subscriptions.get(type).remove(subscription);
+                }
+                subscription.close();
+            }
+        }
     }
 
     public void publish(NetworkEvent event) {
-        for (NetworkEventObserver observer : observers) {
+        Collection<Subscription> targets = subscriptions.get(event.getType());
+        for (Subscription subscription : targets) {
+            if (!subscription.matches(event)) {
+                continue;
+            }
             try {
-                observer.onNetworkEvent(event);
+                subscription.deliver(event);
             } catch (Exception e) {
-                System.err.println("Error notificando observer: " + e.getMessage());
+                logger.warn("Error entregando evento {}", event.getType(), e);
             }
         }
     }
 }
-
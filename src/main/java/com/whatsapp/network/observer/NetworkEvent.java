@@ -4,9 +4,12 @@ public class NetworkEvent {
     public enum EventType {
         CONNECTED,
         DISCONNECTED,
+        // Frame crudo recibido (PooledFrame), válido solo durante la publicación
+        FRAME_RECEIVED,
         MESSAGE_RECEIVED,
         FILE_PROGRESS,
-        VIDEO_FRAME,
+        // Tiempo real: un cuadro viejo no sirve, se puede descartar si el suscriptor se atrasa
+        VIDEO_FRAME(true),
         ERROR,
         AUTH_RESULT,
         REGISTER_RESULT,
@@ -17,7 +20,24 @@ public class NetworkEvent {
         ROOM_MEMBER_ADDED,
         ROOM_MEMBER_REMOVED,
         ROOM_MESSAGE,
-        ROOM_LIST
+        ROOM_LIST;
+
+        private final boolean droppable;
+
+        EventType() {
+            this(false);
+        }
+
+        EventType(boolean droppable) {
+            this.droppable = droppable;
+        }
+
+        /**
+         * true si una suscripción ASYNC atrasada puede descartar el evento
+         */
+        public boolean isDroppable() {
+            return droppable;
+        }
     }
 
     private final EventType type;
@@ -0,0 +1,171 @@
+package com.whatsapp.network.observer;
+
+import com.whatsapp.network.buffer.PooledFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suscripción de un observer a ciertos tipos de evento y, opcionalmente, a una sola fuente.
+ * En modo ASYNC los eventos pasan por una cola sin locks con dos cupos de capacity cada uno.
+ * Los de tiempo real (ver {@link NetworkEvent.EventType#isDroppable()}) descartan el más
+ * viejo al llenarse, para no frenar al hilo que publica. El resto (mensajes, progreso,
+ * control) tiene su propio cupo, así una ráfaga de video no los desplaza; si un observer
+ * lento lo llena, el que publica espera un rato y, si sigue lleno, el evento se descarta
+ * con una advertencia en lugar de crecer sin límite.
+ */
+final class Subscription {
+    private static final Logger logger = LoggerFactory.getLogger(Subscription.class);
+    private static final long FULL_WAIT_MILLIS = 2000;
+
+    private final NetworkEventObserver observer;
+    private final Set<NetworkEvent.EventType> types;
+    private final String source;
+    private final DeliveryMode mode;
+
+    // Solo en modo ASYNC
+    private final Queue<NetworkEvent> queue;
+    private final AtomicInteger queuedDroppable = new AtomicInteger();
+    private final Semaphore reliableSlots; // Cupo de los eventos que no se descartan solos
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final int capacity;
+    private final Executor executor;
+
+    Subscription(NetworkEventObserver observer, Set<NetworkEvent.EventType> types, String source,
+                 DeliveryMode mode, int capacity, Executor executor) {
+        this.observer = observer;
+        this.types = types;
+        this.source = source;
+        this.mode = mode;
+        this.capacity = capacity;
+        this.executor = executor;
+        this.queue = mode == DeliveryMode.ASYNC ? new ConcurrentLinkedQueue<>() : null;
+        this.reliableSlots = mode == DeliveryMode.ASYNC ? new Semaphore(capacity) : null;
+    }
+
+    NetworkEventObserver getObserver() {
+        return observer;
+    }
+
+    Set<NetworkEvent.EventType> getTypes() {
+        return types;
+    }
+
+    boolean matches(NetworkEvent event) {
+        return source == null || source.equals(event.getSource());
+    }
+
+    void deliver(NetworkEvent event) {
+        if (mode == DeliveryMode.SYNC) {
+            notifyObserver(event);
+            return;
+        }
+        if (closed.get()) {
+            return;
+        }
+        if (event.getType().isDroppable()) {
+            if (queuedDroppable.incrementAndGet() > capacity && dropOldestDroppable()) {
+                queuedDroppable.decrementAndGet();
+            }
+        } else if (!acquireReliableSlot(event)) {
+            return;
+        }
+        // Un frame del pool solo es válido durante la publicación: retenerlo hasta entregarlo
+        if (event.getData() instanceof PooledFrame frame) {
+            frame.retain();
+        }
+        queue.add(event);
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Saca de la cola el evento de tiempo real más viejo; false si el drenado ya se los llevó
+     */
+    private boolean dropOldestDroppable() {
+        for (NetworkEvent queued : queue) {
+            if (queued.getType().isDroppable() && queue.remove(queued)) {
+                if (queued.getData() instanceof PooledFrame frame) {
+                    frame.release();
+                }
+                long total = dropped.incrementAndGet();
+                if (total == 1 || total % 1000 == 0) {
+                    logger.warn("Cola de eventos de tiempo real llena para {}; {} eventos descartados",
+                        observer.getClass().getSimpleName(), total);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Espera lugar para un evento que no se descarta solo; false si el observer no lo libera a tiempo
+     */
+    private boolean acquireReliableSlot(NetworkEvent event) {
+        try {
+            if (reliableSlots.tryAcquire() || reliableSlots.tryAcquire(FULL_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long total = rejected.incrementAndGet();
+        logger.warn("Cola de eventos llena para {}; se descarta {} ({} en total)",
+            observer.getClass().getSimpleName(), event.getType(), total);
+        return false;
+    }
+
+    private void drain() {
+        do {
+            NetworkEvent event;
+            while ((event = queue.poll()) != null) {
+                if (event.getType().isDroppable()) {
+                    queuedDroppable.decrementAndGet();
+                } else {
+                    reliableSlots.release();
+                }
+                try {
+                    if (!closed.get()) {
+                        notifyObserver(event);
+                    }
+                } finally {
+                    if (event.getData() instanceof PooledFrame frame) {
+                        frame.release();
+                    }
+                }
+            }
+            drainScheduled.set(false);
+        } while (!queue.isEmpty() && drainScheduled.compareAndSet(false, true));
+    }
+
+    private void notifyObserver(NetworkEvent event) {
+        try {
+            observer.onNetworkEvent(event);
+        } catch (Exception e) {
+            logger.warn("Error notificando observer {}", observer.getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Deja de entregar; los eventos pendientes se descartan en el próximo drenado.
+     */
+    void close() {
+        if (closed.compareAndSet(false, true) && queue != null && drainScheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+}
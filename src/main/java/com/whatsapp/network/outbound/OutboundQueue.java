@@ -0,0 +1,272 @@
+package com.whatsapp.network.outbound;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cola de salida acotada de una conexión. Cada frame guardado ya incluye el prefijo
+ * de longitud. Al superar la capacidad se aplica la política de su TrafficClass.
+ */
+public class OutboundQueue {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    private final String connectionId;
+    private final long capacityBytes;
+    private final long highWaterBytes;
+    private final long bulkTimeoutNanos;
+    private final ArrayDeque<Entry> entries;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private long pendingBytes;
+    private long overHighWaterSince;
+    private long droppedFrames;
+    private boolean closed;
+
+    public OutboundQueue(String connectionId, long capacityBytes, long highWaterBytes, long bulkTimeoutMillis) {
+        this.connectionId = connectionId;
+        this.capacityBytes = capacityBytes;
+        this.highWaterBytes = Math.min(highWaterBytes, capacityBytes);
+        this.bulkTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(bulkTimeoutMillis);
+        this.entries = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+    }
+
+    /**
+     * Arma un frame de red (prefijo de 4 bytes + datos) listo para encolar.
+     */
+    public static ByteBuffer frameOf(byte[] data) {
+        return frameOf(ByteBuffer.wrap(data));
+    }
+
+    public static ByteBuffer frameOf(ByteBuffer data) {
+        ByteBuffer source = data.duplicate();
+        ByteBuffer frame = ByteBuffer.allocate(4 + source.remaining());
+        frame.putInt(source.remaining());
+        frame.put(source);
+        frame.flip();
+        return frame;
+    }
+
+    public void offer(ByteBuffer frame, TrafficClass trafficClass) throws IOException {
+        int size = frame.remaining();
+        lock.lock();
+        try {
+            ensureOpen();
+            switch (trafficClass) {
+                case REALTIME:
+                    if (!makeRoomForRealtime(size)) {
+                        droppedFrames++;
+                        return;
+                    }
+                    break;
+                case BULK:
+                    awaitRoom(size);
+                    break;
+                default:
+                    // CONTROL se encola siempre, aunque supere la capacidad
+                    break;
+            }
+            entries.addLast(new Entry(frame, trafficClass));
+            pendingBytes += size;
+            updateHighWater();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean makeRoomForRealtime(int size) {
+        Iterator<Entry> it = entries.iterator();
+        while (pendingBytes + size > capacityBytes && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.trafficClass == TrafficClass.REALTIME) {
+                it.remove();
+                pendingBytes -= entry.frame.remaining();
+                droppedFrames++;
+            }
+        }
+        return pendingBytes + size <= capacityBytes;
+    }
+
+    private void awaitRoom(int size) throws IOException {
+        long remaining = bulkTimeoutNanos;
+        // Un frame más grande que la capacidad solo entra con la cola vacía
+        while (pendingBytes > 0 && pendingBytes + size > capacityBytes) {
+            if (remaining <= 0) {
+                throw new IOException("Cola de salida llena para " + connectionId);
+            }
+            try {
+                remaining = notFull.awaitNanos(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrumpido esperando espacio en la cola de " + connectionId, e);
+            }
+            ensureOpen();
+        }
+    }
+
+    /**
+     * Espera el siguiente frame. Devuelve null cuando la cola se cerró.
+     */
+    public ByteBuffer take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (entries.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Espera hasta timeoutNanos por un frame; null si no llegó ninguno o la cola se cerró.
+     */
+    public ByteBuffer poll(long timeoutNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (entries.isEmpty()) {
+                if (closed || remaining <= 0) {
+                    return null;
+                }
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ByteBuffer poll() {
+        lock.lock();
+        try {
+            return entries.isEmpty() ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int drainTo(Collection<ByteBuffer> target, int maxFrames) {
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxFrames && !entries.isEmpty()) {
+                target.add(removeFirst());
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ByteBuffer removeFirst() {
+        Entry entry = entries.pollFirst();
+        pendingBytes -= entry.frame.remaining();
+        updateHighWater();
+        notFull.signalAll();
+        return entry.frame;
+    }
+
+    private void updateHighWater() {
+        if (pendingBytes > highWaterBytes) {
+            if (overHighWaterSince == 0) {
+                overHighWaterSince = System.nanoTime();
+            }
+        } else {
+            overHighWaterSince = 0;
+        }
+    }
+
+    /**
+     * Indica si la cola lleva por encima de la marca de agua más tiempo que el permitido.
+     */
+    public boolean isSlowConsumer(long deadlineNanos) {
+        lock.lock();
+        try {
+            return overHighWaterSince != 0 && System.nanoTime() - overHighWaterSince > deadlineNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return entries.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getPendingBytes() {
+        lock.lock();
+        try {
+            return pendingBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedFrames() {
+        lock.lock();
+        try {
+            return droppedFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (droppedFrames > 0) {
+                logger.debug("Cola de salida de {} cerrada; frames descartados: {}", connectionId, droppedFrames);
+            }
+            entries.clear();
+            pendingBytes = 0;
+            overHighWaterSince = 0;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Conexión cerrada: " + connectionId);
+        }
+    }
+
+    private static final class Entry {
+        final ByteBuffer frame;
+        final TrafficClass trafficClass;
+
+        Entry(ByteBuffer frame, TrafficClass trafficClass) {
+            this.frame = frame;
+            this.trafficClass = trafficClass;
+        }
+    }
+}
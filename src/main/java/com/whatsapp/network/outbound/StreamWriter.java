@@ -0,0 +1,152 @@
+package com.whatsapp.network.outbound;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Escritor dedicado de una conexión del motor bloqueante: vacía su OutboundQueue
+ * sobre el socket, de modo que quien envía nunca escribe en el socket directamente.
+ * Los frames pendientes se agrupan en un único write: hasta maxBatchFrames por lote,
+ * esperando como mucho lingerMicros a que lleguen más antes de escribir.
+ */
+public class StreamWriter implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(StreamWriter.class);
+    private static final int BATCH_BUFFER_SIZE = 64 * 1024;
+
+    private final String connectionId;
+    private final OutputStream out;
+    private final OutboundQueue queue;
+    private final Consumer<String> onFailure;
+    private final int maxBatchFrames;
+    private final long lingerNanos;
+    private final List<ByteBuffer> batch;
+    private final byte[] batchBuffer;
+    private final WriteStats stats;
+    private volatile boolean closed;
+
+    public StreamWriter(String connectionId, OutputStream out, OutboundQueue queue, Consumer<String> onFailure,
+                        int maxBatchFrames, long lingerMicros) {
+        this.connectionId = connectionId;
+        this.out = out;
+        this.queue = queue;
+        this.onFailure = onFailure;
+        this.maxBatchFrames = Math.max(1, maxBatchFrames);
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, lingerMicros));
+        this.batch = new ArrayList<>(this.maxBatchFrames);
+        this.batchBuffer = new byte[BATCH_BUFFER_SIZE];
+        this.stats = WriteStats.getInstance();
+    }
+
+    public void enqueue(ByteBuffer frame, TrafficClass trafficClass) throws IOException {
+        queue.offer(frame, trafficClass);
+    }
+
+    @Override
+    public void run() {
+        try {
+            ByteBuffer frame;
+            while ((frame = queue.take()) != null) {
+                batch.add(frame);
+                fillBatch();
+                writeBatch();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (!closed) {
+                logger.debug("Error escribiendo a {}: {}", connectionId, e.getMessage());
+                onFailure.accept(connectionId);
+            }
+        }
+    }
+
+    private void fillBatch() throws InterruptedException {
+        queue.drainTo(batch, maxBatchFrames - batch.size());
+        if (lingerNanos == 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < maxBatchFrames) {
+            ByteBuffer next = queue.poll(deadline - System.nanoTime());
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+            queue.drainTo(batch, maxBatchFrames - batch.size());
+        }
+    }
+
+    /**
+     * Copia el lote al buffer intermedio y lo escribe con un solo write; los frames
+     * que no caben en el buffer se escriben aparte.
+     */
+    private void writeBatch() throws IOException {
+        int filled = 0;
+        int framesInBuffer = 0;
+        for (ByteBuffer frame : batch) {
+            ByteBuffer source = frame.duplicate();
+            int length = source.remaining();
+            if (filled + length > batchBuffer.length && filled > 0) {
+                writeOut(filled, framesInBuffer);
+                filled = 0;
+                framesInBuffer = 0;
+            }
+            if (length > batchBuffer.length) {
+                writeLarge(source);
+                continue;
+            }
+            source.get(batchBuffer, filled, length);
+            filled += length;
+            framesInBuffer++;
+        }
+        if (filled > 0) {
+            writeOut(filled, framesInBuffer);
+        }
+        out.flush();
+    }
+
+    private void writeOut(int length, int frames) throws IOException {
+        out.write(batchBuffer, 0, length);
+        stats.record(frames, length);
+    }
+
+    private void writeLarge(ByteBuffer source) throws IOException {
+        int length = source.remaining();
+        if (source.hasArray()) {
+            out.write(source.array(), source.arrayOffset() + source.position(), length);
+            stats.record(1, length);
+            return;
+        }
+        int writes = 0;
+        while (source.hasRemaining()) {
+            int chunk = Math.min(batchBuffer.length, source.remaining());
+            source.get(batchBuffer, 0, chunk);
+            out.write(batchBuffer, 0, chunk);
+            writes++;
+        }
+        stats.record(1, writes, length);
+    }
+
+    public OutboundQueue getQueue() {
+        return queue;
+    }
+
+    public void close() {
+        closed = true;
+        queue.close();
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.debug("Error cerrando salida de {}", connectionId, e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.whatsapp.network.outbound;
+
+import com.whatsapp.protocol.MessageHeader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Clase de tráfico de un frame saliente, según el tipo del header.
+ * Define qué hace la cola de salida cuando el cliente no consume a tiempo.
+ */
+public enum TrafficClass {
+    /** Control y chat: nunca se descartan. */
+    CONTROL,
+    /** Archivos: el emisor espera espacio hasta un tiempo límite y luego falla. */
+    BULK,
+    /** Video y audio: se descartan los frames más viejos. */
+    REALTIME;
+
+    public static TrafficClass of(byte[] data) {
+        if (data == null || data.length == 0) {
+            return CONTROL;
+        }
+        return of(data[0]);
+    }
+
+    public static TrafficClass of(ByteBuffer data) {
+        if (data == null || !data.hasRemaining()) {
+            return CONTROL;
+        }
+        return of(data.get(data.position()));
+    }
+
+    public static TrafficClass of(byte tipo) {
+        switch (tipo) {
+            case MessageHeader.MessageType.VIDEO:
+            case MessageHeader.MessageType.AUDIO:
+                return REALTIME;
+            case MessageHeader.MessageType.ARCHIVO:
+                return BULK;
+            default:
+                return CONTROL;
+        }
+    }
+}
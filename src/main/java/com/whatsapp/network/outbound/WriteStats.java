@@ -0,0 +1,49 @@
+package com.whatsapp.network.outbound;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores globales de escritura: frames enviados y llamadas de escritura al socket.
+ * frames/escritura mide cuánto agrupa el escritor bajo carga.
+ */
+public class WriteStats {
+    private static final WriteStats INSTANCE = new WriteStats();
+
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    private WriteStats() {
+    }
+
+    public static WriteStats getInstance() {
+        return INSTANCE;
+    }
+
+    public void record(int frameCount, long byteCount) {
+        record(frameCount, 1, byteCount);
+    }
+
+    public void record(int frameCount, int writeCount, long byteCount) {
+        frames.add(frameCount);
+        writes.add(writeCount);
+        bytes.add(byteCount);
+    }
+
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public double getFramesPerWrite() {
+        long w = writes.sum();
+        return w == 0 ? 0.0 : (double) frames.sum() / w;
+    }
+}
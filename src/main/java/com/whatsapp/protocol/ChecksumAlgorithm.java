@@ -0,0 +1,53 @@
+package com.whatsapp.protocol;
+
+/**
+ * Algoritmos de checksum de payload soportados en el header.
+ * LEGACY es el desplazamiento/xor original; CRC32C usa la implementación
+ * intrínseca de la JVM (instrucciones CRC en x86 y ARM).
+ */
+public enum ChecksumAlgorithm {
+    LEGACY("legacy") {
+        @Override
+        public int compute(byte[] data, int offset, int length) {
+            int checksum = 0;
+            for (int i = offset; i < offset + length; i++) {
+                checksum = (checksum << 1) ^ data[i];
+            }
+            return checksum;
+        }
+    },
+    CRC32C("crc32c") {
+        @Override
+        public int compute(byte[] data, int offset, int length) {
+            // Nombre completo: la constante CRC32C oculta la clase de java.util.zip
+            java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+            crc.update(data, offset, length);
+            return (int) crc.getValue();
+        }
+    };
+
+    private final String wireName;
+
+    ChecksumAlgorithm(String wireName) {
+        this.wireName = wireName;
+    }
+
+    public abstract int compute(byte[] data, int offset, int length);
+
+    public int compute(byte[] data) {
+        return compute(data, 0, data.length);
+    }
+
+    public String getWireName() {
+        return wireName;
+    }
+
+    public static ChecksumAlgorithm fromWireName(String name) {
+        for (ChecksumAlgorithm algorithm : values()) {
+            if (algorithm.wireName.equalsIgnoreCase(name.trim())) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+}
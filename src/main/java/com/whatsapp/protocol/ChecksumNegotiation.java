@@ -0,0 +1,129 @@
+package com.whatsapp.protocol;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Estado de negociación del checksum por conexión. Cada extremo anuncia en un
+ * HELLO de control los algoritmos que soporta; hasta recibir el del par se usa
+ * LEGACY, de modo que clientes y servidores viejos siguen interoperando.
+ * Al recibir el HELLO del par cada extremo responde con un HELLO "ack" (todavía en
+ * LEGACY) y recién después pasa a CRC32C. Un frame que otro hilo armó en LEGACY antes
+ * del cambio puede quedar encolado detrás del ack, así que tras el ack el receptor
+ * acepta los dos algoritmos hasta un rato después del primer frame en CRC32C.
+ */
+public class ChecksumNegotiation {
+    private static final ChecksumNegotiation INSTANCE = new ChecksumNegotiation();
+    private static final String CHECKSUM_KEY = "checksum=";
+    private static final String ACK_FLAG = "ack";
+    private static final long LEGACY_GRACE_NANOS = 2_000_000_000L;
+
+    private final Map<String, PeerState> peers = new ConcurrentHashMap<>();
+
+    private ChecksumNegotiation() {
+    }
+
+    public static ChecksumNegotiation getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Payload del HELLO: algoritmos soportados, en orden de preferencia; ack marca el
+     * último frame que este extremo envía en LEGACY.
+     */
+    public String helloPayload(boolean ack) {
+        String payload = CHECKSUM_KEY + ChecksumAlgorithm.CRC32C.getWireName() + "," + ChecksumAlgorithm.LEGACY.getWireName();
+        return ack ? payload + ";" + ACK_FLAG : payload;
+    }
+
+    /**
+     * Procesa el HELLO del par; devuelve true si hay que responderle con el ack y
+     * luego llamar a {@link #startSending(String)}.
+     */
+    public boolean onHello(String connectionId, String payload) {
+        if (connectionId == null || payload == null) {
+            return false;
+        }
+        boolean supportsCrc32c = false;
+        boolean ack = false;
+        for (String field : payload.split(";")) {
+            if (field.startsWith(CHECKSUM_KEY)) {
+                for (String name : field.substring(CHECKSUM_KEY.length()).split(",")) {
+                    supportsCrc32c |= ChecksumAlgorithm.fromWireName(name) == ChecksumAlgorithm.CRC32C;
+                }
+            } else if (field.equals(ACK_FLAG)) {
+                ack = true;
+            }
+        }
+        if (!supportsCrc32c) {
+            return false;
+        }
+        PeerState state = peers.computeIfAbsent(connectionId, id -> new PeerState());
+        if (ack) {
+            // Lo que siga de este par ya viene en CRC32C (el orden por conexión se mantiene)
+            state.peerSwitched = true;
+        }
+        return state.ackSent.compareAndSet(false, true);
+    }
+
+    /**
+     * Pasa a CRC32C para los envíos a connectionId, una vez enviado el ack
+     */
+    public void startSending(String connectionId) {
+        PeerState state = connectionId == null ? null : peers.get(connectionId);
+        if (state != null) {
+            state.sendAlgorithm = ChecksumAlgorithm.CRC32C;
+        }
+    }
+
+    public ChecksumAlgorithm algorithmFor(String connectionId) {
+        PeerState state = connectionId == null ? null : peers.get(connectionId);
+        return state == null ? ChecksumAlgorithm.LEGACY : state.sendAlgorithm;
+    }
+
+    public int compute(String connectionId, byte[] data) {
+        return algorithmFor(connectionId).compute(data, 0, data.length);
+    }
+
+    /**
+     * Checksum de un tramo de un arreglo más grande (p. ej. el payload dentro de un frame ya armado).
+     */
+    public int compute(String connectionId, byte[] data, int offset, int length) {
+        return algorithmFor(connectionId).compute(data, offset, length);
+    }
+
+    /**
+     * Verifica un payload recibido de connectionId con el algoritmo que el par usa según el HELLO.
+     */
+    public boolean verify(String connectionId, byte[] data, int offset, int length, int expected) {
+        PeerState state = connectionId == null ? null : peers.get(connectionId);
+        if (state == null || !state.peerSwitched) {
+            return ChecksumAlgorithm.LEGACY.compute(data, offset, length) == expected;
+        }
+        if (ChecksumAlgorithm.CRC32C.compute(data, offset, length) == expected) {
+            if (!state.crc32cSeen) {
+                state.firstCrc32cNanos = System.nanoTime();
+                state.crc32cSeen = true;
+            }
+            return true;
+        }
+        // Frames armados en LEGACY antes del cambio que salieron después del ack
+        boolean inGrace = !state.crc32cSeen || System.nanoTime() - state.firstCrc32cNanos < LEGACY_GRACE_NANOS;
+        return inGrace && ChecksumAlgorithm.LEGACY.compute(data, offset, length) == expected;
+    }
+
+    public void remove(String connectionId) {
+        if (connectionId != null) {
+            peers.remove(connectionId);
+        }
+    }
+
+    private static final class PeerState {
+        volatile ChecksumAlgorithm sendAlgorithm = ChecksumAlgorithm.LEGACY;
+        volatile boolean peerSwitched;
+        volatile boolean crc32cSeen;
+        volatile long firstCrc32cNanos;
+        final AtomicBoolean ackSent = new AtomicBoolean();
+    }
+}
@@ -0,0 +1,181 @@
+package com.whatsapp.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Codificación binaria de los payloads CONTROL (lo que va después del byte de tipo).
+ * Todo payload empieza con un byte de versión; los strings van como longitud varint
+ * + UTF-8, los contadores como varint y los IDs como long de 8 bytes.
+ * No es compatible con el formato de texto anterior (ver docs/API.md).
+ */
+public final class ControlCodec {
+    public static final byte VERSION = 1;
+
+    private ControlCodec() {
+    }
+
+    public static Writer writer() {
+        return new Writer();
+    }
+
+    /**
+     * Lector sobre la región [offset, offset + length) del buffer del frame; no copia
+     * el payload y valida la versión antes de devolverlo.
+     */
+    public static Reader reader(ByteBuffer buffer, int offset, int length) throws IOException {
+        Reader reader = new Reader(buffer, offset, length);
+        byte version = reader.readByte();
+        if ((version & 0xFF) >= 0x20) {
+            // Texto (ASCII o UTF-8): payload del formato anterior a ControlCodec
+            throw new IOException("Payload de control en el formato de texto anterior; el par debe actualizarse");
+        }
+        if (version != VERSION) {
+            throw new IOException("Versión de payload de control no soportada: " + version);
+        }
+        return reader;
+    }
+
+    public static final class Writer {
+        private byte[] buffer = new byte[64];
+        private int position;
+
+        private Writer() {
+            writeByte(VERSION);
+        }
+
+        public Writer writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+            return this;
+        }
+
+        public Writer writeBoolean(boolean value) {
+            return writeByte(value ? 1 : 0);
+        }
+
+        public Writer writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+            return this;
+        }
+
+        public Writer writeVarint(int value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Varint negativo: " + value);
+            }
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+            return this;
+        }
+
+        /**
+         * null se escribe como string vacío.
+         */
+        public Writer writeString(String value) {
+            if (value == null || value.isEmpty()) {
+                return writeVarint(0);
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+            return this;
+        }
+
+        public int size() {
+            return position;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void ensure(int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+            }
+        }
+    }
+
+    public static final class Reader {
+        private final ByteBuffer buffer;
+        private final int limit;
+        private int position;
+
+        private Reader(ByteBuffer buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        public byte readByte() throws IOException {
+            require(1);
+            return buffer.get(position++);
+        }
+
+        public boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        public long readLong() throws IOException {
+            require(8);
+            long value = buffer.getLong(position);
+            position += 8;
+            return value;
+        }
+
+        public int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new IOException("Varint fuera de rango");
+                    }
+                    return value;
+                }
+            }
+            throw new IOException("Varint mal formado");
+        }
+
+        public String readString() throws IOException {
+            int length = readVarint();
+            if (length == 0) {
+                return "";
+            }
+            require(length);
+            String value;
+            if (buffer.hasArray()) {
+                value = new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+            } else {
+                byte[] bytes = new byte[length];
+                buffer.get(position, bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            position += length;
+            return value;
+        }
+
+        public int remaining() {
+            return limit - position;
+        }
+
+        private void require(int count) throws IOException {
+            if (count > limit - position) {
+                throw new EOFException("Payload de control truncado");
+            }
+        }
+    }
+}
@@ -24,12 +24,9 @@ public class MessageHeader implements Serializable {
     }
 
     public byte[] toBytes() {
-        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
-        buffer.put(tipo);
-        buffer.putInt(longitud);
-        buffer.putInt(correlId);
-        buffer.putInt(checksum);
-        return buffer.array();
+        byte[] bytes = new byte[HEADER_SIZE];
+        MessageHeaderView.encode(ByteBuffer.wrap(bytes), tipo, longitud, correlId, checksum);
+        return bytes;
     }
 
     public static MessageHeader fromBytes(byte[] data) {
@@ -0,0 +1,66 @@
+package com.whatsapp.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Vista reutilizable (flyweight) del header sobre un ByteBuffer: lee los campos en
+ * su lugar, sin copiar los 13 bytes ni crear un MessageHeader por frame.
+ * No es thread-safe; cada hilo usa su propia instancia.
+ */
+public final class MessageHeaderView {
+    private ByteBuffer buffer;
+    private int offset;
+
+    public MessageHeaderView wrap(ByteBuffer buffer, int offset) {
+        if (buffer.limit() - offset < MessageHeader.HEADER_SIZE) {
+            throw new IllegalArgumentException("Datos insuficientes para el header");
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    public byte getTipo() {
+        return buffer.get(offset);
+    }
+
+    public int getLongitud() {
+        return buffer.getInt(offset + 1);
+    }
+
+    public int getCorrelId() {
+        return buffer.getInt(offset + 5);
+    }
+
+    public int getChecksum() {
+        return buffer.getInt(offset + 9);
+    }
+
+    /**
+     * Posición absoluta del payload dentro del buffer.
+     */
+    public int payloadOffset() {
+        return offset + MessageHeader.HEADER_SIZE;
+    }
+
+    /**
+     * Escribe el header en la posición actual de target y la avanza HEADER_SIZE bytes.
+     */
+    public static void encode(ByteBuffer target, byte tipo, int longitud, int correlId, int checksum) {
+        target.put(tipo);
+        target.putInt(longitud);
+        target.putInt(correlId);
+        target.putInt(checksum);
+    }
+
+    /**
+     * Arma el mensaje completo (header + payload) en un único arreglo.
+     */
+    public static byte[] frame(byte tipo, int correlId, int checksum, byte[] payload) {
+        byte[] message = new byte[MessageHeader.HEADER_SIZE + payload.length];
+        ByteBuffer target = ByteBuffer.wrap(message);
+        encode(target, tipo, payload.length, correlId, checksum);
+        target.put(payload);
+        return message;
+    }
+}
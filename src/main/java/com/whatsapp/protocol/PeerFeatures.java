@@ -0,0 +1,73 @@
+package com.whatsapp.protocol;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Funcionalidades opcionales que cada par anuncia en el HELLO de control, en un campo
+ * "features=" que los pares viejos ignoran. Un par que no mandó el campo no soporta ninguna,
+ * así que solo se usan formatos nuevos con quien los anunció.
+ */
+public class PeerFeatures {
+    private static final PeerFeatures INSTANCE = new PeerFeatures();
+    private static final String FEATURES_KEY = "features=";
+
+    /**
+     * Archivos: el receptor responde la metadata con FRAME_RESUME y créditos. Anunciado por el
+     * servidor significa además que el emisor siempre recibe esa respuesta, aunque la dé el
+     * servidor en nombre de un receptor viejo.
+     */
+    public static final String FILE_RESUME = "file-resume";
+
+    /**
+     * Archivos: el receptor acepta metadata sin checksum y lo verifica con el FRAME_TRAILER. Anunciado
+     * por el servidor significa que no le reenvía ese formato a un receptor que no lo soporta.
+     */
+    public static final String FILE_TRAILER = "file-trailer";
+
+    /**
+     * Archivos: el emisor responde el FRAME_CHALLENGE del servidor con el hash de los chunks pedidos,
+     * requisito para que el servidor le evite la subida con el almacén de blobs
+     */
+    public static final String FILE_PROOF = "file-proof";
+
+    private final Map<String, Set<String>> peers = new ConcurrentHashMap<>();
+
+    private PeerFeatures() {
+    }
+
+    public static PeerFeatures getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Campo del HELLO con las funcionalidades de este extremo
+     */
+    public String helloField() {
+        return FEATURES_KEY + FILE_RESUME + "," + FILE_TRAILER + "," + FILE_PROOF;
+    }
+
+    public void onHello(String connectionId, String payload) {
+        if (connectionId == null || payload == null) {
+            return;
+        }
+        for (String field : payload.split(";")) {
+            if (field.startsWith(FEATURES_KEY)) {
+                peers.put(connectionId, Set.copyOf(Arrays.asList(field.substring(FEATURES_KEY.length()).split(","))));
+            }
+        }
+    }
+
+    public boolean supports(String connectionId, String feature) {
+        Set<String> features = connectionId == null ? null : peers.get(connectionId);
+        return features != null && features.contains(feature);
+    }
+
+    public void remove(String connectionId) {
+        if (connectionId != null) {
+            peers.remove(connectionId);
+        }
+    }
+}
@@ -91,6 +91,29 @@ public class LogRepository implements IRepository<Log, Long> {
         }
     }
 
+    /**
+     * Inserta varios logs en un solo lote y una sola transacción
+     */
+    public void saveAll(List<Log> logs) throws SQLException {
+        String sql = "INSERT INTO Log (Nivel, Mensaje, Modulo, Fecha, TraceId, UserId) " +
+                     "VALUES (?, ?, ?, ?, ?, ?)";
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            for (Log log : logs) {
+                pstmt.setString(1, log.getNivel().name());
+                pstmt.setString(2, log.getMensaje());
+                pstmt.setString(3, log.getModulo());
+                pstmt.setTimestamp(4, java.sql.Timestamp.valueOf(log.getFecha()));
+                pstmt.setString(5, log.getTraceId());
+                pstmt.setObject(6, log.getUserId());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.commit();
+        }
+    }
+
     @Override
     public void delete(Long id) {
         String sql = "DELETE FROM Log WHERE Id = ?";
@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -25,91 +26,65 @@ public class RoomRepository implements IRepository<Room, Long> {
         ensureSchema();
     }
 
+    // Room + miembros en una sola consulta; cada fila trae un miembro (o NULL si no tiene)
+    private static final String SELECT_WITH_MEMBERS =
+        "SELECT r.*, m.ConnectionId AS MemberConnectionId FROM Room r " +
+        "LEFT JOIN RoomMember m ON m.RoomId = r.Id ";
+
     @Override
     public Optional<Room> findById(Long id) {
-        String sql = "SELECT * FROM Room WHERE Id = ?";
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setLong(1, id);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                Room room = mapResultSetToRoom(rs);
-                loadMembers(room);
-                return Optional.of(room);
-            }
-        } catch (SQLException e) {
-            logger.error("Error al buscar room por ID", e);
-        }
-        return Optional.empty();
+        List<Room> rooms = queryRooms("WHERE r.Id = ?", "Error al buscar room por ID", id);
+        return rooms.isEmpty() ? Optional.empty() : Optional.of(rooms.get(0));
     }
 
     public Optional<Room> findByName(String name) {
-        String sql = "SELECT * FROM Room WHERE Name = ?";
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, name);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                Room room = mapResultSetToRoom(rs);
-                loadMembers(room);
-                return Optional.of(room);
-            }
-        } catch (SQLException e) {
-            logger.error("Error al buscar room por nombre", e);
-        }
-        return Optional.empty();
+        List<Room> rooms = queryRooms("WHERE r.Name = ?", "Error al buscar room por nombre", name);
+        return rooms.isEmpty() ? Optional.empty() : Optional.of(rooms.get(0));
     }
 
     public List<Room> findByServerUsername(String serverUsername) {
-        List<Room> rooms = new ArrayList<>();
-        String sql = "SELECT * FROM Room WHERE ServerUsername = ?";
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, serverUsername);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                Room room = mapResultSetToRoom(rs);
-                loadMembers(room);
-                rooms.add(room);
-            }
-        } catch (SQLException e) {
-            logger.error("Error al buscar rooms por servidor", e);
-        }
-        return rooms;
+        return queryRooms("WHERE r.ServerUsername = ?", "Error al buscar rooms por servidor", serverUsername);
     }
 
     public List<Room> findActiveRooms(String serverUsername) {
-        List<Room> rooms = new ArrayList<>();
-        String sql = "SELECT * FROM Room WHERE ServerUsername = ? AND Estado = 'ACTIVO'";
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, serverUsername);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                Room room = mapResultSetToRoom(rs);
-                loadMembers(room);
-                rooms.add(room);
-            }
-        } catch (SQLException e) {
-            logger.error("Error al buscar rooms activos", e);
-        }
-        return rooms;
+        return queryRooms("WHERE r.ServerUsername = ? AND r.Estado = 'ACTIVO'", "Error al buscar rooms activos",
+            serverUsername);
     }
 
     @Override
     public List<Room> findAll() {
+        return queryRooms("", "Error al obtener todos los rooms");
+    }
+
+    /**
+     * Ejecuta el JOIN Room/RoomMember y agrupa las filas por room en una pasada
+     * (vienen ordenadas por Id, así que las de un mismo room son consecutivas)
+     */
+    private List<Room> queryRooms(String where, String errorMessage, Object... params) {
         List<Room> rooms = new ArrayList<>();
-        String sql = "SELECT * FROM Room";
+        String sql = SELECT_WITH_MEMBERS + where + " ORDER BY r.Id";
         try (Connection conn = dbManager.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                Room room = mapResultSetToRoom(rs);
-                loadMembers(room);
-                rooms.add(room);
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                Room current = null;
+                while (rs.next()) {
+                    long id = rs.getLong("Id");
+                    if (current == null || current.getId() != id) {
+                        current = mapResultSetToRoom(rs);
+                        current.setMembers(new HashSet<>());
+                        rooms.add(current);
+                    }
+                    String memberId = rs.getString("MemberConnectionId");
+                    if (memberId != null) {
+                        current.getMembers().add(memberId);
+                    }
+                }
             }
         } catch (SQLException e) {
-            logger.error("Error al obtener todos los rooms", e);
+            logger.error(errorMessage, e);
         }
         return rooms;
     }
@@ -136,7 +111,7 @@ public class RoomRepository implements IRepository<Room, Long> {
                 room.setId(rs.getLong(1));
             }
             
-            saveMembers(room);
+            saveMembers(room, Collections.emptySet());
             logger.info("Room guardado: ID={}, Name={}, Estado={}", room.getId(), room.getName(), room.getEstado());
             return room;
         } catch (SQLException primary) {
@@ -158,7 +133,7 @@ public class RoomRepository implements IRepository<Room, Long> {
                 if (rs.next()) {
                     room.setId(rs.getLong(1));
                 }
-                saveMembers(room);
+                saveMembers(room, Collections.emptySet());
                 logger.info("Room guardado (fallback): ID={}, Name={}, Estado={}", room.getId(), room.getName(), room.getEstado());
                 return room;
             } catch (SQLException e) {
@@ -170,22 +145,17 @@ public class RoomRepository implements IRepository<Room, Long> {
 
     @Override
     public void delete(Long id) {
-        // Primero eliminar miembros
-        String deleteMembersSql = "DELETE FROM RoomMember WHERE RoomId = ?";
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(deleteMembersSql)) {
-            pstmt.setLong(1, id);
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            logger.error("Error al eliminar miembros del room", e);
-        }
-        
-        // Luego eliminar el room
-        String sql = "DELETE FROM Room WHERE Id = ?";
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setLong(1, id);
-            pstmt.executeUpdate();
+        // Miembros y room en la misma transacción
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement members = conn.prepareStatement("DELETE FROM RoomMember WHERE RoomId = ?");
+                 PreparedStatement room = conn.prepareStatement("DELETE FROM Room WHERE Id = ?")) {
+                members.setLong(1, id);
+                members.executeUpdate();
+                room.setLong(1, id);
+                room.executeUpdate();
+            }
+            conn.commit();
         } catch (SQLException e) {
             logger.error("Error al eliminar room", e);
         }
@@ -245,47 +215,68 @@ public class RoomRepository implements IRepository<Room, Long> {
         }
     }
 
-    private void loadMembers(Room room) {
+    /**
+     * Aplica solo la diferencia entre los miembros guardados y los del room
+     */
+    private void saveMembers(Room room) {
+        if (room.getId() == null) {
+            return;
+        }
+        Set<String> stored = new HashSet<>();
         String sql = "SELECT ConnectionId FROM RoomMember WHERE RoomId = ?";
         try (Connection conn = dbManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, room.getId());
-            ResultSet rs = pstmt.executeQuery();
-            Set<String> members = new HashSet<>();
-            while (rs.next()) {
-                members.add(rs.getString("ConnectionId"));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    stored.add(rs.getString("ConnectionId"));
+                }
             }
-            room.setMembers(members);
         } catch (SQLException e) {
-            logger.error("Error al cargar miembros del room", e);
+            logger.error("Error al leer miembros del room", e);
+            return;
         }
+        saveMembers(room, stored);
     }
 
-    private void saveMembers(Room room) {
+    private void saveMembers(Room room, Set<String> stored) {
         if (room.getId() == null) {
             return;
         }
-        
-        // Eliminar miembros existentes
-        String deleteSql = "DELETE FROM RoomMember WHERE RoomId = ?";
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(deleteSql)) {
-            pstmt.setLong(1, room.getId());
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            logger.error("Error al eliminar miembros existentes", e);
+        Set<String> toAdd = new HashSet<>(room.getMembers());
+        toAdd.removeAll(stored);
+        Set<String> toRemove = new HashSet<>(stored);
+        toRemove.removeAll(room.getMembers());
+        if (toAdd.isEmpty() && toRemove.isEmpty()) {
+            return;
         }
-        
-        // Insertar nuevos miembros
-        String insertSql = "INSERT INTO RoomMember (RoomId, ConnectionId) VALUES (?, ?)";
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(insertSql)) {
-            for (String memberId : room.getMembers()) {
-                pstmt.setLong(1, room.getId());
-                pstmt.setString(2, memberId);
-                pstmt.addBatch();
+
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            if (!toRemove.isEmpty()) {
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "DELETE FROM RoomMember WHERE RoomId = ? AND ConnectionId = ?")) {
+                    for (String memberId : toRemove) {
+                        pstmt.setLong(1, room.getId());
+                        pstmt.setString(2, memberId);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+            }
+            if (!toAdd.isEmpty()) {
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "INSERT INTO RoomMember (RoomId, ConnectionId) VALUES (?, ?) " +
+                        "ON DUPLICATE KEY UPDATE RoomId = RoomId")) {
+                    for (String memberId : toAdd) {
+                        pstmt.setLong(1, room.getId());
+                        pstmt.setString(2, memberId);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
             }
-            pstmt.executeBatch();
+            conn.commit();
         } catch (SQLException e) {
             logger.error("Error al guardar miembros del room", e);
         }
@@ -331,39 +322,20 @@ public class RoomRepository implements IRepository<Room, Long> {
      * Elimina todos los rooms de un servidor específico
      */
     public void deleteAllByServerUsername(String serverUsername) {
-        // Primero obtener IDs de rooms a eliminar
-        List<Long> roomIds = new ArrayList<>();
-        String selectSql = "SELECT Id FROM Room WHERE ServerUsername = ?";
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
-            pstmt.setString(1, serverUsername);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                roomIds.add(rs.getLong("Id"));
-            }
-        } catch (SQLException e) {
-            logger.error("Error al obtener rooms para eliminar", e);
-        }
-        
-        // Eliminar miembros de cada room
-        for (Long roomId : roomIds) {
-            String deleteMembersSql = "DELETE FROM RoomMember WHERE RoomId = ?";
-            try (Connection conn = dbManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(deleteMembersSql)) {
-                pstmt.setLong(1, roomId);
-                pstmt.executeUpdate();
-            } catch (SQLException e) {
-                logger.error("Error al eliminar miembros del room " + roomId, e);
-            }
-        }
-        
-        // Eliminar rooms
+        // Dos sentencias por conjunto, en una transacción
+        String deleteMembersSql = "DELETE m FROM RoomMember m JOIN Room r ON r.Id = m.RoomId WHERE r.ServerUsername = ?";
         String deleteRoomsSql = "DELETE FROM Room WHERE ServerUsername = ?";
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(deleteRoomsSql)) {
-            pstmt.setString(1, serverUsername);
-            int deleted = pstmt.executeUpdate();
-            logger.info("Eliminados {} rooms del servidor {}", deleted, serverUsername);
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement members = conn.prepareStatement(deleteMembersSql);
+                 PreparedStatement rooms = conn.prepareStatement(deleteRoomsSql)) {
+                members.setString(1, serverUsername);
+                members.executeUpdate();
+                rooms.setString(1, serverUsername);
+                int deleted = rooms.executeUpdate();
+                conn.commit();
+                logger.info("Eliminados {} rooms del servidor {}", deleted, serverUsername);
+            }
         } catch (SQLException e) {
             logger.error("Error al eliminar rooms del servidor", e);
         }
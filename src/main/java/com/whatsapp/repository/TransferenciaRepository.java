@@ -12,10 +12,62 @@ import java.util.Optional;
 
 public class TransferenciaRepository implements IRepository<Transferencia, Long> {
     private static final Logger logger = LoggerFactory.getLogger(TransferenciaRepository.class);
+    private static volatile boolean schemaChecked;
     private final DatabaseManager dbManager;
 
     public TransferenciaRepository() {
         this.dbManager = DatabaseManager.getInstance();
+        ensureSchema();
+    }
+
+    /**
+     * Columnas de transferencias reanudables (avance confirmado y clave de reanudación) en bases
+     * creadas antes de que existieran; solo se alteran las que faltan
+     */
+    private void ensureSchema() {
+        if (schemaChecked) {
+            return;
+        }
+        try (Connection conn = dbManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+            DatabaseMetaData metaData = conn.getMetaData();
+            ensureColumn(metaData, stmt, "BytesTransferidos", Types.BIGINT,
+                "ALTER TABLE Transferencia ADD COLUMN BytesTransferidos BIGINT NOT NULL DEFAULT 0");
+            ensureColumn(metaData, stmt, "ResumeKey", Types.VARCHAR,
+                "ALTER TABLE Transferencia ADD COLUMN ResumeKey VARCHAR(64)");
+            if (!hasIndex(metaData, conn.getCatalog(), "idx_resume_key")) {
+                stmt.execute("CREATE INDEX idx_resume_key ON Transferencia (ResumeKey)");
+            }
+            schemaChecked = true;
+        } catch (SQLException e) {
+            logger.error("No se pudo asegurar esquema de Transferencia", e);
+        }
+    }
+
+    private void ensureColumn(DatabaseMetaData metaData, Statement stmt, String column, int expectedType,
+                              String alterSql) throws SQLException {
+        try (ResultSet rs = metaData.getColumns(stmt.getConnection().getCatalog(), null, "Transferencia", column)) {
+            if (rs.next()) {
+                if (rs.getInt("DATA_TYPE") != expectedType) {
+                    logger.error("La columna Transferencia.{} existe con tipo {}; se esperaba {}", column,
+                        rs.getString("TYPE_NAME"), JDBCType.valueOf(expectedType).getName());
+                }
+                return;
+            }
+        }
+        stmt.execute(alterSql);
+        logger.info("Columna Transferencia.{} agregada", column);
+    }
+
+    private boolean hasIndex(DatabaseMetaData metaData, String catalog, String indexName) throws SQLException {
+        try (ResultSet rs = metaData.getIndexInfo(catalog, null, "Transferencia", false, false)) {
+            while (rs.next()) {
+                if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     @Override
@@ -97,6 +149,35 @@ public class TransferenciaRepository implements IRepository<Transferencia, Long>
         }
     }
 
+    /**
+     * Inserta un lote sin pedir las claves generadas (para registros que no se vuelven a tocar)
+     */
+    public void saveAll(List<Transferencia> transferencias) throws SQLException {
+        String sql = "INSERT INTO Transferencia (Tipo, Nombre, Tamano, Checksum, Estado, Inicio, UserId, PeerIp) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            for (Transferencia transferencia : transferencias) {
+                pstmt.setString(1, transferencia.getTipo().name());
+                pstmt.setString(2, transferencia.getNombre());
+                pstmt.setLong(3, transferencia.getTamano());
+                pstmt.setString(4, transferencia.getChecksum());
+                pstmt.setString(5, transferencia.getEstado().name());
+                pstmt.setTimestamp(6, java.sql.Timestamp.valueOf(transferencia.getInicio()));
+                if (transferencia.getUserId() == null) {
+                    pstmt.setNull(7, Types.INTEGER);
+                } else {
+                    pstmt.setLong(7, transferencia.getUserId());
+                }
+                pstmt.setString(8, transferencia.getPeerIp());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.commit();
+        }
+    }
+
     @Override
     public void delete(Long id) {
         String sql = "DELETE FROM Transferencia WHERE Id = ?";
@@ -135,6 +216,51 @@ public class TransferenciaRepository implements IRepository<Transferencia, Long>
         }
     }
 
+    /**
+     * Transferencia en curso con esa clave de reanudación (la más reciente), si la hay
+     */
+    public Optional<Transferencia> findResumable(String resumeKey) {
+        String sql = "SELECT * FROM Transferencia WHERE ResumeKey = ? AND Estado = 'EN_PROGRESO' ORDER BY Id DESC LIMIT 1";
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, resumeKey);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return Optional.of(mapResultSetToTransferencia(rs));
+            }
+        } catch (SQLException e) {
+            logger.error("Error al buscar transferencia reanudable", e);
+        }
+        return Optional.empty();
+    }
+
+    public void setResumeKey(Long id, String resumeKey) {
+        String sql = "UPDATE Transferencia SET ResumeKey = ? WHERE Id = ?";
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, resumeKey);
+            pstmt.setLong(2, id);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            logger.error("Error al guardar clave de reanudación", e);
+        }
+    }
+
+    /**
+     * Guarda los bytes ya entregados de una transferencia en curso
+     */
+    public void updateProgress(Long id, long bytesTransferidos) {
+        String sql = "UPDATE Transferencia SET BytesTransferidos = ? WHERE Id = ?";
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, bytesTransferidos);
+            pstmt.setLong(2, id);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            logger.error("Error al actualizar avance de transferencia", e);
+        }
+    }
+
     private Transferencia mapResultSetToTransferencia(ResultSet rs) throws SQLException {
         Transferencia transferencia = new Transferencia();
         transferencia.setId(rs.getLong("Id"));
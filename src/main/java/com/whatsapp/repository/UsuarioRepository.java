@@ -10,9 +10,13 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
 
 public class UsuarioRepository implements IRepository<Usuario, Long> {
     private static final Logger logger = LoggerFactory.getLogger(UsuarioRepository.class);
+    // Avisos de cambio de estado de un usuario (por ID), p. ej. para revocar sesiones
+    private static final List<LongConsumer> changeListeners = new CopyOnWriteArrayList<>();
     private final DatabaseManager dbManager;
 
     public UsuarioRepository() {
@@ -101,6 +105,7 @@ public class UsuarioRepository implements IRepository<Usuario, Long> {
         } catch (SQLException e) {
             logger.error("Error al eliminar usuario", e);
         }
+        notifyChanged(id);
     }
 
     @Override
@@ -120,6 +125,7 @@ public class UsuarioRepository implements IRepository<Usuario, Long> {
         } catch (SQLException e) {
             logger.error("Error al actualizar usuario", e);
         }
+        notifyChanged(usuario.getId());
     }
 
     public void updateLastLogin(Long userId) {
@@ -134,6 +140,19 @@ public class UsuarioRepository implements IRepository<Usuario, Long> {
         }
     }
 
+    public static void addChangeListener(LongConsumer listener) {
+        changeListeners.add(listener);
+    }
+
+    private static void notifyChanged(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        for (LongConsumer listener : changeListeners) {
+            listener.accept(userId);
+        }
+    }
+
     private Usuario mapResultSetToUsuario(ResultSet rs) throws SQLException {
         Usuario usuario = new Usuario();
         usuario.setId(rs.getLong("Id"));
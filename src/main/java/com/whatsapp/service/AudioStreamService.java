@@ -1,21 +1,27 @@
 package com.whatsapp.service;
 
 import com.whatsapp.network.ConnectionManager;
+import com.whatsapp.protocol.ChecksumNegotiation;
 import com.whatsapp.protocol.MessageHeader;
+import com.whatsapp.protocol.MessageHeaderView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sound.sampled.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Servicio encargado de capturar, transmitir y reproducir audio en una videollamada.
+ * Una sola instancia por proceso: es la que recibe los frames AUDIO y la que reproduce.
+ * Patrón: Singleton
  */
 public class AudioStreamService {
     private static final Logger logger = LoggerFactory.getLogger(AudioStreamService.class);
+    private static AudioStreamService instance;
     private static final byte DIRECTION_CLIENT_TO_SERVER = 0;
     private static final byte DIRECTION_SERVER_TO_CLIENT = 1;
     private static final int CHUNK_MILLIS = 20;
@@ -35,7 +41,7 @@ public class AudioStreamService {
     private String currentTargetConnectionId;
     private String traceId;
 
-    public AudioStreamService() {
+    private AudioStreamService() {
         this.connectionManager = ConnectionManager.getInstance();
         this.logService = LogService.getInstance();
         this.isStreaming = new AtomicBoolean(false);
@@ -54,6 +60,13 @@ public class AudioStreamService {
         this.traceId = logService.generateTraceId();
     }
 
+    public static synchronized AudioStreamService getInstance() {
+        if (instance == null) {
+            instance = new AudioStreamService();
+        }
+        return instance;
+    }
+
     public void startStreaming(String serverConnectionId, String targetConnectionId) {
         if (isStreaming.get()) {
             logger.warn("Audio ya se encuentra transmitiéndose");
@@ -140,31 +153,19 @@ public class AudioStreamService {
 
         byte[] routedPayload = wrapPayload(DIRECTION_CLIENT_TO_SERVER, currentTargetConnectionId, chunk);
         int frameId = frameIdGenerator.incrementAndGet();
-        MessageHeader header = new MessageHeader(
-            MessageHeader.MessageType.AUDIO,
-            routedPayload.length,
-            frameId,
-            calculateChecksum(routedPayload)
-        );
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(header.toBytes());
-        baos.write(routedPayload);
-        connectionManager.send(currentServerConnectionId, baos.toByteArray());
+        byte[] message = MessageHeaderView.frame(MessageHeader.MessageType.AUDIO, frameId,
+            ChecksumNegotiation.getInstance().compute(currentServerConnectionId, routedPayload), routedPayload);
+        connectionManager.send(currentServerConnectionId, message);
     }
 
-    public void handleIncomingPacket(byte[] data, String source) {
+    public void handleIncomingPacket(MessageHeaderView header, ByteBuffer data, String source) {
         try {
-            byte[] headerBytes = new byte[MessageHeader.HEADER_SIZE];
-            System.arraycopy(data, 0, headerBytes, 0, headerBytes.length);
-            MessageHeader header = MessageHeader.fromBytes(headerBytes);
             if (header.getTipo() != MessageHeader.MessageType.AUDIO) {
                 return;
             }
 
-            byte[] payload = new byte[header.getLongitud()];
-            System.arraycopy(data, MessageHeader.HEADER_SIZE, payload, 0, payload.length);
-            AudioFrame frame = parseFrame(payload);
+            AudioFrame frame = parseFrame(data.array(),
+                data.arrayOffset() + header.payloadOffset(), header.getLongitud());
             if (frame == null) {
                 return;
             }
@@ -181,17 +182,9 @@ public class AudioStreamService {
 
     private void forwardFrame(AudioFrame frame, String originalSender, int correlId) throws IOException {
         byte[] routedPayload = wrapPayload(DIRECTION_SERVER_TO_CLIENT, originalSender, frame.payload);
-        MessageHeader header = new MessageHeader(
-            MessageHeader.MessageType.AUDIO,
-            routedPayload.length,
-            correlId,
-            calculateChecksum(routedPayload)
-        );
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(header.toBytes());
-        baos.write(routedPayload);
-        connectionManager.send(frame.peerId, baos.toByteArray());
+        byte[] message = MessageHeaderView.frame(MessageHeader.MessageType.AUDIO, correlId,
+            ChecksumNegotiation.getInstance().compute(frame.peerId, routedPayload), routedPayload);
+        connectionManager.send(frame.peerId, message);
     }
 
     private void playAudio(byte[] payload) {
@@ -223,8 +216,8 @@ public class AudioStreamService {
         return baos.toByteArray();
     }
 
-    private AudioFrame parseFrame(byte[] payload) throws IOException {
-        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload))) {
+    private AudioFrame parseFrame(byte[] buffer, int offset, int payloadLength) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buffer, offset, payloadLength))) {
             byte direction = dis.readByte();
             String peerId = dis.readUTF();
             int length = dis.readInt();
@@ -234,14 +227,6 @@ public class AudioStreamService {
         }
     }
 
-    private int calculateChecksum(byte[] data) {
-        int checksum = 0;
-        for (byte b : data) {
-            checksum = (checksum << 1) ^ b;
-        }
-        return checksum;
-    }
-
     private static class AudioFrame {
         final byte direction;
         final String peerId;
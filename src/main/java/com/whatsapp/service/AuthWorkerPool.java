@@ -0,0 +1,183 @@
+package com.whatsapp.service;
+
+import com.whatsapp.network.ConnectionManager;
+import com.whatsapp.network.NetworkConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ejecuta autenticación y registro (BCrypt + MySQL) fuera de los hilos lectores, en un
+ * pool del tamaño de la CPU con cola de admisión acotada. Cada IP de origen tiene además
+ * un token bucket; lo que no entra se rechaza de inmediato en vez de encolarse.
+ * Patrón: Singleton
+ */
+public class AuthWorkerPool {
+    private static final Logger logger = LoggerFactory.getLogger(AuthWorkerPool.class);
+    private static final int LATENCY_SAMPLES = 1024;
+    private static final int MAX_TRACKED_IPS = 10_000;
+    private static final long STATS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static AuthWorkerPool instance;
+
+    public enum Admission {
+        ACCEPTED,
+        RATE_LIMITED,
+        BUSY
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final double refillPerNano;
+    private final int burst;
+
+    // Últimas latencias (encolado + ejecución) en un buffer circular
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int latencyNext;
+    private long lastStatsLog = System.nanoTime();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    private AuthWorkerPool() {
+        NetworkConfig config = ConnectionManager.getInstance().getNetworkConfig();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(config.getAuthWorkers(), config.getAuthWorkers(),
+            60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(config.getAuthQueueCapacity()), r -> {
+                Thread thread = new Thread(r, "auth-worker-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.refillPerNano = config.getAuthRatePerMinute() / (double) TimeUnit.MINUTES.toNanos(1);
+        this.burst = config.getAuthBurst();
+    }
+
+    public static synchronized AuthWorkerPool getInstance() {
+        if (instance == null) {
+            instance = new AuthWorkerPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Encola la tarea si la IP de connectionId tiene cupo y hay lugar en la cola.
+     */
+    public Admission submit(String connectionId, Runnable task) {
+        String ip = ipOf(connectionId);
+        if (!bucketFor(ip).tryAcquire()) {
+            rejected.incrementAndGet();
+            logger.warn("Límite de intentos de autenticación alcanzado para {}", ip);
+            return Admission.RATE_LIMITED;
+        }
+        long enqueued = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    recordLatency(System.nanoTime() - enqueued);
+                }
+            });
+            return Admission.ACCEPTED;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            logger.warn("Cola de autenticación llena ({} pendientes); rechazando {}", getQueueDepth(), connectionId);
+            return Admission.BUSY;
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveWorkers() {
+        return executor.getActiveCount();
+    }
+
+    public int getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Percentil (0-100) de latencia en milisegundos sobre las últimas muestras
+     */
+    public synchronized double getLatencyPercentileMillis(double percentile) {
+        if (latencyCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000.0;
+    }
+
+    private void recordLatency(long nanos) {
+        boolean logNow;
+        synchronized (this) {
+            latencies[latencyNext] = nanos;
+            latencyNext = (latencyNext + 1) % LATENCY_SAMPLES;
+            latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+            long now = System.nanoTime();
+            logNow = now - lastStatsLog >= STATS_INTERVAL_NANOS;
+            if (logNow) {
+                lastStatsLog = now;
+            }
+        }
+        if (logNow) {
+            logger.info(String.format("Autenticación: cola %d, p50 %.0f ms, p95 %.0f ms, p99 %.0f ms, rechazados %d",
+                getQueueDepth(), getLatencyPercentileMillis(50), getLatencyPercentileMillis(95),
+                getLatencyPercentileMillis(99), getRejected()));
+        }
+    }
+
+    private TokenBucket bucketFor(String ip) {
+        if (buckets.size() > MAX_TRACKED_IPS) {
+            // Los buckets llenos equivalen a uno nuevo: se pueden descartar
+            long now = System.nanoTime();
+            buckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+        return buckets.computeIfAbsent(ip, k -> new TokenBucket());
+    }
+
+    /**
+     * "/10.0.0.5:51234" -> "10.0.0.5"
+     */
+    static String ipOf(String connectionId) {
+        if (connectionId == null) {
+            return "";
+        }
+        String address = connectionId.startsWith("/") ? connectionId.substring(1) : connectionId;
+        int colon = address.lastIndexOf(':');
+        return colon > 0 ? address.substring(0, colon) : address;
+    }
+
+    private final class TokenBucket {
+        private double tokens = burst;
+        private long lastRefill = System.nanoTime();
+
+        synchronized boolean tryAcquire() {
+            refill(System.nanoTime());
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= burst;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * refillPerNano);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.whatsapp.service;
+
+import com.whatsapp.network.ConnectionManager;
+import com.whatsapp.network.NetworkConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Almacén de archivos del servidor direccionado por contenido: cada blob se guarda en
+ * disco con su SHA-256 como nombre, así que un archivo reenviado a varias personas se
+ * guarda una sola vez. Al superar blob.maxMegabytes se borran los menos usados (LRU),
+ * salvo los que se están sirviendo.
+ * Patrón: Singleton
+ */
+public class BlobStore {
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static BlobStore instance;
+
+    private final Path root;
+    private final Path tmpDir;
+    private final long maxBytes;
+    // Orden de acceso: el primero es el menos usado. Protegidos por this
+    private final LinkedHashMap<String, Long> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> pins = new HashMap<>();
+    private long totalBytes;
+    // Verifica y publica los blobs recibidos fuera de los hilos lectores
+    private final ExecutorService committer;
+
+    private BlobStore(NetworkConfig config) {
+        this.root = Paths.get(config.getBlobDir());
+        this.tmpDir = root.resolve("tmp");
+        this.maxBytes = config.getBlobMaxBytes();
+        this.committer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "blob-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+    }
+
+    public static synchronized BlobStore getInstance() {
+        if (instance == null) {
+            instance = new BlobStore(ConnectionManager.getInstance().getNetworkConfig());
+        }
+        return instance;
+    }
+
+    /**
+     * Indexa los blobs que quedaron de una ejecución anterior (los más viejos, primeros en salir)
+     */
+    private void load() {
+        try {
+            Files.createDirectories(tmpDir);
+            try (Stream<Path> leftovers = Files.list(tmpDir)) {
+                for (Path tmp : (Iterable<Path>) leftovers::iterator) {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+            List<Path> existing;
+            try (Stream<Path> files = Files.list(root)) {
+                existing = files
+                    .filter(p -> isValidHash(p.getFileName().toString()))
+                    .sorted(Comparator.comparing(BlobStore::lastModified))
+                    .toList();
+            }
+            synchronized (this) {
+                for (Path blob : existing) {
+                    long size = Files.size(blob);
+                    blobs.put(blob.getFileName().toString(), size);
+                    totalBytes += size;
+                }
+                evict();
+            }
+            logger.info("Almacén de blobs en {}: {} blobs, {} MB", root.toAbsolutePath(), blobs.size(),
+                totalBytes / (1024 * 1024));
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("No se pudo inicializar el almacén de blobs en {}", root, e);
+        }
+    }
+
+    public synchronized boolean contains(String sha256) {
+        return isValidHash(sha256) && blobs.get(sha256) != null;
+    }
+
+    /**
+     * Reserva el blob para leerlo (no se borra hasta release); null si no está
+     */
+    public synchronized Path acquire(String sha256) {
+        if (!contains(sha256)) {
+            return null;
+        }
+        pins.merge(sha256, 1, Integer::sum);
+        return root.resolve(sha256);
+    }
+
+    public synchronized void release(String sha256) {
+        pins.computeIfPresent(sha256, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Empieza a recibir un archivo en un temporal; null si no entra en el almacén
+     */
+    public Ingest beginIngest(long size) throws IOException {
+        if (size <= 0 || size > maxBytes) {
+            return null;
+        }
+        Path tmp = tmpDir.resolve(UUID.randomUUID() + ".part");
+        FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+            StandardOpenOption.READ);
+        return new Ingest(tmp, channel, size);
+    }
+
+    private void commit(Ingest ingest, String sha256) {
+        try {
+            ingest.channel.close();
+            if (!isValidHash(sha256) || !sha256.equals(hash(ingest.tmp))) {
+                logger.warn("Blob descartado: el contenido no coincide con {}", sha256);
+                Files.deleteIfExists(ingest.tmp);
+                return;
+            }
+            synchronized (this) {
+                if (blobs.containsKey(sha256)) {
+                    Files.deleteIfExists(ingest.tmp);
+                    return;
+                }
+                Path target = root.resolve(sha256);
+                Files.move(ingest.tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                blobs.put(sha256, ingest.size);
+                totalBytes += ingest.size;
+                evict();
+            }
+            logger.debug("Blob {} guardado ({} bytes)", sha256, ingest.size);
+        } catch (IOException e) {
+            logger.error("No se pudo guardar el blob {}", sha256, e);
+            ingest.abort();
+        }
+    }
+
+    /**
+     * Borra los menos usados hasta volver bajo el límite; los reservados se saltan
+     */
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Long>> it = blobs.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (pins.containsKey(eldest.getKey())) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= eldest.getValue();
+            Files.deleteIfExists(root.resolve(eldest.getKey()));
+        }
+    }
+
+    private static String hash(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 no disponible", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static boolean isValidHash(String value) {
+        return value != null && value.length() == 64 && value.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getBlobCount() {
+        return blobs.size();
+    }
+
+    /**
+     * Archivo en recepción. Los chunks se escriben en su offset; los repetidos se ignoran.
+     * Lo usa un solo hilo lector (el de la conexión del emisor).
+     */
+    public final class Ingest {
+        private final Path tmp;
+        private final FileChannel channel;
+        private final long size;
+        private final BitSet chunks = new BitSet();
+        private long bytes;
+        private long lastWriteMillis = System.currentTimeMillis();
+
+        private Ingest(Path tmp, FileChannel channel, long size) {
+            this.tmp = tmp;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        public void write(int chunkNumber, long offset, byte[] data, int dataOffset, int length) throws IOException {
+            if (chunkNumber < 0 || chunks.get(chunkNumber) || offset + length > size) {
+                return;
+            }
+            ByteBuffer source = ByteBuffer.wrap(data, dataOffset, length);
+            while (source.hasRemaining()) {
+                channel.write(source, offset + (source.position() - dataOffset));
+            }
+            chunks.set(chunkNumber);
+            bytes += length;
+            lastWriteMillis = System.currentTimeMillis();
+        }
+
+        public boolean isComplete() {
+            return bytes >= size;
+        }
+
+        public long getLastWriteMillis() {
+            return lastWriteMillis;
+        }
+
+        /**
+         * Verifica el SHA-256 y publica el blob en segundo plano
+         */
+        public void commit(String sha256) {
+            committer.execute(() -> BlobStore.this.commit(this, sha256));
+        }
+
+        public void abort() {
+            try {
+                channel.close();
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                logger.debug("Error descartando temporal {}", tmp, e);
+            }
+        }
+    }
+}
@@ -4,41 +4,55 @@ import com.whatsapp.model.Transferencia;
 import com.whatsapp.network.ConnectionManager;
 import com.whatsapp.network.observer.EventAggregator;
 import com.whatsapp.network.observer.NetworkEvent;
+import com.whatsapp.protocol.ChecksumNegotiation;
 import com.whatsapp.protocol.MessageHeader;
-import com.whatsapp.repository.TransferenciaRepository;
+import com.whatsapp.protocol.MessageHeaderView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Envío y recepción de mensajes de chat. Una sola instancia por proceso: es la que
+ * recibe los frames CHAT del MessageDispatcher.
+ * Patrón: Singleton
+ */
 public class ChatService {
     private static final Logger logger = LoggerFactory.getLogger(ChatService.class);
+    private static ChatService instance;
     private final ConnectionManager connectionManager;
-    private final TransferenciaRepository transferenciaRepository;
+    private final TransferenciaLedger transferenciaLedger;
     private final EventAggregator eventAggregator;
     private final LogService logService;
     private final AtomicInteger correlIdGenerator;
     private String traceId;
 
-    public ChatService() {
+    private ChatService() {
         this.connectionManager = ConnectionManager.getInstance();
-        this.transferenciaRepository = ServerRuntime.isServerProcess() ? new TransferenciaRepository() : null;
+        this.transferenciaLedger = ServerRuntime.isServerProcess() ? TransferenciaLedger.getInstance() : null;
         this.eventAggregator = EventAggregator.getInstance();
         this.logService = LogService.getInstance();
         this.correlIdGenerator = new AtomicInteger(0);
         this.traceId = logService.generateTraceId();
     }
 
+    public static synchronized ChatService getInstance() {
+        if (instance == null) {
+            instance = new ChatService();
+        }
+        return instance;
+    }
+
     public void sendMessage(String connectionId, String message, Long userId, String peerIp) throws IOException {
         try {
             // Crear header
             int correlId = correlIdGenerator.incrementAndGet();
             byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
-            int checksum = calculateChecksum(messageBytes);
+            int checksum = ChecksumNegotiation.getInstance().compute(connectionId, messageBytes);
             
             // Serializar mensaje completo
             byte[] fullMessage = buildChatPacket(messageBytes, correlId, checksum);
@@ -47,7 +61,7 @@ public class ChatService {
             connectionManager.send(connectionId, fullMessage);
 
             // Registrar transferencia
-            if (transferenciaRepository != null) {
+            if (transferenciaLedger != null) {
                 Transferencia transferencia = new Transferencia(
                     Transferencia.TipoTransferencia.TEXTO,
                     "Mensaje",
@@ -57,7 +71,8 @@ public class ChatService {
                     peerIp
                 );
                 transferencia.setEstado(Transferencia.EstadoTransferencia.COMPLETADA);
-                transferenciaRepository.save(transferencia);
+                // Solo se anexa: el INSERT sale en un lote desde el hilo del ledger
+                transferenciaLedger.record(transferencia);
             }
 
             logService.logInfo("Mensaje enviado a " + connectionId, "ChatService", traceId, userId);
@@ -68,22 +83,18 @@ public class ChatService {
         }
     }
 
-    public void handleReceivedMessage(byte[] data, String source) {
+    public void handleReceivedMessage(MessageHeaderView header, ByteBuffer data, String source) {
         try {
-            // Parsear header
-            byte[] headerBytes = new byte[MessageHeader.HEADER_SIZE];
-            System.arraycopy(data, 0, headerBytes, 0, MessageHeader.HEADER_SIZE);
-            MessageHeader header = MessageHeader.fromBytes(headerBytes);
 
             if (header.getTipo() == MessageHeader.MessageType.CHAT) {
-                // Extraer mensaje
-                byte[] messageBytes = new byte[header.getLongitud()];
-                System.arraycopy(data, MessageHeader.HEADER_SIZE, messageBytes, 0, header.getLongitud());
-                String message = new String(messageBytes, StandardCharsets.UTF_8);
+                // Leer el mensaje directamente del buffer recibido
+                byte[] array = data.array();
+                int offset = data.arrayOffset() + header.payloadOffset();
+                String message = new String(array, offset, header.getLongitud(), StandardCharsets.UTF_8);
 
                 // Verificar checksum
-                int calculatedChecksum = calculateChecksum(messageBytes);
-                if (calculatedChecksum != header.getChecksum()) {
+                if (!ChecksumNegotiation.getInstance().verify(source, array, offset, header.getLongitud(),
+                        header.getChecksum())) {
                     logger.warn("Checksum inválido en mensaje recibido");
                     return;
                 }
@@ -124,7 +135,8 @@ public class ChatService {
         try {
             String forwardPayload = "FROM:" + source + "|" + encodedMessage;
             byte[] forwardBytes = forwardPayload.getBytes(StandardCharsets.UTF_8);
-            byte[] packet = buildChatPacket(forwardBytes, correlId, calculateChecksum(forwardBytes));
+            byte[] packet = buildChatPacket(forwardBytes, correlId,
+                ChecksumNegotiation.getInstance().compute(targetId, forwardBytes));
             connectionManager.send(targetId, packet);
             logger.info("Mensaje reenviado de " + source + " a " + targetId);
         } catch (IOException e) {
@@ -155,25 +167,7 @@ public class ChatService {
     }
 
     private byte[] buildChatPacket(byte[] messageBytes, int correlId, int checksum) throws IOException {
-        MessageHeader header = new MessageHeader(
-            MessageHeader.MessageType.CHAT,
-            messageBytes.length,
-            correlId,
-            checksum
-        );
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(header.toBytes());
-        baos.write(messageBytes);
-        return baos.toByteArray();
-    }
-
-    private int calculateChecksum(byte[] data) {
-        int checksum = 0;
-        for (byte b : data) {
-            checksum = (checksum << 1) ^ b;
-        }
-        return checksum;
+        return MessageHeaderView.frame(MessageHeader.MessageType.CHAT, correlId, checksum, messageBytes);
     }
 
     public static class ChatMessage {
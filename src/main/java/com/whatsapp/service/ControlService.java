@@ -5,13 +5,19 @@ import com.whatsapp.model.Usuario;
 import com.whatsapp.network.ConnectionManager;
 import com.whatsapp.network.observer.EventAggregator;
 import com.whatsapp.network.observer.NetworkEvent;
+import com.whatsapp.protocol.ChecksumAlgorithm;
+import com.whatsapp.protocol.ChecksumNegotiation;
+import com.whatsapp.protocol.ControlCodec;
 import com.whatsapp.protocol.MessageHeader;
+import com.whatsapp.protocol.MessageHeaderView;
+import com.whatsapp.protocol.PeerFeatures;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -54,8 +60,17 @@ public class ControlService {
     public static final byte CONTROL_ADMIN_BLOCK_MESSAGES = 22;
     public static final byte CONTROL_ADMIN_UNBLOCK_MESSAGES = 23;
     public static final byte CONTROL_ROOM_MESSAGE = 24;
+    // Negociación de capacidades del protocolo (checksum)
+    public static final byte CONTROL_HELLO = 25;
+    // Presencia versionada: deltas agrupados y pedido de snapshot al detectar un salto
+    public static final byte CONTROL_PRESENCE_DELTA = 26;
+    public static final byte CONTROL_PRESENCE_SYNC = 27;
+    // Reconexión con token de sesión en lugar de contraseña (responde CONTROL_AUTH_RESPONSE)
+    public static final byte CONTROL_AUTH_RESUME = 28;
 
-    public ControlService() {
+    private static ControlService instance;
+
+    private ControlService() {
         this.connectionManager = ConnectionManager.getInstance();
         this.eventAggregator = EventAggregator.getInstance();
         this.logService = LogService.getInstance();
@@ -65,81 +80,45 @@ public class ControlService {
         this.roomService = RoomService.getInstance();
     }
 
-    /**
-     * Envía la lista de usuarios conectados a un cliente específico
-     */
-    public void sendUserList(String connectionId) throws IOException {
-        Set<String> connectedUsers = new java.util.HashSet<>(connectionManager.getConnectedClients());
-        logger.info("Enviando lista de usuarios a " + connectionId + ". Usuarios: " + connectedUsers);
-        String userListJson = buildUserListJson(connectedUsers, connectionId);
-        logger.info("JSON generado: " + userListJson);
-        sendControlMessage(connectionId, CONTROL_USER_LIST, userListJson);
-        logger.info("Mensaje de control enviado exitosamente");
-    }
-
-    public void broadcastUserList() {
-        for (String clientId : connectionManager.getConnectedClients()) {
-            try {
-                sendUserList(clientId);
-            } catch (IOException e) {
-                logger.error("No se pudo enviar lista de usuarios a " + clientId, e);
-            }
+    public static synchronized ControlService getInstance() {
+        if (instance == null) {
+            instance = new ControlService();
         }
-        publishUserListSnapshotForServer();
-    }
-
-    private void publishUserListSnapshotForServer() {
-        Set<String> connectedUsers = new java.util.HashSet<>(connectionManager.getConnectedClients());
-        String snapshot = buildUserListJson(connectedUsers, null);
-        eventAggregator.publish(new NetworkEvent(
-            NetworkEvent.EventType.CONNECTED,
-            snapshot,
-            "SERVER_UI"
-        ));
+        return instance;
     }
 
     /**
-     * Notifica a todos los clientes que un usuario se conectó
+     * Envía el snapshot de presencia (versión + usuarios) a un cliente específico
      */
-    public void notifyUserConnected(String userId) throws IOException {
-        sendControlMessageToAll(CONTROL_USER_CONNECTED, formatUserEntry(userId));
+    public void sendUserList(String connectionId) throws IOException {
+        PresenceService.getInstance().sendSnapshot(connectionId);
     }
 
     /**
-     * Notifica a todos los clientes que un usuario se desconectó
+     * Quita al usuario de la presencia; el resto de clientes lo recibe como delta
      */
     public void notifyUserDisconnected(String userId) throws IOException {
         aliasRegistry.removeAlias(userId);
-        sendControlMessageToAll(CONTROL_USER_DISCONNECTED, userId);
-        broadcastUserList();
+        PresenceService.getInstance().userOffline(userId);
     }
 
     /**
-     * Envía un mensaje de control a un cliente específico
+     * Envía un mensaje de control a un cliente específico; payload viene de ControlCodec
      */
-    public void sendControlMessage(String connectionId, byte controlType, String data) throws IOException {
-        try {
-            int correlId = correlIdGenerator.incrementAndGet();
-            byte[] dataBytes = data.getBytes(StandardCharsets.UTF_8);
-            int checksum = calculateChecksum(dataBytes);
-            
-            // Crear header con tipo CONTROL
-            MessageHeader header = new MessageHeader(
-                MessageHeader.MessageType.CONTROL,
-                dataBytes.length + 1, // +1 para el tipo de control
-                correlId,
-                checksum
-            );
-
-            // Serializar mensaje completo: header + tipoControl + datos
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            baos.write(header.toBytes());
-            baos.write(controlType); // Tipo de control
-            baos.write(dataBytes);
-            byte[] fullMessage = baos.toByteArray();
+    public void sendControlMessage(String connectionId, byte controlType, byte[] payload) throws IOException {
+        sendControlMessage(connectionId, controlType, payload, nextCorrelId());
+    }
 
+    /**
+     * Igual que {@link #sendControlMessage(String, byte, byte[])} pero con el correlId dado:
+     * las respuestas repiten el de la solicitud (ver RpcClient)
+     */
+    public void sendControlMessage(String connectionId, byte controlType, byte[] payload, int correlId) throws IOException {
+        try {
+            byte[] fullMessage = encodeControlMessage(controlType, payload,
+                ChecksumNegotiation.getInstance().algorithmFor(connectionId), correlId);
             connectionManager.send(connectionId, fullMessage);
-            logger.info("Mensaje de control enviado a " + connectionId + " (tipo: " + controlType + ", datos: " + data + ")");
+            logger.info("Mensaje de control enviado a " + connectionId + " (tipo: " + controlType + ", bytes: " + payload.length + ")");
             logService.logInfo("Mensaje de control enviado a " + connectionId, "ControlService", traceId, null);
         } catch (Exception e) {
             logger.error("Error enviando mensaje de control", e);
@@ -147,107 +126,233 @@ public class ControlService {
         }
     }
 
+    /**
+     * Envía un mensaje de control a varios clientes codificándolo una sola vez
+     */
+    public void multicastControlMessage(Collection<String> connectionIds, byte controlType, byte[] payload) {
+        if (connectionIds.isEmpty()) {
+            return;
+        }
+        // Un encode por algoritmo de checksum negociado (a lo sumo dos)
+        ChecksumNegotiation checksums = ChecksumNegotiation.getInstance();
+        Map<ChecksumAlgorithm, List<String>> byAlgorithm = new EnumMap<>(ChecksumAlgorithm.class);
+        for (String connectionId : connectionIds) {
+            byAlgorithm.computeIfAbsent(checksums.algorithmFor(connectionId), a -> new ArrayList<>()).add(connectionId);
+        }
+        for (Map.Entry<ChecksumAlgorithm, List<String>> entry : byAlgorithm.entrySet()) {
+            byte[] fullMessage = encodeControlMessage(controlType, payload, entry.getKey(), nextCorrelId());
+            connectionManager.multicast(entry.getValue(), ByteBuffer.wrap(fullMessage));
+        }
+        logger.info("Mensaje de control enviado a " + connectionIds.size() + " clientes (tipo: " + controlType + ")");
+    }
+
+    /**
+     * correlId para mensajes sin respuesta; siempre positivo (el bit alto es de RpcClient)
+     */
+    private int nextCorrelId() {
+        return correlIdGenerator.incrementAndGet() & Integer.MAX_VALUE;
+    }
+
+    private byte[] encodeControlMessage(byte controlType, byte[] payload, ChecksumAlgorithm checksumAlgorithm,
+                                        int correlId) {
+        int checksum = checksumAlgorithm.compute(payload);
+
+        // Serializar mensaje completo: header CONTROL + tipoControl + datos
+        byte[] message = new byte[MessageHeader.HEADER_SIZE + 1 + payload.length];
+        ByteBuffer target = ByteBuffer.wrap(message);
+        MessageHeaderView.encode(target, MessageHeader.MessageType.CONTROL,
+            payload.length + 1, // +1 para el tipo de control
+            correlId, checksum);
+        target.put(controlType);
+        target.put(payload);
+        return message;
+    }
+
+    /**
+     * Anuncia al par los algoritmos de checksum y las funcionalidades soportadas
+     */
+    public void sendHello(String connectionId) throws IOException {
+        sendHello(connectionId, false);
+    }
+
+    private void sendHello(String connectionId, boolean ack) throws IOException {
+        sendControlMessage(connectionId, CONTROL_HELLO,
+            ControlCodec.writer().writeString(ChecksumNegotiation.getInstance().helloPayload(ack) + ";"
+                + PeerFeatures.getInstance().helloField()).toByteArray());
+    }
+
     public void sendAliasUpdate(String connectionId, String alias) throws IOException {
         if (connectionId == null || alias == null || alias.isBlank()) {
             return;
         }
-        sendControlMessage(connectionId, CONTROL_USER_ALIAS, alias);
+        sendControlMessage(connectionId, CONTROL_USER_ALIAS, ControlCodec.writer().writeString(alias).toByteArray());
+    }
+
+    public CompletableFuture<OperationResultPayload> authenticate(String serverConnectionId, String username,
+                                                                  String password) {
+        byte[] payload = ControlCodec.writer()
+            .writeString(username)
+            .writeString(password)
+            .toByteArray();
+        return RpcClient.getInstance().call(serverConnectionId, CONTROL_AUTH_REQUEST, payload, OperationResultPayload.class);
+    }
+
+    public CompletableFuture<OperationResultPayload> resumeSession(String serverConnectionId, String sessionToken) {
+        return RpcClient.getInstance().call(serverConnectionId, CONTROL_AUTH_RESUME,
+            ControlCodec.writer().writeString(sessionToken).toByteArray(), OperationResultPayload.class);
+    }
+
+    public CompletableFuture<OperationResultPayload> register(String serverConnectionId, String username,
+                                                              String password, String email) {
+        byte[] payload = ControlCodec.writer()
+            .writeString(username)
+            .writeString(password)
+            .writeString(email)
+            .toByteArray();
+        return RpcClient.getInstance().call(serverConnectionId, CONTROL_REGISTER_REQUEST, payload, OperationResultPayload.class);
+    }
+
+    public void sendRoomCreateRequest(String serverConnectionId, String roomName, String creatorUsername,
+                                      Collection<String> memberConnectionIds, String requestMessage,
+                                      boolean includeServer) throws IOException {
+        // Formato: roomName, creatorUsername, miembros (contador + ids), mensaje, includeServer
+        ControlCodec.Writer writer = ControlCodec.writer()
+            .writeString(roomName)
+            .writeString(creatorUsername)
+            .writeVarint(memberConnectionIds.size());
+        for (String memberId : memberConnectionIds) {
+            writer.writeString(memberId);
+        }
+        writer.writeString(requestMessage).writeBoolean(includeServer);
+        sendControlMessage(serverConnectionId, CONTROL_ROOM_CREATE_REQUEST, writer.toByteArray());
+    }
+
+    public CompletableFuture<RoomJoinResponse> joinRoom(String serverConnectionId, Long roomId) {
+        return RpcClient.getInstance().call(serverConnectionId, CONTROL_ROOM_JOIN_REQUEST,
+            ControlCodec.writer().writeLong(roomId).toByteArray(), RoomJoinResponse.class);
     }
 
-    public void sendAuthRequest(String serverConnectionId, String username, String password) throws IOException {
-        String payload = encodeCredential(username) + "|" + encodeCredential(password);
-        sendControlMessage(serverConnectionId, CONTROL_AUTH_REQUEST, payload);
+    public void sendRoomLeave(String serverConnectionId, Long roomId) throws IOException {
+        sendControlMessage(serverConnectionId, CONTROL_ROOM_LEAVE, ControlCodec.writer().writeLong(roomId).toByteArray());
     }
 
-    public void sendRegisterRequest(String serverConnectionId, String username, String password, String email) throws IOException {
-        String payload = encodeCredential(username) + "|" + encodeCredential(password) + "|" + encodeCredential(email);
-        sendControlMessage(serverConnectionId, CONTROL_REGISTER_REQUEST, payload);
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<List<RoomSummary>> fetchRoomList(String serverConnectionId) {
+        return RpcClient.getInstance()
+            .call(serverConnectionId, CONTROL_ROOM_LIST, ControlCodec.writer().toByteArray(), List.class)
+            .thenApply(list -> (List<RoomSummary>) list);
     }
 
     /**
-     * Envía un mensaje de control a todos los clientes
+     * Codifica un mensaje de room; sender vacío indica que el servidor use el ID de la conexión
      */
-    private void sendControlMessageToAll(byte controlType, String data) {
-        Set<String> clients = connectionManager.getConnectedClients();
-        for (String clientId : clients) {
-            try {
-                sendControlMessage(clientId, controlType, data);
-            } catch (IOException e) {
-                logger.error("Error enviando mensaje de control a " + clientId, e);
-            }
-        }
+    public static byte[] encodeRoomMessage(Long roomId, String sender, String message) {
+        return ControlCodec.writer()
+            .writeLong(roomId)
+            .writeString(sender)
+            .writeString(message)
+            .toByteArray();
+    }
+
+    public void sendRoomMessage(String connectionId, Long roomId, String sender, String message) throws IOException {
+        sendControlMessage(connectionId, CONTROL_ROOM_MESSAGE, encodeRoomMessage(roomId, sender, message));
     }
 
     /**
      * Procesa un mensaje de control recibido
      */
-    public void handleControlMessage(byte[] data, String source) {
+    public void handleControlMessage(MessageHeaderView header, ByteBuffer data, String source) {
         try {
-            logger.info("Procesando mensaje de control recibido de " + source + ", tamaño: " + data.length);
-            // Parsear header
-            byte[] headerBytes = new byte[MessageHeader.HEADER_SIZE];
-            System.arraycopy(data, 0, headerBytes, 0, MessageHeader.HEADER_SIZE);
-            MessageHeader header = MessageHeader.fromBytes(headerBytes);
+            logger.info("Procesando mensaje de control recibido de " + source + ", tamaño: " + data.remaining());
             logger.info("Header parseado - Tipo: " + header.getTipo() + ", Longitud: " + header.getLongitud());
 
             if (header.getTipo() == MessageHeader.MessageType.CONTROL) {
                 // Leer tipo de control
-                byte controlType = data[MessageHeader.HEADER_SIZE];
-                
-                // Leer datos
-                byte[] dataBytes = new byte[header.getLongitud() - 1]; // -1 porque el tipo de control ya se leyó
-                System.arraycopy(data, MessageHeader.HEADER_SIZE + 1, dataBytes, 0, dataBytes.length);
-                String controlData = new String(dataBytes, StandardCharsets.UTF_8);
-                logger.info("Tipo de control: " + controlType + ", Datos: " + controlData);
+                byte controlType = data.get(header.payloadOffset());
+                int offset = header.payloadOffset() + 1;
+                int dataLength = header.getLongitud() - 1; // -1 porque el tipo de control ya se leyó
+                logger.info("Tipo de control: " + controlType + ", bytes: " + dataLength);
 
                 // Verificar checksum
-                int calculatedChecksum = calculateChecksum(dataBytes);
-                if (calculatedChecksum != header.getChecksum()) {
+                if (!ChecksumNegotiation.getInstance().verify(source, data.array(),
+                        data.arrayOffset() + offset, dataLength, header.getChecksum())) {
                     logger.warn("Checksum inválido en mensaje de control recibido");
                     return;
                 }
 
+                // Los campos se leen directamente del buffer recibido
+                ControlCodec.Reader reader = ControlCodec.reader(data, offset, dataLength);
+
                 // Procesar según el tipo de control
                 switch (controlType) {
+                    case CONTROL_HELLO:
+                        String hello = reader.readString();
+                        PeerFeatures.getInstance().onHello(source, hello);
+                        if (ChecksumNegotiation.getInstance().onHello(source, hello)) {
+                            // El ack sale todavía en LEGACY; lo que sigue ya va en CRC32C
+                            sendHello(source, true);
+                            ChecksumNegotiation.getInstance().startSending(source);
+                        }
+                        logger.info("Checksum para " + source + ": "
+                            + ChecksumNegotiation.getInstance().algorithmFor(source));
+                        break;
                     case CONTROL_USER_LIST:
                         // Publicar evento con la lista de usuarios
-                        logger.info("Lista de usuarios recibida: " + controlData);
+                        Set<UserDescriptor> users = PresenceService.getInstance().readSnapshot(reader);
+                        logger.info("Snapshot de presencia recibido: " + users.size() + " usuarios");
                         eventAggregator.publish(new NetworkEvent(
                             NetworkEvent.EventType.CONNECTED,
-                            controlData, // JSON con la lista de usuarios
+                            users,
                             "SERVER"
                         ));
-                        logService.logInfo("Lista de usuarios recibida: " + controlData, "ControlService", traceId, null);
+                        logService.logInfo("Lista de usuarios recibida: " + users.size() + " usuarios", "ControlService", traceId, null);
                         break;
                     case CONTROL_USER_CONNECTED:
                         eventAggregator.publish(new NetworkEvent(
                             NetworkEvent.EventType.CONNECTED,
-                            controlData, // ID del usuario conectado
+                            readUserEntry(reader), // usuario conectado
                             "SERVER"
                         ));
                         break;
                     case CONTROL_USER_DISCONNECTED:
                         eventAggregator.publish(new NetworkEvent(
                             NetworkEvent.EventType.DISCONNECTED,
-                            controlData, // ID del usuario desconectado
+                            reader.readString(), // ID del usuario desconectado
                             "SERVER"
                         ));
                         break;
                     case CONTROL_USER_ALIAS:
+                        String alias = reader.readString();
+                        aliasRegistry.registerAlias(source, alias);
                         if (connectionManager.isServerMode()) {
-                            aliasRegistry.registerAlias(source, controlData);
-                            broadcastUserList();
-                        } else {
-                            aliasRegistry.registerAlias(source, controlData);
+                            PresenceService.getInstance().userOnline(source, alias);
+                        }
+                        break;
+                    case CONTROL_PRESENCE_DELTA:
+                        if (!connectionManager.isServerMode()) {
+                            handlePresenceDelta(reader, source);
+                        }
+                        break;
+                    case CONTROL_PRESENCE_SYNC:
+                        if (connectionManager.isServerMode()) {
+                            sendUserList(source);
                         }
                         break;
                     case CONTROL_AUTH_REQUEST:
                         if (connectionManager.isServerMode()) {
-                            handleAuthRequest(controlData, source);
+                            handleAuthRequest(reader, source, header.getCorrelId());
+                        }
+                        break;
+                    case CONTROL_AUTH_RESUME:
+                        if (connectionManager.isServerMode()) {
+                            handleAuthResume(reader, source, header.getCorrelId());
                         }
                         break;
                     case CONTROL_AUTH_RESPONSE:
-                        OperationResultPayload authResult = OperationResultPayload.fromPayload(controlData);
+                        OperationResultPayload authResult = OperationResultPayload.fromPayload(reader);
+                        if (RpcClient.getInstance().complete(header.getCorrelId(), authResult)) {
+                            break;
+                        }
                         eventAggregator.publish(new NetworkEvent(
                             NetworkEvent.EventType.AUTH_RESULT,
                             authResult,
@@ -256,11 +361,14 @@ public class ControlService {
                         break;
                     case CONTROL_REGISTER_REQUEST:
                         if (connectionManager.isServerMode()) {
-                            handleRegisterRequest(controlData, source);
+                            handleRegisterRequest(reader, source, header.getCorrelId());
                         }
                         break;
                     case CONTROL_REGISTER_RESPONSE:
-                        OperationResultPayload registerResult = OperationResultPayload.fromPayload(controlData);
+                        OperationResultPayload registerResult = OperationResultPayload.fromPayload(reader);
+                        if (RpcClient.getInstance().complete(header.getCorrelId(), registerResult)) {
+                            break;
+                        }
                         eventAggregator.publish(new NetworkEvent(
                             NetworkEvent.EventType.REGISTER_RESULT,
                             registerResult,
@@ -269,23 +377,26 @@ public class ControlService {
                         break;
                     case CONTROL_ROOM_CREATE_REQUEST:
                         if (connectionManager.isServerMode()) {
-                            handleRoomCreateRequest(controlData, source);
+                            handleRoomCreateRequest(reader, source);
                         }
                         break;
                     case CONTROL_ROOM_CREATE_RESPONSE:
                         eventAggregator.publish(new NetworkEvent(
                             NetworkEvent.EventType.ROOM_CREATED,
-                            controlData,
+                            RoomCreateResponse.fromPayload(reader),
                             source
                         ));
                         break;
                     case CONTROL_ROOM_JOIN_REQUEST:
                         if (connectionManager.isServerMode()) {
-                            handleRoomJoinRequest(controlData, source);
+                            handleRoomJoinRequest(reader, source, header.getCorrelId());
                         }
                         break;
                     case CONTROL_ROOM_JOIN_RESPONSE:
-                        RoomJoinResponse joinResponse = parseRoomJoinResponse(controlData);
+                        RoomJoinResponse joinResponse = readRoomJoinResponse(reader);
+                        if (RpcClient.getInstance().complete(header.getCorrelId(), joinResponse)) {
+                            break;
+                        }
                         eventAggregator.publish(new NetworkEvent(
                             NetworkEvent.EventType.ROOM_MEMBER_ADDED,
                             joinResponse,
@@ -294,14 +405,14 @@ public class ControlService {
                         break;
                     case CONTROL_ROOM_LEAVE:
                         if (connectionManager.isServerMode()) {
-                            handleRoomLeave(controlData, source);
+                            handleRoomLeave(reader, source);
                         }
                         break;
                     case CONTROL_ROOM_APPROVE:
                         if (!connectionManager.isServerMode()) {
                             eventAggregator.publish(new NetworkEvent(
                                 NetworkEvent.EventType.ROOM_APPROVED,
-                                parseRoomPayload(controlData, Room.EstadoRoom.ACTIVO),
+                                readRoomPayload(reader, Room.EstadoRoom.ACTIVO),
                                 source
                             ));
                         }
@@ -310,7 +421,7 @@ public class ControlService {
                         if (!connectionManager.isServerMode()) {
                             eventAggregator.publish(new NetworkEvent(
                                 NetworkEvent.EventType.ROOM_REJECTED,
-                                parseRoomPayload(controlData, Room.EstadoRoom.RECHAZADO),
+                                readRoomPayload(reader, Room.EstadoRoom.RECHAZADO),
                                 source
                             ));
                         }
@@ -319,7 +430,7 @@ public class ControlService {
                         if (!connectionManager.isServerMode()) {
                             eventAggregator.publish(new NetworkEvent(
                                 NetworkEvent.EventType.ROOM_CLOSED,
-                                parseRoomPayload(controlData, Room.EstadoRoom.CERRADO),
+                                readRoomPayload(reader, Room.EstadoRoom.CERRADO),
                                 source
                             ));
                         }
@@ -327,12 +438,15 @@ public class ControlService {
                     case CONTROL_ROOM_LIST:
                         if (connectionManager.isServerMode()) {
                             try {
-                                sendRoomList(source);
+                                sendRoomList(source, header.getCorrelId());
                             } catch (IOException e) {
                                 logger.error("No se pudo enviar lista de rooms a {}", source, e);
                             }
                         } else {
-                            List<RoomSummary> summaries = parseRoomListJson(controlData);
+                            List<RoomSummary> summaries = readRoomList(reader);
+                            if (RpcClient.getInstance().complete(header.getCorrelId(), summaries)) {
+                                break;
+                            }
                             eventAggregator.publish(new NetworkEvent(
                                 NetworkEvent.EventType.ROOM_LIST,
                                 summaries,
@@ -349,15 +463,15 @@ public class ControlService {
                         // Estos se manejan directamente desde el servidor
                         eventAggregator.publish(new NetworkEvent(
                             NetworkEvent.EventType.ERROR,
-                            controlData,
+                            "",
                             source
                         ));
                         break;
                     case CONTROL_ROOM_MESSAGE:
                         if (connectionManager.isServerMode()) {
-                            handleRoomChatMessage(controlData, source);
+                            handleRoomChatMessage(reader, source);
                         } else {
-                            RoomChatMessage roomMsg = parseRoomChatMessage(controlData);
+                            RoomChatMessage roomMsg = readRoomChatMessage(reader);
                             if (roomMsg != null) {
                                 eventAggregator.publish(new NetworkEvent(
                                     NetworkEvent.EventType.ROOM_MESSAGE,
@@ -375,312 +489,237 @@ public class ControlService {
     }
 
     /**
-     * Construye un JSON simple con la lista de usuarios
+     * Publica las operaciones de presencia como eventos de alta/baja; ante un salto de
+     * versión pide un snapshot nuevo al servidor
      */
-    private String buildUserListJson(Set<String> users, String excludeConnectionId) {
-        StringBuilder json = new StringBuilder();
-        json.append("[");
-        boolean first = true;
-        for (String user : users) {
-            if (excludeConnectionId != null && excludeConnectionId.equals(user)) {
-                continue;
-            }
-            String alias = aliasRegistry.getAliasOrDefault(user);
-            if (alias == null || alias.equals(user)) {
-                continue;
-            }
-            if (!first) {
-                json.append(",");
+    private void handlePresenceDelta(ControlCodec.Reader reader, String source) throws IOException {
+        List<PresenceService.Delta> applied = PresenceService.getInstance().applyDelta(reader);
+        if (applied == null) {
+            sendControlMessage(source, CONTROL_PRESENCE_SYNC, ControlCodec.writer().toByteArray());
+            return;
+        }
+        for (PresenceService.Delta delta : applied) {
+            if (delta.getOp() == PresenceService.OP_REMOVE) {
+                aliasRegistry.removeAlias(delta.getConnectionId());
+                eventAggregator.publish(new NetworkEvent(
+                    NetworkEvent.EventType.DISCONNECTED,
+                    delta.getConnectionId(),
+                    "SERVER"
+                ));
+            } else {
+                eventAggregator.publish(new NetworkEvent(
+                    NetworkEvent.EventType.CONNECTED,
+                    new UserDescriptor(delta.getConnectionId(), delta.getAlias()),
+                    "SERVER"
+                ));
             }
-            json.append("\"")
-                .append(escapeJson(user))
-                .append("::")
-                .append(escapeJson(alias))
-                .append("\"");
-            first = false;
-        }
-        json.append("]");
-        return json.toString();
-    }
-
-    /**
-     * Parsea el JSON de la lista de usuarios
-     */
-    public static Set<UserDescriptor> parseUserListJson(String json) {
-        Set<UserDescriptor> users = new LinkedHashSet<>();
-        json = json.trim();
-        if (json.length() < 2 || !json.startsWith("[") || !json.endsWith("]")) {
-            return users;
         }
+    }
 
-        String body = json.substring(1, json.length() - 1).trim();
-        if (body.isEmpty()) {
-            return users;
-        }
+    private static UserDescriptor readUserEntry(ControlCodec.Reader reader) throws IOException {
+        String connectionId = reader.readString();
+        String alias = reader.readString();
+        return new UserDescriptor(connectionId, alias.isBlank() ? connectionId : alias);
+    }
 
-        String[] entries = body.split("\",\"");
-        for (String entry : entries) {
-            String cleaned = entry.replace("\"", "");
-            UserDescriptor descriptor = parseUserDescriptor(cleaned);
-            if (descriptor != null) {
-                users.add(descriptor);
-            }
-        }
-        return users;
+    private static byte[] encodeRoomPayload(Long roomId, String name) {
+        return ControlCodec.writer().writeLong(roomId).writeString(name).toByteArray();
     }
 
-    public static UserDescriptor parseUserDescriptor(String raw) {
-        if (raw == null || raw.isBlank()) {
-            return null;
-        }
-        String[] pieces = raw.split("::", 2);
-        if (pieces.length != 2) {
-            return null;
-        }
-        String connectionId = pieces[0];
-        String displayName = pieces[1];
-        if (connectionId.isBlank() || displayName.isBlank()) {
-            return null;
-        }
-        return new UserDescriptor(connectionId, displayName);
+    private static Room readRoomPayload(ControlCodec.Reader reader, Room.EstadoRoom estado) throws IOException {
+        Room room = new Room();
+        room.setId(reader.readLong());
+        room.setName(reader.readString());
+        room.setEstado(estado);
+        return room;
     }
 
-    private Room parseRoomPayload(String payload, Room.EstadoRoom estado) {
-        if (payload == null || payload.isBlank()) {
-            return null;
-        }
-        String[] parts = payload.split("\\|");
-        if (parts.length < 3) {
-            return null;
-        }
-        try {
-            Long id = Long.parseLong(decodeCredential(parts[1]));
-            String name = decodeCredential(parts[2]);
-            Room room = new Room();
-            room.setId(id);
-            room.setName(name);
-            room.setEstado(estado);
-            return room;
-        } catch (NumberFormatException e) {
-            logger.warn("No se pudo parsear payload de room: {}", payload, e);
-            return null;
-        }
+    private static RoomJoinResponse readRoomJoinResponse(ControlCodec.Reader reader) throws IOException {
+        boolean success = reader.readBoolean();
+        long roomId = reader.readLong();
+        String message = reader.readString();
+        return new RoomJoinResponse(success, success ? roomId : null, message);
     }
 
-    private RoomJoinResponse parseRoomJoinResponse(String payload) {
-        if (payload == null) {
-            return new RoomJoinResponse(false, null, "Respuesta vacía");
-        }
-        if (payload.startsWith("OK|")) {
-            String[] parts = payload.split("\\|", 2);
-            if (parts.length == 2) {
-                try {
-                    Long roomId = Long.parseLong(decodeCredential(parts[1]));
-                    return new RoomJoinResponse(true, roomId, "");
-                } catch (NumberFormatException e) {
-                    return new RoomJoinResponse(false, null, "ID de room inválido");
-                }
-            }
-        }
-        OperationResultPayload result = OperationResultPayload.fromPayload(payload);
-        return new RoomJoinResponse(false, null, result.getMessage());
+    private static byte[] encodeRoomJoinResponse(boolean success, Long roomId, String message) {
+        return ControlCodec.writer()
+            .writeBoolean(success)
+            .writeLong(roomId == null ? -1L : roomId)
+            .writeString(message)
+            .toByteArray();
     }
 
-    /**
-     * Parsea el JSON de lista de rooms enviado por el servidor.
-     */
-    public static List<RoomSummary> parseRoomListJson(String json) {
-        List<RoomSummary> rooms = new ArrayList<>();
-        if (json == null) {
-            return rooms;
-        }
-        String trimmed = json.trim();
-        if (trimmed.length() < 2 || !trimmed.startsWith("[") || !trimmed.endsWith("]")) {
-            return rooms;
-        }
-        String body = trimmed.substring(1, trimmed.length() - 1).trim();
-        if (body.isEmpty()) {
-            return rooms;
-        }
-        // formato esperado: [{"id":1,"name":"Room","creator":"user","members":"id1,id2"}, ...]
-        String[] entries = body.split("\\},\\{");
-        for (String entry : entries) {
-            String cleaned = entry.replace("{", "").replace("}", "");
-            String[] fields = cleaned.split(",");
-            Long id = null;
-            String name = "";
-            String creator = "";
+    private static List<RoomSummary> readRoomList(ControlCodec.Reader reader) throws IOException {
+        int count = reader.readVarint();
+        List<RoomSummary> rooms = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = reader.readLong();
+            String name = reader.readString();
+            String creator = reader.readString();
+            int memberCount = reader.readVarint();
             java.util.Set<String> members = new java.util.LinkedHashSet<>();
-            for (String field : fields) {
-                String[] kv = field.split(":", 2);
-                if (kv.length != 2) continue;
-                String key = kv[0].replace("\"", "").trim();
-                String value = kv[1].replace("\"", "").trim();
-                switch (key) {
-                    case "id" -> {
-                        try {
-                            id = Long.parseLong(value);
-                        } catch (NumberFormatException ignored) { }
-                    }
-                    case "name" -> name = value;
-                    case "creator" -> creator = value;
-                    case "members" -> {
-                        if (!value.isBlank()) {
-                            for (String m : value.split(",")) {
-                                if (!m.isBlank()) {
-                                    members.add(m);
-                                }
-                            }
-                        }
-                    }
+            for (int j = 0; j < memberCount; j++) {
+                String member = reader.readString();
+                if (!member.isBlank()) {
+                    members.add(member);
                 }
             }
-            if (id != null) {
-                rooms.add(new RoomSummary(id, name, creator, members));
-            }
+            rooms.add(new RoomSummary(id, name, creator, members));
         }
         return rooms;
     }
 
-    private String formatUserEntry(String connectionId) {
-        String alias = aliasRegistry.getAliasOrDefault(connectionId);
-        if (alias == null || alias.equals(connectionId)) {
-            return connectionId;
-        }
-        return formatUserEntry(connectionId, alias);
-    }
-
-    private String formatUserEntry(String connectionId, String alias) {
-        return connectionId + "::" + alias;
-    }
-
-    private String escapeJson(String value) {
-        return value.replace("\\", "\\\\").replace("\"", "\\\"");
-    }
-
-    private String encodeCredential(String value) {
-        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
-    }
-
-    private String decodeCredential(String value) {
-        return new String(Base64.getDecoder().decode(value), StandardCharsets.UTF_8);
-    }
-
-    private int calculateChecksum(byte[] data) {
-        int checksum = 0;
-        for (byte b : data) {
-            checksum = (checksum << 1) ^ b;
+    private void handleAuthRequest(ControlCodec.Reader reader, String source, int correlId) {
+        String username;
+        String password;
+        try {
+            username = reader.readString();
+            password = reader.readString();
+        } catch (IOException e) {
+            sendResultQuietly(source, correlId, CONTROL_AUTH_RESPONSE, OperationResultPayload.error("Payload inválido"));
+            return;
         }
-        return checksum;
+        // BCrypt y MySQL van al pool de autenticación; el hilo lector sigue atendiendo el socket
+        submitAuthTask(source, correlId, CONTROL_AUTH_RESPONSE, () -> authenticate(username, password, source, correlId));
     }
 
-    private void handleAuthRequest(String payload, String source) {
+    private void authenticate(String username, String password, String source, int correlId) {
         try {
-            String[] parts = payload.split("\\|", -1);
-            if (parts.length < 2) {
-                sendControlMessage(source, CONTROL_AUTH_RESPONSE, OperationResultPayload.error("Payload inválido").toPayload());
-                return;
-            }
-            String username = decodeCredential(parts[0]);
-            String password = decodeCredential(parts[1]);
-
             ServerRuntime.markAsServerProcess();
             AuthService authService = new AuthService();
             java.util.Optional<Usuario> usuarioOpt = authService.autenticar(username, password);
             OperationResultPayload response;
             if (usuarioOpt.isPresent()) {
-                Usuario usuario = usuarioOpt.get();
-                aliasRegistry.registerAlias(source, usuario.getUsername());
-                broadcastUserList();
-                response = OperationResultPayload.success(usuario);
+                response = loginSucceeded(usuarioOpt.get(), source);
             } else {
                 response = OperationResultPayload.error("Credenciales inválidas");
             }
-            sendControlMessage(source, CONTROL_AUTH_RESPONSE, response.toPayload());
+            sendControlMessage(source, CONTROL_AUTH_RESPONSE, response.toPayload(), correlId);
         } catch (Exception e) {
             logger.error("Error procesando autenticación remota", e);
-            try {
-                sendControlMessage(source, CONTROL_AUTH_RESPONSE, OperationResultPayload.error("Error interno").toPayload());
-            } catch (IOException ioException) {
-                logger.error("No se pudo enviar respuesta de error de autenticación", ioException);
-            }
+            sendResultQuietly(source, correlId, CONTROL_AUTH_RESPONSE, OperationResultPayload.error("Error interno"));
         }
     }
 
-    private void handleRegisterRequest(String payload, String source) {
+    /**
+     * Reconexión con token: firma y vencimiento se validan aquí mismo; solo si el usuario
+     * no está en memoria se consulta la base desde el pool de autenticación.
+     */
+    private void handleAuthResume(ControlCodec.Reader reader, String source, int correlId) {
+        SessionTokenService sessions = SessionTokenService.getInstance();
+        SessionTokenService.Claims claims;
         try {
-            String[] parts = payload.split("\\|");
-            if (parts.length < 3) {
-                sendControlMessage(source, CONTROL_REGISTER_RESPONSE, OperationResultPayload.error("Payload inválido").toPayload());
-                return;
-            }
+            claims = sessions.parse(reader.readString());
+        } catch (IOException e) {
+            claims = null;
+        }
+        if (claims == null) {
+            sendResultQuietly(source, correlId, CONTROL_AUTH_RESPONSE, OperationResultPayload.error("Sesión expirada"));
+            return;
+        }
+        Usuario cached = sessions.cached(claims);
+        if (cached != null) {
+            sendResultQuietly(source, correlId, CONTROL_AUTH_RESPONSE, loginSucceeded(cached, source));
+            return;
+        }
+        SessionTokenService.Claims pending = claims;
+        submitAuthTask(source, correlId, CONTROL_AUTH_RESPONSE, () -> {
+            java.util.Optional<Usuario> usuarioOpt = sessions.load(pending);
+            sendResultQuietly(source, correlId, CONTROL_AUTH_RESPONSE, usuarioOpt.isPresent()
+                ? loginSucceeded(usuarioOpt.get(), source)
+                : OperationResultPayload.error("Sesión expirada"));
+        });
+    }
 
-            String username = decodeCredential(parts[0]);
-            String password = decodeCredential(parts[1]);
-            String email = decodeCredential(parts[2]);
+    private OperationResultPayload loginSucceeded(Usuario usuario, String source) {
+        aliasRegistry.registerAlias(source, usuario.getUsername());
+        PresenceService.getInstance().userOnline(source, usuario.getUsername());
+        return OperationResultPayload.success(usuario, SessionTokenService.getInstance().issue(usuario));
+    }
 
+    private void handleRegisterRequest(ControlCodec.Reader reader, String source, int correlId) {
+        String username;
+        String password;
+        String email;
+        try {
+            username = reader.readString();
+            password = reader.readString();
+            email = reader.readString();
+        } catch (IOException e) {
+            sendResultQuietly(source, correlId, CONTROL_REGISTER_RESPONSE, OperationResultPayload.error("Payload inválido"));
+            return;
+        }
+        submitAuthTask(source, correlId, CONTROL_REGISTER_RESPONSE, () -> register(username, password, email, source, correlId));
+    }
+
+    private void register(String username, String password, String email, String source, int correlId) {
+        try {
             ServerRuntime.markAsServerProcess();
             AuthService authService = new AuthService();
             Usuario usuario = authService.registrar(username, password, email);
             OperationResultPayload response = OperationResultPayload.success(usuario);
-            sendControlMessage(source, CONTROL_REGISTER_RESPONSE, response.toPayload());
+            sendControlMessage(source, CONTROL_REGISTER_RESPONSE, response.toPayload(), correlId);
         } catch (Exception e) {
             logger.error("Error procesando registro remoto", e);
-            try {
-                sendControlMessage(source, CONTROL_REGISTER_RESPONSE, OperationResultPayload.error(e.getMessage()).toPayload());
-            } catch (IOException ioException) {
-                logger.error("No se pudo enviar respuesta de error de registro", ioException);
-            }
+            sendResultQuietly(source, correlId, CONTROL_REGISTER_RESPONSE, OperationResultPayload.error(e.getMessage()));
+        }
+    }
+
+    /**
+     * Encola la tarea en el AuthWorkerPool; si no hay cupo responde enseguida con el motivo
+     */
+    private void submitAuthTask(String source, int correlId, byte responseType, Runnable task) {
+        switch (AuthWorkerPool.getInstance().submit(source, task)) {
+            case RATE_LIMITED -> sendResultQuietly(source, correlId, responseType,
+                OperationResultPayload.error("Demasiados intentos, espera un momento"));
+            case BUSY -> sendResultQuietly(source, correlId, responseType,
+                OperationResultPayload.error("Servidor ocupado, intenta de nuevo"));
+            case ACCEPTED -> { }
         }
     }
 
-    private void handleRoomCreateRequest(String payload, String source) {
+    private void sendResultQuietly(String source, int correlId, byte responseType, OperationResultPayload result) {
+        try {
+            sendControlMessage(source, responseType, result.toPayload(), correlId);
+        } catch (IOException e) {
+            logger.error("No se pudo enviar respuesta de autenticación/registro", e);
+        }
+    }
+
+    private void handleRoomCreateRequest(ControlCodec.Reader reader, String source) {
         try {
             logger.info("Procesando solicitud de creación de room desde: " + source);
-            logger.info("Payload recibido: " + payload);
-            
-            // Formato: roomName|creatorUsername|member1,member2,member3|mensaje|includeServer
-            String[] parts = payload.split("\\|", -1);
-            if (parts.length < 2) {
-                sendControlMessage(source, CONTROL_ROOM_CREATE_RESPONSE, 
-                    OperationResultPayload.error("Payload inválido").toPayload());
-                return;
-            }
 
-            String roomName = decodeCredential(parts[0]);
-            String creatorUsername = decodeCredential(parts[1]);
+            // Formato: roomName, creatorUsername, miembros, mensaje, includeServer
+            String roomName = reader.readString();
+            String creatorUsername = reader.readString();
+            int memberCount = reader.readVarint();
             Set<String> members = new java.util.HashSet<>();
-            String requestMessage = parts.length > 3 ? decodeCredential(parts[3]) : "";
-            boolean includeServer = parts.length > 4 && "true".equals(parts[4]);
-            
-            if (parts.length > 2) {
-                String membersStr = decodeCredential(parts[2]);
-                if (!membersStr.isEmpty()) {
-                    String[] memberIds = membersStr.split(",");
-                    for (String memberId : memberIds) {
-                        if (!memberId.trim().isEmpty()) {
-                            members.add(memberId.trim());
-                        }
-                    }
+            for (int i = 0; i < memberCount; i++) {
+                String memberId = reader.readString().trim();
+                if (!memberId.isEmpty()) {
+                    members.add(memberId);
                 }
             }
+            String requestMessage = reader.readString();
+            boolean includeServer = reader.readBoolean();
 
             logger.info("Room name: " + roomName + ", Creator: " + creatorUsername + ", Members: " + members + ", IncludeServer: " + includeServer);
-            
+
             // Verificar que RoomService tenga configurado el serverUsername
             String serverUsername = roomService.getServerUsername();
             if (serverUsername == null || serverUsername.isEmpty()) {
                 logger.error("RoomService no tiene configurado el serverUsername");
-                sendControlMessage(source, CONTROL_ROOM_CREATE_RESPONSE, 
-                    OperationResultPayload.error("El servidor no está configurado para recibir rooms").toPayload());
+                sendControlMessage(source, CONTROL_ROOM_CREATE_RESPONSE,
+                    RoomCreateResponse.error("El servidor no está configurado para recibir rooms").toPayload());
                 return;
             }
-            
+
             logger.info("ServerUsername configurado: " + serverUsername);
-            
+
             Room room = roomService.createRoomRequest(roomName, source, creatorUsername, members, requestMessage, includeServer);
             logger.info("Room creado con ID: " + room.getId() + ", Estado: " + room.getEstado());
-            
+
             // Publicar evento para que el servidor vea la solicitud pendiente
             // Usar "SERVER" como source para que ServerView lo detecte correctamente
             eventAggregator.publish(new NetworkEvent(
@@ -691,49 +730,46 @@ public class ControlService {
             logger.info("Evento ROOM_CREATED publicado");
 
             // Responder al cliente que la solicitud fue recibida
-            String response = "PENDIENTE|" + encodeCredential(String.valueOf(room.getId())) + "|" + encodeCredential(roomName);
-            sendControlMessage(source, CONTROL_ROOM_CREATE_RESPONSE, response);
+            sendControlMessage(source, CONTROL_ROOM_CREATE_RESPONSE,
+                RoomCreateResponse.pending(room.getId(), roomName).toPayload());
             logger.info("Respuesta enviada al cliente");
         } catch (Exception e) {
             logger.error("Error procesando solicitud de creación de room: " + e.getMessage(), e);
             try {
-                sendControlMessage(source, CONTROL_ROOM_CREATE_RESPONSE, 
-                    OperationResultPayload.error("Error al crear room: " + e.getMessage()).toPayload());
+                sendControlMessage(source, CONTROL_ROOM_CREATE_RESPONSE,
+                    RoomCreateResponse.error("Error al crear room: " + e.getMessage()).toPayload());
             } catch (IOException ioException) {
                 logger.error("No se pudo enviar respuesta de error de room", ioException);
             }
         }
     }
 
-    private void handleRoomJoinRequest(String payload, String source) {
+    private void handleRoomJoinRequest(ControlCodec.Reader reader, String source, int correlId) {
         try {
             // Formato: roomId
-            String roomIdStr = decodeCredential(payload);
-            Long roomId = Long.parseLong(roomIdStr);
-            
+            Long roomId = reader.readLong();
+
             if (roomService.addMemberToRoom(roomId, source)) {
-                String response = "OK|" + encodeCredential(String.valueOf(roomId));
-                sendControlMessage(source, CONTROL_ROOM_JOIN_RESPONSE, response);
+                sendControlMessage(source, CONTROL_ROOM_JOIN_RESPONSE, encodeRoomJoinResponse(true, roomId, ""), correlId);
             } else {
-                sendControlMessage(source, CONTROL_ROOM_JOIN_RESPONSE, 
-                    OperationResultPayload.error("No se pudo unir al room").toPayload());
+                sendControlMessage(source, CONTROL_ROOM_JOIN_RESPONSE,
+                    encodeRoomJoinResponse(false, roomId, "No se pudo unir al room"), correlId);
             }
         } catch (Exception e) {
             logger.error("Error procesando solicitud de unión a room", e);
             try {
-                sendControlMessage(source, CONTROL_ROOM_JOIN_RESPONSE, 
-                    OperationResultPayload.error("Error: " + e.getMessage()).toPayload());
+                sendControlMessage(source, CONTROL_ROOM_JOIN_RESPONSE,
+                    encodeRoomJoinResponse(false, null, "Error: " + e.getMessage()), correlId);
             } catch (IOException ioException) {
                 logger.error("No se pudo enviar respuesta de error", ioException);
             }
         }
     }
 
-    private void handleRoomLeave(String payload, String source) {
+    private void handleRoomLeave(ControlCodec.Reader reader, String source) {
         try {
-            String roomIdStr = decodeCredential(payload);
-            Long roomId = Long.parseLong(roomIdStr);
-            
+            Long roomId = reader.readLong();
+
             roomService.removeMemberFromRoom(roomId, source);
         } catch (Exception e) {
             logger.error("Error procesando salida de room", e);
@@ -746,149 +782,125 @@ public class ControlService {
             if (roomOpt.isPresent()) {
                 Room room = roomOpt.get();
                 // Notificar a todos los miembros
-                for (String memberId : room.getMembers()) {
-                    // Evitar enviar a IDs especiales del servidor o no conectados
-                    if (memberId.startsWith("SERVER_") || !connectionManager.getConnectedClients().contains(memberId)) {
-                        continue;
-                    }
-                    String response = "APPROVED|" + encodeCredential(String.valueOf(roomId)) + "|" + encodeCredential(room.getName());
-                    sendControlMessage(memberId, CONTROL_ROOM_APPROVE, response);
-                }
+                multicastControlMessage(connectedRoomMembers(room, null), CONTROL_ROOM_APPROVE,
+                    encodeRoomPayload(roomId, room.getName()));
             }
         }
     }
 
     public void rejectRoom(Long roomId) throws IOException {
+        // Se busca antes: un room rechazado o cerrado sale de memoria
+        Optional<Room> roomOpt = roomService.getRoom(roomId);
         if (roomService.rejectRoom(roomId)) {
-            Optional<Room> roomOpt = roomService.getRoom(roomId);
             if (roomOpt.isPresent()) {
                 Room room = roomOpt.get();
                 // Notificar al creador
-                String response = "REJECTED|" + encodeCredential(String.valueOf(roomId)) + "|" + encodeCredential(room.getName());
                 if (room.getCreatorConnectionId() != null
                     && !room.getCreatorConnectionId().startsWith("SERVER_")
                     && connectionManager.getConnectedClients().contains(room.getCreatorConnectionId())) {
-                    sendControlMessage(room.getCreatorConnectionId(), CONTROL_ROOM_REJECT, response);
+                    sendControlMessage(room.getCreatorConnectionId(), CONTROL_ROOM_REJECT,
+                        encodeRoomPayload(roomId, room.getName()));
                 }
             }
         }
     }
 
     public void closeRoom(Long roomId) throws IOException {
+        // Se busca antes: un room rechazado o cerrado sale de memoria
+        Optional<Room> roomOpt = roomService.getRoom(roomId);
         if (roomService.closeRoom(roomId)) {
-            Optional<Room> roomOpt = roomService.getRoom(roomId);
             if (roomOpt.isPresent()) {
                 Room room = roomOpt.get();
                 // Notificar a todos los miembros
-                for (String memberId : room.getMembers()) {
-                    if (memberId == null || memberId.startsWith("SERVER_")) {
-                        continue;
-                    }
-                    if (!connectionManager.getConnectedClients().contains(memberId)) {
-                        continue;
-                    }
-                    String response = "CLOSED|" + encodeCredential(String.valueOf(roomId)) + "|" + encodeCredential(room.getName());
-                    try {
-                        sendControlMessage(memberId, CONTROL_ROOM_CLOSE, response);
-                    } catch (IOException e) {
-                        logger.warn("No se pudo notificar cierre a {}", memberId, e);
-                    }
-                }
+                multicastControlMessage(connectedRoomMembers(room, null), CONTROL_ROOM_CLOSE,
+                    encodeRoomPayload(roomId, room.getName()));
             }
         }
     }
 
-    private void handleRoomChatMessage(String payload, String senderConnectionId) {
+    private void handleRoomChatMessage(ControlCodec.Reader reader, String senderConnectionId) {
         try {
-            String[] parts = payload.split("\\|", -1);
-            if (parts.length < 2) {
+            RoomChatMessage received = readRoomChatMessage(reader);
+            if (received == null) {
                 return;
             }
-            Long roomId = Long.parseLong(decodeCredential(parts[0]));
-            String encodedMessage;
-            String senderEncoded;
-            if (parts.length >= 3) {
-                senderEncoded = parts[1];
-                encodedMessage = parts[2];
-            } else {
-                senderEncoded = encodeCredential(senderConnectionId);
-                encodedMessage = parts[1];
-            }
+            String sender = received.getSenderConnectionId().isEmpty()
+                ? senderConnectionId
+                : received.getSenderConnectionId();
 
-            Optional<Room> roomOpt = roomService.getRoom(roomId);
+            Optional<Room> roomOpt = roomService.getRoom(received.getRoomId());
             if (roomOpt.isEmpty()) {
                 return;
             }
             Room room = roomOpt.get();
             // Publicar para UI del servidor
-            RoomChatMessage selfMsg = parseRoomChatMessage(
-                encodeCredential(String.valueOf(roomId)) + "|" +
-                senderEncoded + "|" +
-                encodedMessage
-            );
-            if (selfMsg != null) {
-                eventAggregator.publish(new NetworkEvent(
-                    NetworkEvent.EventType.ROOM_MESSAGE,
-                    selfMsg,
-                    senderConnectionId
-                ));
-            }
-            for (String memberId : room.getMembers()) {
-                if (memberId == null || memberId.equals(senderConnectionId) || memberId.startsWith("SERVER_")) {
-                    continue;
-                }
-                if (!connectionManager.getConnectedClients().contains(memberId)) {
-                    continue;
-                }
-                String forward = encodeCredential(String.valueOf(roomId)) + "|" +
-                                 senderEncoded + "|" +
-                                 encodedMessage;
-                sendControlMessage(memberId, CONTROL_ROOM_MESSAGE, forward);
-            }
+            eventAggregator.publish(new NetworkEvent(
+                NetworkEvent.EventType.ROOM_MESSAGE,
+                new RoomChatMessage(received.getRoomId(), sender, received.getMessage()),
+                senderConnectionId
+            ));
+            multicastControlMessage(connectedRoomMembers(room, senderConnectionId), CONTROL_ROOM_MESSAGE,
+                encodeRoomMessage(received.getRoomId(), sender, received.getMessage()));
         } catch (Exception e) {
             logger.warn("Error manejando mensaje de room", e);
         }
     }
 
-    private RoomChatMessage parseRoomChatMessage(String payload) {
-        try {
-            String[] parts = payload.split("\\|", 3);
-            if (parts.length < 3) {
-                return null;
+    /**
+     * Miembros del room conectados a este servidor, sin IDs especiales ni el excluido
+     */
+    private List<String> connectedRoomMembers(Room room, String excludeConnectionId) {
+        Set<String> connected = connectionManager.getConnectedClients();
+        List<String> recipients = new ArrayList<>();
+        for (String memberId : room.getMembers()) {
+            if (memberId == null || memberId.equals(excludeConnectionId) || memberId.startsWith("SERVER_")) {
+                continue;
+            }
+            if (connected.contains(memberId)) {
+                recipients.add(memberId);
             }
-            Long roomId = Long.parseLong(decodeCredential(parts[0]));
-            String sender = decodeCredential(parts[1]);
-            String message = decodeCredential(parts[2]);
+        }
+        return recipients;
+    }
+
+    private RoomChatMessage readRoomChatMessage(ControlCodec.Reader reader) {
+        try {
+            Long roomId = reader.readLong();
+            String sender = reader.readString();
+            String message = reader.readString();
             return new RoomChatMessage(roomId, sender, message);
-        } catch (Exception e) {
+        } catch (IOException e) {
             logger.warn("No se pudo parsear mensaje de room", e);
             return null;
         }
     }
 
     public void sendRoomList(String connectionId) throws IOException {
+        sendRoomList(connectionId, nextCorrelId());
+    }
+
+    /**
+     * @param correlId el de la solicitud si es respuesta a CONTROL_ROOM_LIST
+     */
+    public void sendRoomList(String connectionId, int correlId) throws IOException {
         List<Room> activeRooms = roomService.getActiveRooms();
-        // Serializar lista de rooms a JSON simple, incluyendo miembros
-        StringBuilder json = new StringBuilder("[");
-        boolean first = true;
+        // Contador + (id, nombre, creador, miembros) por room
+        ControlCodec.Writer writer = ControlCodec.writer().writeVarint(activeRooms.size());
         for (Room room : activeRooms) {
-            if (!first) {
-                json.append(",");
+            List<String> members = new ArrayList<>(room.getMembers());
+            writer.writeLong(room.getId())
+                .writeString(room.getName())
+                .writeString(room.getCreatorUsername())
+                .writeVarint(members.size());
+            for (String member : members) {
+                writer.writeString(member);
             }
-            json.append("{")
-                .append("\"id\":").append(room.getId()).append(",")
-                .append("\"name\":\"").append(escapeJson(room.getName())).append("\",")
-                .append("\"creator\":\"").append(escapeJson(room.getCreatorUsername())).append("\",")
-                .append("\"members\":\"").append(escapeJson(String.join(",", room.getMembers()))).append("\"")
-                .append("}");
-            first = false;
-        }
-        json.append("]");
-        sendControlMessage(connectionId, CONTROL_ROOM_LIST, json.toString());
+        }
+        sendControlMessage(connectionId, CONTROL_ROOM_LIST, writer.toByteArray(), correlId);
     }
 
     public void sendAdminControl(String targetConnectionId, byte controlType) throws IOException {
-        sendControlMessage(targetConnectionId, controlType, "");
+        sendControlMessage(targetConnectionId, controlType, ControlCodec.writer().toByteArray());
     }
 
     public static class RoomChatMessage {
@@ -987,33 +999,99 @@ public class ControlService {
         }
     }
 
+    public static class RoomCreateResponse {
+        private final boolean success;
+        private final Long roomId;
+        private final String roomName;
+        private final String message;
+
+        private RoomCreateResponse(boolean success, Long roomId, String roomName, String message) {
+            this.success = success;
+            this.roomId = roomId;
+            this.roomName = roomName;
+            this.message = message;
+        }
+
+        /**
+         * Solicitud recibida, pendiente de aprobación del servidor
+         */
+        public static RoomCreateResponse pending(Long roomId, String roomName) {
+            return new RoomCreateResponse(true, roomId, roomName, "");
+        }
+
+        public static RoomCreateResponse error(String message) {
+            return new RoomCreateResponse(false, null, "", message == null ? "" : message);
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public Long getRoomId() {
+            return roomId;
+        }
+
+        public String getRoomName() {
+            return roomName;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public byte[] toPayload() {
+            return ControlCodec.writer()
+                .writeBoolean(success)
+                .writeLong(roomId == null ? -1L : roomId)
+                .writeString(roomName)
+                .writeString(message)
+                .toByteArray();
+        }
+
+        public static RoomCreateResponse fromPayload(ControlCodec.Reader reader) throws IOException {
+            boolean success = reader.readBoolean();
+            long roomId = reader.readLong();
+            String roomName = reader.readString();
+            String message = reader.readString();
+            return new RoomCreateResponse(success, success ? roomId : null, roomName, message);
+        }
+    }
+
     public static class OperationResultPayload {
         private final boolean success;
         private final String message;
         private final Long userId;
         private final String username;
         private final String email;
+        private final String sessionToken;
 
-        private OperationResultPayload(boolean success, String message, Long userId, String username, String email) {
+        private OperationResultPayload(boolean success, String message, Long userId, String username, String email,
+                                       String sessionToken) {
             this.success = success;
             this.message = message;
             this.userId = userId;
             this.username = username;
             this.email = email;
+            this.sessionToken = sessionToken;
         }
 
         public static OperationResultPayload success(Usuario usuario) {
+            return success(usuario, "");
+        }
+
+        public static OperationResultPayload success(Usuario usuario, String sessionToken) {
             return new OperationResultPayload(
                 true,
                 "",
                 usuario.getId(),
                 usuario.getUsername(),
-                usuario.getEmail()
+                usuario.getEmail(),
+                sessionToken
             );
         }
 
         public static OperationResultPayload error(String message) {
-            return new OperationResultPayload(false, message == null ? "" : message, null, null, null);
+            return new OperationResultPayload(false, message == null ? "" : message, null, null, null, "");
         }
 
         public boolean isSuccess() {
@@ -1036,44 +1114,35 @@ public class ControlService {
             return email;
         }
 
-        public String toPayload() {
-            String encodedMessage = encodeValue(message);
-            String encodedUsername = encodeValue(username);
-            String encodedEmail = encodeValue(email);
-            String userIdValue = userId == null ? "" : userId.toString();
-            return (success ? "OK" : "ERROR") + "|"
-                + encodedMessage + "|"
-                + userIdValue + "|"
-                + encodedUsername + "|"
-                + encodedEmail;
+        /**
+         * Token para reconectar sin contraseña; vacío si el servidor no emitió uno
+         */
+        public String getSessionToken() {
+            return sessionToken;
         }
 
-        public static OperationResultPayload fromPayload(String payload) {
-            String[] parts = payload.split("\\|", -1);
-            if (parts.length < 5) {
-                return error("Respuesta inválida");
-            }
-            boolean success = "OK".equals(parts[0]);
-            String message = decodeValue(parts[1]);
-            Long userId = parts[2].isBlank() ? null : Long.parseLong(parts[2]);
-            String username = decodeValue(parts[3]);
-            String email = decodeValue(parts[4]);
-            return new OperationResultPayload(success, message, userId, username, email);
+        public byte[] toPayload() {
+            return ControlCodec.writer()
+                .writeBoolean(success)
+                .writeString(message)
+                .writeBoolean(userId != null)
+                .writeLong(userId == null ? 0L : userId)
+                .writeString(username)
+                .writeString(email)
+                .writeString(sessionToken)
+                .toByteArray();
         }
 
-        private static String encodeValue(String value) {
-            if (value == null) {
-                return "";
-            }
-            return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
-        }
-
-        private static String decodeValue(String value) {
-            if (value == null || value.isBlank()) {
-                return "";
-            }
-            return new String(Base64.getDecoder().decode(value), StandardCharsets.UTF_8);
+        public static OperationResultPayload fromPayload(ControlCodec.Reader reader) throws IOException {
+            boolean success = reader.readBoolean();
+            String message = reader.readString();
+            boolean hasUserId = reader.readBoolean();
+            long userId = reader.readLong();
+            String username = reader.readString();
+            String email = reader.readString();
+            // Servidores anteriores no envían token
+            String sessionToken = reader.remaining() > 0 ? reader.readString() : "";
+            return new OperationResultPayload(success, message, hasUserId ? userId : null, username, email, sessionToken);
         }
     }
 }
-
@@ -6,22 +6,45 @@ import com.whatsapp.network.observer.EventAggregator;
 import com.whatsapp.network.observer.NetworkEvent;
 import com.whatsapp.network.strategy.ExponentialBackoffStrategy;
 import com.whatsapp.network.strategy.RetryStrategy;
+import com.whatsapp.protocol.ChecksumNegotiation;
 import com.whatsapp.protocol.MessageHeader;
+import com.whatsapp.protocol.MessageHeaderView;
+import com.whatsapp.protocol.PeerFeatures;
 import com.whatsapp.repository.TransferenciaRepository;
+import com.whatsapp.repository.UsuarioRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Envío y recepción de archivos en chunks. Una sola instancia por proceso: las respuestas
+ * del receptor (RESUME, CREDIT) llegan por el MessageDispatcher a la misma instancia que envía.
+ * Patrón: Singleton
+ */
 public class FileTransferService {
     private static final Logger logger = LoggerFactory.getLogger(FileTransferService.class);
+    private static FileTransferService instance;
     private final ConnectionManager connectionManager;
     private final TransferenciaRepository transferenciaRepository;
     private final EventAggregator eventAggregator;
@@ -31,14 +54,45 @@ public class FileTransferService {
     private final AtomicInteger transferIdGenerator;
     private final Map<Integer, FileTransfer> activeTransfers;
     private final Map<Integer, IncomingTransfer> incomingTransfers;
+    private final Map<String, IncomingTransfer> partialTransfers; // Por clave de reanudación
+    private final Map<String, CompletableFuture<BitSet>> resumeWaiters;
+    private final Map<String, SendWindow> sendWindows; // Emisor: por clave de reanudación
+    private final Map<String, RelayTransfer> relayTransfers; // Servidor: emisor + transferId
+    private final Map<String, KnownDigest> knownDigests; // Emisor: hashes de archivos ya enviados
+    private final BlobStore blobStore; // Solo en el servidor
+    private final Map<String, PendingBlob> pendingBlobs; // Servidor: emisor + transferId
+    private final Map<String, Long> dedupedTransfers; // Servidor: emisor + transferId servidos desde el almacén
+    private final Map<String, PendingProof> pendingProofs; // Servidor: emisor + transferId con metadata retenida
+    private final Map<String, Path> provableFiles; // Emisor: por clave de reanudación, para responder desafíos
+    private final SecureRandom proofRandom;
+    private final ExecutorService blobServers;
+    private final UsuarioRepository usuarioRepository;
     private static final byte DIRECTION_CLIENT_TO_SERVER = 0;
     private static final byte DIRECTION_SERVER_TO_CLIENT = 1;
     private static final byte FRAME_METADATA = 1;
     private static final byte FRAME_CHUNK = 2;
+    private static final byte FRAME_TRAILER = 3; // digest del archivo, después del último chunk
+    private static final byte FRAME_RESUME = 4; // receptor -> emisor: chunks que ya tiene
+    private static final byte FRAME_CREDIT = 5; // receptor -> emisor: chunks recibidos y créditos otorgados
+    private static final byte FRAME_CHALLENGE = 6; // servidor -> emisor: chunks a probar antes de deduplicar
+    private static final byte FRAME_PROOF = 7; // emisor -> servidor: SHA-256 de nonce + chunks pedidos
+    private static final int CREDIT_BATCH = 4; // el receptor devuelve créditos cada 4 chunks
+    private static final long RESUME_WAIT_MILLIS = 3000; // Tope para pares que anunciaron file-resume
+    private static final int NO_RESUME_STATE = -1; // chunkCount del RESUME que da el servidor por un receptor viejo
+    private static final int CHECKSUM_REQUIRED = -2; // el receptor no entiende el trailer: reenviar con el SHA-256
+    private static final int CHECKPOINT_CHUNKS = 64; // cada 4 MB se persiste el bitmap
+    private static final long PROGRESS_PERSIST_BYTES = 8L * 1024 * 1024;
+    private static final int SIDECAR_MAGIC = 0x57415052;
+    private static final int KNOWN_DIGESTS = 256;
+    private static final int BLOB_SERVER_THREADS = 4;
+    private static final long BLOB_INGEST_STALE_MILLIS = 10 * 60 * 1000;
+    private static final int PROOF_CHUNKS = 4;
+    private static final int PROOF_NONCE_BYTES = 16;
     private static final int CHUNK_SIZE = 64 * 1024; // 64 KB
+    private static final int CHUNK_HEADER_SIZE = 4 + 4 + 8 + 4; // transferId, chunkNumber, offset, length
     private String traceId;
 
-    public FileTransferService() {
+    private FileTransferService() {
         this.connectionManager = ConnectionManager.getInstance();
         this.transferenciaRepository = ServerRuntime.isServerProcess() ? new TransferenciaRepository() : null;
         this.eventAggregator = EventAggregator.getInstance();
@@ -48,9 +102,39 @@ public class FileTransferService {
         this.transferIdGenerator = new AtomicInteger(0);
         this.activeTransfers = new ConcurrentHashMap<>();
         this.incomingTransfers = new ConcurrentHashMap<>();
+        this.partialTransfers = new ConcurrentHashMap<>();
+        this.resumeWaiters = new ConcurrentHashMap<>();
+        this.sendWindows = new ConcurrentHashMap<>();
+        this.relayTransfers = new ConcurrentHashMap<>();
+        this.knownDigests = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, KnownDigest> eldest) {
+                return size() > KNOWN_DIGESTS;
+            }
+        });
+        this.blobStore = ServerRuntime.isServerProcess() && connectionManager.getNetworkConfig().getBlobMaxBytes() > 0
+            ? BlobStore.getInstance() : null;
+        this.pendingBlobs = new ConcurrentHashMap<>();
+        this.dedupedTransfers = new ConcurrentHashMap<>();
+        this.pendingProofs = new ConcurrentHashMap<>();
+        this.provableFiles = new ConcurrentHashMap<>();
+        this.proofRandom = new SecureRandom();
+        this.blobServers = blobStore != null ? Executors.newFixedThreadPool(BLOB_SERVER_THREADS, r -> {
+            Thread thread = new Thread(r, "blob-serve");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        this.usuarioRepository = transferenciaRepository != null ? new UsuarioRepository() : null;
         this.traceId = logService.generateTraceId();
     }
 
+    public static synchronized FileTransferService getInstance() {
+        if (instance == null) {
+            instance = new FileTransferService();
+        }
+        return instance;
+    }
+
     public void sendFile(String serverConnectionId, String targetConnectionId, String filePath, Long userId,
                          String senderConnectionIdOverride) throws IOException {
         Path path = Paths.get(filePath);
@@ -60,7 +144,15 @@ public class FileTransferService {
 
         long fileSize = Files.size(path);
         String fileName = path.getFileName().toString();
-        String checksum = calculateSHA256(path);
+        // El SHA-256 se calcula mientras se envía y viaja en el trailer; la metadata solo lo lleva
+        // si este archivo ya se envió antes, para que el servidor pueda evitar la subida, o si el
+        // par no anunció file-trailer y lo necesita de antemano
+        String identity = fileIdentity(path, fileSize);
+        KnownDigest known = knownDigests.get(identity);
+        if (known == null && !PeerFeatures.getInstance().supports(serverConnectionId, PeerFeatures.FILE_TRAILER)) {
+            known = new KnownDigest(calculateSHA256(path), null);
+        }
+        String checksum = known != null ? known.fileHash : "";
 
         // Crear registro de transferencia
         Transferencia transferencia = null;
@@ -80,6 +172,10 @@ public class FileTransferService {
         } else {
             transferId = transferIdGenerator.incrementAndGet();
         }
+        String resumeKey = resumeKeyFor(identity, targetConnectionId);
+        if (transferencia != null) {
+            transferenciaRepository.setResumeKey(transferencia.getId(), resumeKey);
+        }
         FileTransfer fileTransfer = new FileTransfer(transferId, path, fileSize, fileName, checksum);
         activeTransfers.put(transferId, fileTransfer);
 
@@ -93,64 +189,28 @@ public class FileTransferService {
             throw new IllegalArgumentException("senderConnectionIdOverride es requerido cuando el servidor envía archivos directamente");
         }
 
-        // Enviar metadata primero
-        sendFileMetadata(
-            serverConnectionId,
-            targetConnectionId,
-            fileName,
-            fileSize,
-            checksum,
-            transferId,
-            outboundDirection,
-            peerIdForPayload
-        );
-
-        // Enviar archivo en chunks
-        try (FileInputStream fis = new FileInputStream(path.toFile());
-             BufferedInputStream bis = new BufferedInputStream(fis)) {
-            
-            byte[] buffer = new byte[CHUNK_SIZE];
-            int chunkNumber = 0;
-            long totalSent = 0;
-
-            while (totalSent < fileSize) {
-                int bytesRead = bis.read(buffer);
-                if (bytesRead == -1) break;
-
-                byte[] chunk = new byte[bytesRead];
-                System.arraycopy(buffer, 0, chunk, 0, bytesRead);
-
-                sendFileChunk(
-                    serverConnectionId,
-                    targetConnectionId,
-                    transferId,
-                    chunkNumber,
-                    chunk,
-                    totalSent,
-                    fileSize,
-                    outboundDirection,
-                    peerIdForPayload
-                );
-                
-                totalSent += bytesRead;
-                chunkNumber++;
-
-                // Notificar progreso
-                double progress = (double) totalSent / fileSize * 100;
-                eventAggregator.publish(new NetworkEvent(
-                    NetworkEvent.EventType.FILE_PROGRESS,
-                    new FileProgress(transferId, fileName, progress, totalSent, fileSize, false, null),
-                    targetConnectionId
-                ));
+        try {
+            KnownDigest sent;
+            try {
+                sent = streamFile(serverConnectionId, targetConnectionId, path, fileName, fileSize,
+                    transferId, resumeKey, known, outboundDirection, peerIdForPayload);
+            } catch (ChecksumRequiredException e) {
+                // El servidor no reenvió la metadata: el receptor es anterior al trailer
+                logger.info("El receptor de {} necesita el SHA-256 en la metadata; se calcula antes de enviar", fileName);
+                sent = streamFile(serverConnectionId, targetConnectionId, path, fileName, fileSize,
+                    transferId, resumeKey, new KnownDigest(calculateSHA256(path), null), outboundDirection,
+                    peerIdForPayload);
             }
+            knownDigests.put(identity, sent);
 
             // Marcar como completada
             if (transferencia != null) {
+                transferencia.setChecksum(sent.fileHash);
                 transferencia.setEstado(Transferencia.EstadoTransferencia.COMPLETADA);
                 transferencia.setFin(java.time.LocalDateTime.now());
                 transferenciaRepository.update(transferencia);
             }
-            
+
             activeTransfers.remove(transferId);
             logService.logInfo("Archivo enviado: " + fileName, "FileTransferService", traceId, userId);
         } catch (IOException e) {
@@ -163,8 +223,152 @@ public class FileTransferService {
         }
     }
 
+    /**
+     * Metadata, los chunks que el receptor todavía no tiene y el trailer. Devuelve los hashes
+     * del archivo; si ya se conocían y el receptor tiene todo, no lee el archivo.
+     */
+    private KnownDigest streamFile(String serverConnectionId, String targetConnectionId, Path path, String fileName,
+                                   long fileSize, int transferId, String resumeKey, KnownDigest known,
+                                   byte outboundDirection, String peerIdForPayload) throws IOException {
+        String checksum = known != null ? known.fileHash : "";
+
+        // Enviar metadata primero; el receptor responde con los chunks que ya tiene de un intento anterior.
+        // Solo se espera esa respuesta si el par anunció file-resume; si no, se envía enseguida y el
+        // bitmap se aplica cuando llegue
+        boolean awaitReply = PeerFeatures.getInstance().supports(serverConnectionId, PeerFeatures.FILE_RESUME);
+        CompletableFuture<BitSet> resumeReply = new CompletableFuture<>();
+        resumeWaiters.put(resumeKey, resumeReply);
+        // Se registra antes de la metadata: el primer crédito llega junto con la respuesta
+        SendWindow window = awaitReply ? new SendWindow() : null;
+        if (window != null) {
+            sendWindows.put(resumeKey, window);
+        }
+        if (!checksum.isEmpty()) {
+            // El servidor puede pedir pruebas de que tenemos el contenido antes de evitar la subida
+            provableFiles.put(resumeKey, path);
+        }
+        BitSet delivered = null;
+        try {
+            sendFileMetadata(
+                serverConnectionId,
+                targetConnectionId,
+                fileName,
+                fileSize,
+                checksum,
+                transferId,
+                resumeKey,
+                outboundDirection,
+                peerIdForPayload
+            );
+            if (awaitReply) {
+                delivered = awaitResumeState(resumeReply);
+            }
+        } catch (IOException | RuntimeException e) {
+            resumeWaiters.remove(resumeKey, resumeReply);
+            provableFiles.remove(resumeKey, path);
+            if (window != null) {
+                sendWindows.remove(resumeKey, window);
+            }
+            throw e;
+        }
+        boolean resumeApplied = delivered != null;
+        if (delivered == null) {
+            // Receptor sin reanudación ni créditos (o todavía sin respuesta): se envía sin ventana
+            if (window != null) {
+                sendWindows.remove(resumeKey, window);
+                window = null;
+            }
+            delivered = new BitSet();
+        }
+
+        try {
+            int chunkCount = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            if (known != null && known.treeHash != null && delivered.nextClearBit(0) >= chunkCount) {
+                // El receptor o el almacén del servidor ya tienen todo: basta con el trailer
+                logger.info("{} ya está en destino; no se vuelve a subir", fileName);
+                sendFileTrailer(serverConnectionId, transferId, known.fileHash, known.treeHash,
+                    outboundDirection, peerIdForPayload);
+                eventAggregator.publish(new NetworkEvent(
+                    NetworkEvent.EventType.FILE_PROGRESS,
+                    new FileProgress(transferId, fileName, 100.0, fileSize, fileSize, false, null),
+                    targetConnectionId
+                ));
+                return known;
+            }
+            if (!delivered.isEmpty()) {
+                logger.info("Reanudando {}: el receptor ya tiene {} chunks", fileName, delivered.cardinality());
+            }
+
+            // Enviar archivo en chunks: cada chunk se lee del FileChannel directo a su lugar en el frame
+            ChunkFramer framer = new ChunkFramer(outboundDirection, peerIdForPayload, transferId);
+            int creditTimeoutMillis = connectionManager.getNetworkConfig().getTransferCreditTimeoutMillis();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                int chunkNumber = 0;
+                long totalSent = 0;
+
+                while (totalSent < fileSize) {
+                    int length = (int) Math.min(CHUNK_SIZE, fileSize - totalSent);
+                    if (!resumeApplied && resumeReply.isDone()) {
+                        // Bitmap que llegó con el envío ya empezado: se saltan los chunks que faltan mandar
+                        BitSet late = resumeReply.getNow(null);
+                        if (late != null) {
+                            delivered.or(late);
+                            logger.info("Estado de reanudación tardío para {}: el receptor ya tiene {} chunks",
+                                fileName, late.cardinality());
+                        }
+                        resumeApplied = true;
+                    }
+                    if (delivered.get(chunkNumber)) {
+                        // Ya entregado: solo se lee para el digest del trailer
+                        if (!framer.skip(channel, totalSent, length)) {
+                            throw new EOFException("El archivo se acortó durante el envío: " + fileName);
+                        }
+                    } else {
+                        if (window != null) {
+                            window.awaitCredit(creditTimeoutMillis);
+                        }
+                        ByteBuffer frame = framer.frame(channel, chunkNumber, totalSent, length,
+                            correlIdGenerator.incrementAndGet(), serverConnectionId);
+                        if (frame == null) {
+                            throw new EOFException("El archivo se acortó durante el envío: " + fileName);
+                        }
+                        sendFileChunk(serverConnectionId, frame);
+                    }
+
+                    totalSent += length;
+                    chunkNumber++;
+
+                    // Notificar progreso
+                    double progress = (double) totalSent / fileSize * 100;
+                    eventAggregator.publish(new NetworkEvent(
+                        NetworkEvent.EventType.FILE_PROGRESS,
+                        new FileProgress(transferId, fileName, progress, totalSent, fileSize, false, null),
+                        targetConnectionId
+                    ));
+                }
+            }
+
+            KnownDigest sent = new KnownDigest(toHex(framer.fileHash()), toHex(framer.treeHash()));
+            sendFileTrailer(serverConnectionId, transferId, sent.fileHash, sent.treeHash,
+                outboundDirection, peerIdForPayload);
+            if (window != null) {
+                logger.debug("Ventana final de {}: {} chunks, RTT mínimo {} ms", fileName, window.getWindow(),
+                    String.format("%.1f", window.getMinRttMillis()));
+            }
+            return sent;
+        } finally {
+            resumeWaiters.remove(resumeKey, resumeReply);
+            provableFiles.remove(resumeKey, path);
+            if (window != null) {
+                // Solo la propia: un reenvío del mismo archivo puede haber registrado otra con la misma clave
+                sendWindows.remove(resumeKey, window);
+            }
+        }
+    }
+
     private void sendFileMetadata(String serverConnectionId, String targetConnectionId, String fileName, long fileSize,
-                                  String checksum, int transferId, byte direction, String peerId) throws IOException {
+                                  String checksum, int transferId, String resumeKey, byte direction,
+                                  String peerId) throws IOException {
         try {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             try (DataOutputStream dos = new DataOutputStream(baos)) {
@@ -172,62 +376,87 @@ public class FileTransferService {
                 dos.writeLong(fileSize);
                 dos.writeUTF(checksum);
                 dos.writeInt(transferId);
+                dos.writeUTF(resumeKey); // Los receptores viejos no lo leen
                 dos.flush();
             }
 
-            byte[] metadata = baos.toByteArray();
-            byte[] routedPayload = wrapRoutedPayload(direction, FRAME_METADATA, peerId, metadata);
-            int correlId = correlIdGenerator.incrementAndGet();
-            int checksumInt = calculateChecksum(routedPayload);
-            MessageHeader header = new MessageHeader(
-                MessageHeader.MessageType.ARCHIVO,
-                routedPayload.length,
-                correlId,
-                checksumInt
-            );
-
-            ByteArrayOutputStream fullMessage = new ByteArrayOutputStream();
-            fullMessage.write(header.toBytes());
-            fullMessage.write(routedPayload);
-
-            connectionManager.send(serverConnectionId, fullMessage.toByteArray());
+            sendRoutedFrame(serverConnectionId, direction, FRAME_METADATA, peerId, baos.toByteArray());
         } catch (IOException e) {
             logger.error("Error enviando metadata de archivo", e);
             throw e;
         }
     }
 
-    private void sendFileChunk(String serverConnectionId, String targetConnectionId, int transferId, int chunkNumber, byte[] chunk,
-                              long offset, long totalSize, byte direction, String peerId) throws IOException {
+    /**
+     * Identifica el contenido local sin leerlo: ruta, tamaño y fecha de modificación
+     */
+    private String fileIdentity(Path path, long fileSize) throws IOException {
+        return path.toAbsolutePath().normalize() + "|" + fileSize + "|" + Files.getLastModifiedTime(path).toMillis();
+    }
+
+    /**
+     * Clave estable de un envío: mismo archivo (ruta, tamaño, fecha) al mismo usuario.
+     * No usa IDs de conexión, que cambian al reconectar.
+     */
+    private String resumeKeyFor(String fileIdentity, String targetConnectionId) {
+        String identity = fileIdentity + "|" + UserAliasRegistry.getInstance().getAliasOrDefault(targetConnectionId);
+        MessageDigest digest = newSha256();
+        return toHex(digest.digest(identity.getBytes(java.nio.charset.StandardCharsets.UTF_8))).substring(0, 32);
+    }
+
+    /**
+     * Chunks que el receptor ya tiene; null si no responde a tiempo o si el servidor avisa
+     * que el receptor no tiene reanudación ni créditos
+     */
+    private BitSet awaitResumeState(CompletableFuture<BitSet> resumeReply) throws IOException {
+        try {
+            return resumeReply.get(RESUME_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrumpido esperando estado de reanudación", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ChecksumRequiredException checksumRequired) {
+                throw checksumRequired;
+            }
+            return new BitSet();
+        }
+    }
+
+    /**
+     * Trailer: SHA-256 del archivo completo y hash de árbol sobre los hashes de cada chunk,
+     * para que el receptor verifique aunque los chunks lleguen desordenados
+     */
+    private void sendFileTrailer(String serverConnectionId, int transferId, String fileHash, String treeHash,
+                                 byte direction, String peerId) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeInt(transferId);
+            dos.writeUTF(fileHash);
+            dos.writeUTF(treeHash);
+        }
+        sendRoutedFrame(serverConnectionId, direction, FRAME_TRAILER, peerId, baos.toByteArray());
+    }
+
+    private void sendRoutedFrame(String serverConnectionId, byte direction, byte frameType, String peerId,
+                                 byte[] payload) throws IOException {
+        byte[] routedPayload = wrapRoutedPayload(direction, frameType, peerId, payload);
+        int correlId = correlIdGenerator.incrementAndGet();
+        int checksum = ChecksumNegotiation.getInstance().compute(serverConnectionId, routedPayload);
+        byte[] message = MessageHeaderView.frame(MessageHeader.MessageType.ARCHIVO, correlId,
+            checksum, routedPayload);
+        connectionManager.send(serverConnectionId, message);
+    }
+
+    /**
+     * Encola un frame de chunk ya armado; si la cola lo rechaza se reintenta el mismo frame
+     */
+    private void sendFileChunk(String serverConnectionId, ByteBuffer frame) throws IOException {
         int attempts = 0;
         while (attempts < 5) {
             try {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                try (DataOutputStream dos = new DataOutputStream(baos)) {
-                    dos.writeInt(transferId);
-                    dos.writeInt(chunkNumber);
-                    dos.writeLong(offset);
-                    dos.writeInt(chunk.length);
-                    dos.write(chunk);
-                    dos.flush();
-                }
-                byte[] chunkData = baos.toByteArray();
-
-                byte[] routedPayload = wrapRoutedPayload(direction, FRAME_CHUNK, peerId, chunkData);
-                int correlId = correlIdGenerator.incrementAndGet();
-                int checksum = calculateChecksum(routedPayload);
-                MessageHeader header = new MessageHeader(
-                    MessageHeader.MessageType.ARCHIVO,
-                    routedPayload.length,
-                    correlId,
-                    checksum
-                );
-
-                ByteArrayOutputStream fullMessage = new ByteArrayOutputStream();
-                fullMessage.write(header.toBytes());
-                fullMessage.write(routedPayload);
-
-                connectionManager.send(serverConnectionId, fullMessage.toByteArray());
+                connectionManager.sendFrame(serverConnectionId, frame.duplicate());
                 return; // Éxito
             } catch (IOException e) {
                 attempts++;
@@ -245,81 +474,391 @@ public class FileTransferService {
         }
     }
 
-    public void handleIncomingPacket(byte[] data, String source) {
+    /**
+     * Arma frames de chunk completos (prefijo de red, header, ruteo, encabezado del chunk y datos)
+     * en un único arreglo. El prefijo de ruteo se codifica una vez por transferencia y los datos
+     * se leen del archivo directamente en su posición final, así que cada byte se copia una sola vez.
+     * De paso actualiza el SHA-256 del archivo y el hash de árbol, sin otra lectura del disco.
+     */
+    private static final class ChunkFramer {
+        private final byte direction;
+        private final byte[] peerIdUtf; // peerId como lo escribe writeUTF (largo + bytes)
+        private final int transferId;
+        private final MessageDigest fileDigest = newSha256();
+        private final MessageDigest chunkDigest = newSha256();
+        private final MessageDigest treeDigest = newSha256();
+        private byte[] scratch;
+
+        private ChunkFramer(byte direction, String peerId, int transferId) throws IOException {
+            this.direction = direction;
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (DataOutputStream dos = new DataOutputStream(baos)) {
+                dos.writeUTF(peerId);
+            }
+            this.peerIdUtf = baos.toByteArray();
+            this.transferId = transferId;
+        }
+
+        /**
+         * Devuelve el frame listo para encolar, o null si el archivo terminó antes de length bytes
+         */
+        private ByteBuffer frame(FileChannel channel, int chunkNumber, long offset, int length, int correlId,
+                                 String connectionId) throws IOException {
+            int chunkDataLength = CHUNK_HEADER_SIZE + length;
+            int payloadLength = 1 + 1 + peerIdUtf.length + 4 + chunkDataLength;
+            byte[] array = new byte[4 + MessageHeader.HEADER_SIZE + payloadLength];
+            ByteBuffer frame = ByteBuffer.wrap(array);
+
+            frame.putInt(MessageHeader.HEADER_SIZE + payloadLength);
+            frame.position(4 + MessageHeader.HEADER_SIZE); // el header va al final, con el checksum
+            int payloadStart = frame.position();
+            frame.put(direction);
+            frame.put(FRAME_CHUNK);
+            frame.put(peerIdUtf);
+            frame.putInt(chunkDataLength);
+            frame.putInt(transferId);
+            frame.putInt(chunkNumber);
+            frame.putLong(offset);
+            frame.putInt(length);
+            while (frame.hasRemaining()) {
+                if (channel.read(frame, offset + (frame.position() - (array.length - length))) < 0) {
+                    return null;
+                }
+            }
+
+            digest(array, array.length - length, length);
+
+            int checksum = ChecksumNegotiation.getInstance().compute(connectionId, array, payloadStart, payloadLength);
+            frame.position(4);
+            MessageHeaderView.encode(frame, MessageHeader.MessageType.ARCHIVO, payloadLength, correlId, checksum);
+            frame.rewind();
+            return frame;
+        }
+
+        /**
+         * Chunk que no se envía (el receptor ya lo tiene) pero entra igual en los digests
+         */
+        private boolean skip(FileChannel channel, long offset, int length) throws IOException {
+            if (scratch == null) {
+                scratch = new byte[CHUNK_SIZE];
+            }
+            ByteBuffer target = ByteBuffer.wrap(scratch, 0, length);
+            while (target.hasRemaining()) {
+                if (channel.read(target, offset + target.position()) < 0) {
+                    return false;
+                }
+            }
+            digest(scratch, 0, length);
+            return true;
+        }
+
+        private void digest(byte[] data, int offset, int length) {
+            fileDigest.update(data, offset, length);
+            chunkDigest.update(data, offset, length);
+            treeDigest.update(chunkDigest.digest());
+        }
+
+        private byte[] fileHash() {
+            return fileDigest.digest();
+        }
+
+        private byte[] treeHash() {
+            return treeDigest.digest();
+        }
+    }
+
+    public void handleIncomingPacket(MessageHeaderView header, ByteBuffer data, String source) {
         try {
-            byte[] headerBytes = new byte[MessageHeader.HEADER_SIZE];
-            System.arraycopy(data, 0, headerBytes, 0, MessageHeader.HEADER_SIZE);
-            MessageHeader header = MessageHeader.fromBytes(headerBytes);
 
             if (header.getTipo() != MessageHeader.MessageType.ARCHIVO) {
                 return;
             }
 
-            byte[] payload = new byte[header.getLongitud()];
-            System.arraycopy(data, MessageHeader.HEADER_SIZE, payload, 0, payload.length);
-
-            FileRouteFrame frame = parseFrame(payload);
+            FileRouteFrame frame = parseFrame(data.array(),
+                data.arrayOffset() + header.payloadOffset(), header.getLongitud());
             if (frame == null) {
                 logger.warn("No se pudo parsear frame de archivo");
                 return;
             }
 
             if (frame.direction == DIRECTION_CLIENT_TO_SERVER && connectionManager.isServerMode()) {
+                if (handleSenderFeedback(frame, source)) {
+                    return; // Respuesta a un archivo que envía el propio servidor
+                }
+                if (rejectTrailerOnlyMetadata(frame, source)) {
+                    return; // El emisor la reenvía con el SHA-256
+                }
+                trackRelayProgress(frame, source);
+                if (relayThroughBlobStore(frame, source)) {
+                    return; // Lo atiende el propio servidor desde el almacén de blobs
+                }
+                answerForLegacyReceiver(frame, source);
                 forwardFrameToTarget(frame, source);
                 return;
             }
 
             if (frame.direction == DIRECTION_SERVER_TO_CLIENT && !connectionManager.isServerMode()) {
-                processIncomingFrame(frame);
+                processIncomingFrame(frame, source);
             }
         } catch (Exception e) {
             logger.error("Error manejando paquete de archivo", e);
         }
     }
 
-    private void processIncomingFrame(FileRouteFrame frame) throws IOException {
+    private void processIncomingFrame(FileRouteFrame frame, String serverConnectionId) throws IOException {
         if (frame.frameType == FRAME_METADATA) {
-            handleIncomingMetadata(frame);
+            handleIncomingMetadata(frame, serverConnectionId);
         } else if (frame.frameType == FRAME_CHUNK) {
-            handleIncomingChunk(frame);
+            handleIncomingChunk(frame, serverConnectionId);
+        } else if (frame.frameType == FRAME_TRAILER) {
+            handleIncomingTrailer(frame);
+        } else {
+            handleSenderFeedback(frame, serverConnectionId);
         }
     }
 
-    private void handleIncomingMetadata(FileRouteFrame frame) throws IOException {
+    private void handleIncomingMetadata(FileRouteFrame frame, String serverConnectionId) throws IOException {
         try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame.payload))) {
             String fileName = dis.readUTF();
             long fileSize = dis.readLong();
             String checksum = dis.readUTF();
             int transferId = dis.readInt();
+            String resumeKey = dis.available() > 0 ? dis.readUTF() : null;
+            if (resumeKey != null && !isValidResumeKey(resumeKey)) {
+                // La clave se usa como nombre de archivo: otra cosa que no sea la de resumeKeyFor se descarta
+                logger.warn("Clave de reanudación inválida desde {}; se recibe sin reanudación", frame.peerId);
+                resumeKey = null;
+            }
 
-            Path downloadDir = getDownloadDirectory();
-            Files.createDirectories(downloadDir);
+            IncomingTransfer transfer = resumeKey != null ? findPartialTransfer(resumeKey, fileSize) : null;
+            if (transfer != null) {
+                // Mismo envío que se cortó: sigue sobre el archivo parcial con el nuevo transferId
+                synchronized (transfer) {
+                    incomingTransfers.remove(transfer.transferId, transfer);
+                    transfer.transferId = transferId;
+                    transfer.senderId = frame.peerId;
+                    transfer.checksum = checksum;
+                }
+                logService.logInfo("Reanudando archivo " + fileName + " desde " + frame.peerId + " ("
+                    + transfer.received.cardinality() + "/" + transfer.chunkCount + " chunks)",
+                    "FileTransferService", traceId, null);
+            } else {
+                Path downloadDir = getDownloadDirectory();
+                Files.createDirectories(downloadDir);
+
+                Path targetPath = downloadDir.resolve(generateSafeFileName(fileName));
+                Path sidecar = resumeKey != null ? sidecarPath(resumeKey) : null;
+                RandomAccessFile raf = new RandomAccessFile(targetPath.toFile(), "rw");
+                transfer = new IncomingTransfer(
+                    transferId,
+                    frame.peerId,
+                    targetPath,
+                    checksum,
+                    fileSize,
+                    null,
+                    raf,
+                    resumeKey,
+                    sidecar
+                );
+                if (resumeKey != null) {
+                    Files.createDirectories(sidecar.getParent());
+                    transfer.checkpoint();
+                    partialTransfers.put(resumeKey, transfer);
+                }
 
-            Path targetPath = downloadDir.resolve(generateSafeFileName(fileName));
-            RandomAccessFile raf = new RandomAccessFile(targetPath.toFile(), "rw");
-            incomingTransfers.put(transferId, new IncomingTransfer(
-                transferId,
-                frame.peerId,
-                targetPath,
-                checksum,
-                fileSize,
-                null,
-                raf
-            ));
+                logService.logInfo("Recibiendo archivo " + fileName + " desde " + frame.peerId,
+                    "FileTransferService", traceId, null);
+            }
+            incomingTransfers.put(transferId, transfer);
 
-            logService.logInfo("Recibiendo archivo " + fileName + " desde " + frame.peerId,
-                "FileTransferService", traceId, null);
+            if (resumeKey != null) {
+                sendResumeState(serverConnectionId, transfer);
+                synchronized (transfer) {
+                    transfer.sessionChunks = 0;
+                    transfer.creditedChunks = 0;
+                }
+                sendCredit(serverConnectionId, transfer, 0);
+            }
+        }
+    }
+
+    /**
+     * Transferencia parcial con esa clave: en memoria si el proceso siguió vivo, o
+     * reconstruida desde el bitmap en disco si se reinició
+     */
+    private IncomingTransfer findPartialTransfer(String resumeKey, long fileSize) {
+        IncomingTransfer partial = partialTransfers.get(resumeKey);
+        if (partial != null) {
+            return partial.fileSize == fileSize ? partial : null;
+        }
+        Path sidecar = sidecarPath(resumeKey);
+        if (!Files.exists(sidecar)) {
+            return null;
+        }
+        try {
+            partial = IncomingTransfer.restore(sidecar, resumeKey, fileSize, getDownloadDirectory());
+        } catch (IOException e) {
+            logger.warn("No se pudo restaurar la transferencia parcial {}", resumeKey, e);
+            return null;
+        }
+        if (partial != null) {
+            partialTransfers.put(resumeKey, partial);
+        }
+        return partial;
+    }
+
+    private void sendResumeState(String serverConnectionId, IncomingTransfer transfer) throws IOException {
+        BitSet received;
+        synchronized (transfer) {
+            received = (BitSet) transfer.received.clone();
+        }
+        sendRoutedFrame(serverConnectionId, DIRECTION_CLIENT_TO_SERVER, FRAME_RESUME, transfer.senderId,
+            encodeResumeState(transfer.resumeKey, transfer.transferId, transfer.chunkCount, received));
+    }
+
+    private static byte[] encodeResumeState(String resumeKey, int transferId, int chunkCount, BitSet received)
+        throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            byte[] bitmap = received.toByteArray();
+            dos.writeUTF(resumeKey);
+            dos.writeInt(transferId);
+            dos.writeInt(chunkCount);
+            dos.writeInt(bitmap.length);
+            dos.write(bitmap);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Créditos acumulados: el emisor puede llegar hasta received + transfer.windowChunks chunks
+     * enviados en este intento
+     */
+    private void sendCredit(String serverConnectionId, IncomingTransfer transfer, int received) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeUTF(transfer.resumeKey);
+            dos.writeInt(transfer.transferId);
+            dos.writeInt(received);
+            dos.writeInt(received + connectionManager.getNetworkConfig().getTransferWindowChunks());
         }
+        sendRoutedFrame(serverConnectionId, DIRECTION_CLIENT_TO_SERVER, FRAME_CREDIT, transfer.senderId,
+            baos.toByteArray());
     }
 
-    private void handleIncomingChunk(FileRouteFrame frame) throws IOException {
+    /**
+     * Respuestas del receptor (estado de reanudación, créditos) para un sendFile de este
+     * proceso; false si no corresponden a ningún envío local
+     */
+    private boolean handleSenderFeedback(FileRouteFrame frame, String serverConnectionId) throws IOException {
+        if (frame.frameType == FRAME_RESUME) {
+            ResumeState state = ResumeState.parse(frame.payload);
+            CompletableFuture<BitSet> waiter = resumeWaiters.get(state.resumeKey);
+            if (waiter == null) {
+                return false;
+            }
+            if (state.chunkCount == CHECKSUM_REQUIRED) {
+                waiter.completeExceptionally(new ChecksumRequiredException());
+            } else {
+                waiter.complete(state.chunkCount == NO_RESUME_STATE ? null : state.received);
+            }
+            return true;
+        }
+        if (frame.frameType == FRAME_CHALLENGE) {
+            answerChallenge(frame, serverConnectionId);
+            return true;
+        }
+        if (frame.frameType == FRAME_CREDIT) {
+            try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame.payload))) {
+                SendWindow window = sendWindows.get(dis.readUTF());
+                if (window == null) {
+                    return false;
+                }
+                dis.readInt(); // transferId
+                int received = dis.readInt();
+                window.onCredit(received, dis.readInt());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Emisor: responde el desafío del servidor con el SHA-256 del nonce y los chunks pedidos,
+     * leídos del archivo que se está enviando
+     */
+    private void answerChallenge(FileRouteFrame frame, String serverConnectionId) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame.payload))) {
+            String resumeKey = dis.readUTF();
+            int transferId = dis.readInt();
+            byte[] nonce = new byte[dis.readInt()];
+            dis.readFully(nonce);
+            int[] chunks = new int[dis.readInt()];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = dis.readInt();
+            }
+            Path path = provableFiles.get(resumeKey);
+            if (path == null) {
+                logger.warn("Desafío recibido para un envío desconocido: {}", resumeKey);
+                return;
+            }
+            byte[] proof;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                proof = possessionProof(channel, nonce, chunks);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (DataOutputStream dos = new DataOutputStream(baos)) {
+                dos.writeUTF(resumeKey);
+                dos.writeInt(transferId);
+                dos.writeInt(proof.length);
+                dos.write(proof);
+            }
+            sendRoutedFrame(serverConnectionId, DIRECTION_CLIENT_TO_SERVER, FRAME_PROOF, frame.peerId,
+                baos.toByteArray());
+        }
+    }
+
+    /**
+     * SHA-256 del nonce seguido de los chunks pedidos, en ese orden. Solo lo puede calcular
+     * quien tiene el contenido, no quien conoce el hash del archivo.
+     */
+    private static byte[] possessionProof(FileChannel channel, byte[] nonce, int[] chunks) throws IOException {
+        MessageDigest digest = newSha256();
+        digest.update(nonce);
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        for (int chunkNumber : chunks) {
+            buffer.clear();
+            long offset = (long) chunkNumber * CHUNK_SIZE;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, offset + buffer.position());
+                if (read < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            digest.update(buffer);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Lo que produce resumeKeyFor: 32 caracteres hexadecimales en minúscula
+     */
+    private static boolean isValidResumeKey(String resumeKey) {
+        return resumeKey.length() == 32
+            && resumeKey.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+    }
+
+    private Path sidecarPath(String resumeKey) {
+        return getDownloadDirectory().resolve(".partial").resolve(resumeKey + ".chunks");
+    }
+
+    private void handleIncomingChunk(FileRouteFrame frame, String serverConnectionId) throws IOException {
         try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame.payload))) {
             int transferId = dis.readInt();
-            dis.readInt(); // chunkNumber (no usamos)
+            int chunkNumber = dis.readInt();
             long offset = dis.readLong();
             int length = dis.readInt();
-            byte[] chunk = new byte[length];
-            dis.readFully(chunk);
 
             IncomingTransfer transfer = incomingTransfers.get(transferId);
             if (transfer == null) {
@@ -327,16 +866,46 @@ public class FileTransferService {
                 return;
             }
 
-            transfer.raf.seek(offset);
-            transfer.raf.write(chunk);
-            long transferred = transfer.transferred.addAndGet(length);
-            double progress = (double) transferred / transfer.fileSize * 100;
-
-            boolean completed = transferred >= transfer.fileSize;
-            if (completed) {
-                finalizeIncomingTransfer(transfer);
-                progress = 100.0;
+            long transferred;
+            boolean completed;
+            int credit = -1;
+            synchronized (transfer) {
+                if (chunkNumber < 0 || chunkNumber >= transfer.chunkCount
+                    || offset != (long) chunkNumber * CHUNK_SIZE
+                    || length != transfer.chunkLength(chunkNumber)
+                    || frame.payload.length < CHUNK_HEADER_SIZE + length) {
+                    abortIncomingTransfer(transfer, "chunk " + chunkNumber + " fuera de rango (offset "
+                        + offset + ", " + length + " bytes)");
+                    return;
+                }
+                // Los repetidos también cuentan: el emisor los tiene como enviados
+                transfer.sessionChunks++;
+                if (transfer.resumeKey != null && transfer.sessionChunks - transfer.creditedChunks >= CREDIT_BATCH) {
+                    transfer.creditedChunks = transfer.sessionChunks;
+                    credit = transfer.sessionChunks;
+                }
+                if (transfer.received.get(chunkNumber)) {
+                    if (credit >= 0) {
+                        sendCredit(serverConnectionId, transfer, credit);
+                    }
+                    return; // Repetido (p. ej. en vuelo cuando se cortó la conexión)
+                }
+                // Escribir el chunk desde el payload sin copiarlo
+                transfer.raf.seek(offset);
+                transfer.raf.write(frame.payload, CHUNK_HEADER_SIZE, length);
+                transfer.hash(chunkNumber, offset, frame.payload, CHUNK_HEADER_SIZE, length);
+                transfer.received.set(chunkNumber);
+                transfer.chunkWritten();
+                transferred = transfer.transferred.addAndGet(length);
+                completed = transfer.readyToFinalize();
+                if (completed) {
+                    finalizeIncomingTransfer(transfer);
+                }
             }
+            if (credit >= 0 && !completed) {
+                sendCredit(serverConnectionId, transfer, credit);
+            }
+            double progress = completed ? 100.0 : (double) transferred / transfer.fileSize * 100;
 
             eventAggregator.publish(new NetworkEvent(
                 NetworkEvent.EventType.FILE_PROGRESS,
@@ -358,15 +927,80 @@ public class FileTransferService {
         }
     }
 
+    /**
+     * Descarta una recepción que el emisor corrompió: cierra y borra el archivo parcial y su bitmap
+     */
+    private void abortIncomingTransfer(IncomingTransfer transfer, String reason) throws IOException {
+        logService.logWarning("Transferencia " + transfer.transferId + " desde " + transfer.senderId
+            + " abortada: " + reason, "FileTransferService", traceId, null);
+        incomingTransfers.remove(transfer.transferId, transfer);
+        try {
+            transfer.raf.close();
+        } finally {
+            if (transfer.resumeKey != null) {
+                partialTransfers.remove(transfer.resumeKey, transfer);
+                Files.deleteIfExists(transfer.sidecar);
+            }
+            Files.deleteIfExists(transfer.outputPath);
+        }
+    }
+
+    private void handleIncomingTrailer(FileRouteFrame frame) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame.payload))) {
+            int transferId = dis.readInt();
+            String fileHash = dis.readUTF();
+            String treeHash = dis.readUTF();
+
+            IncomingTransfer transfer = incomingTransfers.get(transferId);
+            if (transfer == null) {
+                logger.warn("Trailer recibido para transferencia desconocida: " + transferId);
+                return;
+            }
+            boolean completed;
+            synchronized (transfer) {
+                transfer.checksum = fileHash;
+                transfer.treeChecksum = treeHash;
+                completed = transfer.readyToFinalize();
+                if (completed) {
+                    finalizeIncomingTransfer(transfer);
+                }
+            }
+            if (completed) {
+                eventAggregator.publish(new NetworkEvent(
+                    NetworkEvent.EventType.FILE_PROGRESS,
+                    new FileProgress(transferId, transfer.outputPath.getFileName().toString(), 100.0,
+                        transfer.transferred.get(), transfer.fileSize, true, transfer.outputPath.toString()),
+                    transfer.senderId
+                ));
+            }
+        }
+    }
+
     private void finalizeIncomingTransfer(IncomingTransfer transfer) throws IOException {
         try {
             transfer.raf.getChannel().force(true);
         } finally {
             transfer.raf.close();
         }
+        if (transfer.resumeKey != null) {
+            partialTransfers.remove(transfer.resumeKey, transfer);
+            Files.deleteIfExists(transfer.sidecar);
+        }
 
-        String calculatedChecksum = calculateSHA256(transfer.outputPath);
-        boolean checksumOk = calculatedChecksum.equalsIgnoreCase(transfer.checksum);
+        String calculatedChecksum;
+        boolean checksumOk;
+        if (transfer.streamDigest != null) {
+            // Todo llegó en orden: el digest ya está calculado
+            calculatedChecksum = toHex(transfer.streamDigest.digest());
+            checksumOk = calculatedChecksum.equalsIgnoreCase(transfer.checksum);
+        } else if (transfer.treeChecksum != null) {
+            checksumOk = toHex(transfer.treeHash()).equalsIgnoreCase(transfer.treeChecksum);
+            calculatedChecksum = checksumOk ? transfer.checksum.toLowerCase() : toHex(transfer.treeHash());
+        } else {
+            // Emisor sin trailer y chunks desordenados: no queda otra que releer el archivo
+            calculatedChecksum = calculateSHA256(transfer.outputPath);
+            checksumOk = calculatedChecksum.equalsIgnoreCase(transfer.checksum);
+        }
 
         // Guardar la transferencia solo si tenemos un userId (en el cliente receptor no siempre lo hay)
         Long userId = transfer.userId;
@@ -398,6 +1032,341 @@ public class FileTransferService {
         incomingTransfers.remove(transfer.transferId);
     }
 
+    /**
+     * Servidor: lleva el avance de los archivos que reenvía en su fila de Transferencia,
+     * para que sobreviva a la conexión que se cortó
+     */
+    private void trackRelayProgress(FileRouteFrame frame, String source) {
+        if (transferenciaRepository == null) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame.payload))) {
+            switch (frame.frameType) {
+                case FRAME_METADATA -> {
+                    String fileName = dis.readUTF();
+                    long fileSize = dis.readLong();
+                    dis.readUTF(); // checksum
+                    int transferId = dis.readInt();
+                    if (dis.available() == 0) {
+                        return; // Emisor sin reanudación
+                    }
+                    String resumeKey = dis.readUTF();
+                    relayTransfers.values().removeIf(relay -> relay.resumeKey.equals(resumeKey));
+                    Transferencia row = transferenciaRepository.findResumable(resumeKey).orElse(null);
+                    if (row == null) {
+                        Long userId = usuarioRepository
+                            .findByUsername(UserAliasRegistry.getInstance().getAliasOrDefault(source))
+                            .map(com.whatsapp.model.Usuario::getId)
+                            .orElse(null);
+                        if (userId == null) {
+                            return;
+                        }
+                        row = new Transferencia(Transferencia.TipoTransferencia.ARCHIVO, fileName, fileSize, "",
+                            userId, frame.peerId);
+                        row.setEstado(Transferencia.EstadoTransferencia.EN_PROGRESO);
+                        row = transferenciaRepository.save(row);
+                        transferenciaRepository.setResumeKey(row.getId(), resumeKey);
+                    }
+                    relayTransfers.put(source + ":" + transferId, new RelayTransfer(row, resumeKey));
+                }
+                case FRAME_CHUNK -> {
+                    int transferId = dis.readInt();
+                    dis.skipBytes(4 + 8);
+                    int length = dis.readInt();
+                    RelayTransfer relay = relayTransfers.get(source + ":" + transferId);
+                    if (relay != null && relay.add(length)) {
+                        transferenciaRepository.updateProgress(relay.row.getId(), relay.bytes);
+                    }
+                }
+                case FRAME_RESUME -> {
+                    // Lo que el receptor confirma que tiene es el avance real
+                    ResumeState state = ResumeState.parse(frame.payload);
+                    RelayTransfer relay = relayTransfers.get(frame.peerId + ":" + state.transferId);
+                    if (relay != null) {
+                        relay.reset(Math.min((long) state.received.cardinality() * CHUNK_SIZE, relay.row.getTamano()));
+                        transferenciaRepository.updateProgress(relay.row.getId(), relay.bytes);
+                    }
+                }
+                case FRAME_TRAILER -> {
+                    int transferId = dis.readInt();
+                    String fileHash = dis.readUTF();
+                    RelayTransfer relay = relayTransfers.remove(source + ":" + transferId);
+                    if (relay != null) {
+                        relay.row.setChecksum(fileHash);
+                        relay.row.setEstado(Transferencia.EstadoTransferencia.COMPLETADA);
+                        relay.row.setFin(LocalDateTime.now());
+                        transferenciaRepository.update(relay.row);
+                        transferenciaRepository.updateProgress(relay.row.getId(), relay.row.getTamano());
+                    }
+                }
+                default -> {
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("No se pudo registrar el avance del archivo reenviado", e);
+        }
+    }
+
+    /**
+     * Servidor: guarda en el almacén de blobs los archivos que reenvía. Si la metadata anuncia
+     * un SHA-256, retiene la metadata y desafía al emisor; solo si prueba tener ese contenido y
+     * el blob está guardado le dice que el receptor tiene todo y le sirve el archivo al receptor
+     * desde el disco. Devuelve true si el frame no hay que reenviarlo.
+     */
+    private boolean relayThroughBlobStore(FileRouteFrame frame, String source) {
+        if (blobStore == null) {
+            return false;
+        }
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame.payload))) {
+            switch (frame.frameType) {
+                case FRAME_METADATA -> {
+                    String fileName = dis.readUTF();
+                    long fileSize = dis.readLong();
+                    String checksum = dis.readUTF();
+                    int transferId = dis.readInt();
+                    String resumeKey = dis.available() > 0 ? dis.readUTF() : null;
+                    String key = source + ":" + transferId;
+                    sweepStaleBlobs();
+
+                    // Conocer el hash no alcanza para bajarse el archivo: se desafía siempre, esté o no
+                    // el blob, para que la respuesta no revele si existe. Sin clave de reanudación el
+                    // emisor no sabría que puede saltarse los chunks.
+                    if (resumeKey != null && !checksum.isEmpty() && fileSize > 0
+                        && PeerFeatures.getInstance().supports(source, PeerFeatures.FILE_PROOF)) {
+                        int chunkCount = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+                        byte[] nonce = new byte[PROOF_NONCE_BYTES];
+                        proofRandom.nextBytes(nonce);
+                        int[] chunks = proofRandom.ints(0, chunkCount).distinct()
+                            .limit(Math.min(PROOF_CHUNKS, chunkCount)).toArray();
+                        PendingProof pending = new PendingProof(frame, fileName, fileSize, checksum, transferId,
+                            resumeKey, nonce, chunks);
+                        pendingProofs.put(key, pending);
+                        sendChallenge(source, frame.peerId, pending);
+                        return true;
+                    }
+                    beginBlobIngest(key, fileSize, checksum);
+                    return false;
+                }
+                case FRAME_PROOF -> {
+                    dis.readUTF(); // resumeKey
+                    int transferId = dis.readInt();
+                    byte[] proof = new byte[dis.readInt()];
+                    dis.readFully(proof);
+                    String key = source + ":" + transferId;
+                    PendingProof pending = pendingProofs.remove(key);
+                    if (pending == null) {
+                        return true;
+                    }
+                    Path blob = blobStore.acquire(pending.checksum);
+                    if (blob != null && proofMatches(blob, pending, proof)) {
+                        dedupedTransfers.put(key, System.currentTimeMillis());
+                        try {
+                            sendBlobResume(source, frame.peerId, pending.resumeKey, transferId, pending.fileSize);
+                        } catch (IOException | RuntimeException e) {
+                            dedupedTransfers.remove(key);
+                            blobStore.release(pending.checksum);
+                            throw e;
+                        }
+                        serveBlob(blob, pending.checksum, pending.fileName, pending.fileSize, transferId,
+                            pending.resumeKey, source, frame.peerId);
+                        return true;
+                    }
+                    if (blob != null) {
+                        blobStore.release(pending.checksum);
+                        logger.warn("{} no probó tener el contenido de {}; se sube completo", source, pending.fileName);
+                    }
+                    // La metadata retenida sigue el camino de cualquier envío
+                    beginBlobIngest(key, pending.fileSize, pending.checksum);
+                    answerForLegacyReceiver(pending.metadata, source);
+                    forwardFrameToTarget(pending.metadata, source);
+                    return true;
+                }
+                case FRAME_CHUNK -> {
+                    int transferId = dis.readInt();
+                    int chunkNumber = dis.readInt();
+                    long offset = dis.readLong();
+                    int length = dis.readInt();
+                    String key = source + ":" + transferId;
+                    PendingBlob pending = pendingBlobs.get(key);
+                    if (pending != null) {
+                        pending.ingest.write(chunkNumber, offset, frame.payload, CHUNK_HEADER_SIZE, length);
+                        // Con el SHA-256 en la metadata (emisores viejos o archivos ya enviados) no hace falta el trailer
+                        if (pending.ingest.isComplete() && !pending.checksum.isEmpty()
+                            && pendingBlobs.remove(key, pending)) {
+                            pending.ingest.commit(pending.checksum);
+                        }
+                    }
+                    return false;
+                }
+                case FRAME_TRAILER -> {
+                    int transferId = dis.readInt();
+                    String fileHash = dis.readUTF();
+                    String key = source + ":" + transferId;
+                    if (dedupedTransfers.remove(key) != null) {
+                        return true; // El receptor recibe el trailer del envío desde el almacén
+                    }
+                    PendingBlob pending = pendingBlobs.remove(key);
+                    if (pending != null) {
+                        if (pending.ingest.isComplete()) {
+                            pending.ingest.commit(fileHash);
+                        } else {
+                            // Envío reanudado: el servidor no vio todos los chunks
+                            pending.ingest.abort();
+                        }
+                    }
+                    return false;
+                }
+                default -> {
+                    return false;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Error en el almacén de blobs; el frame se reenvía igual", e);
+            return false;
+        }
+    }
+
+    private void beginBlobIngest(String key, long fileSize, String checksum) throws IOException {
+        BlobStore.Ingest ingest = blobStore.beginIngest(fileSize);
+        if (ingest != null) {
+            PendingBlob previous = pendingBlobs.put(key, new PendingBlob(ingest, checksum));
+            if (previous != null) {
+                previous.ingest.abort();
+            }
+        }
+    }
+
+    /**
+     * Pide al emisor el SHA-256 de un nonce nuevo seguido de algunos chunks elegidos al azar
+     */
+    private void sendChallenge(String senderConnectionId, String recipientConnectionId, PendingProof pending)
+        throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeUTF(pending.resumeKey);
+            dos.writeInt(pending.transferId);
+            dos.writeInt(pending.nonce.length);
+            dos.write(pending.nonce);
+            dos.writeInt(pending.chunks.length);
+            for (int chunkNumber : pending.chunks) {
+                dos.writeInt(chunkNumber);
+            }
+        }
+        sendRoutedFrame(senderConnectionId, DIRECTION_SERVER_TO_CLIENT, FRAME_CHALLENGE, recipientConnectionId,
+            baos.toByteArray());
+    }
+
+    /**
+     * Compara la prueba del emisor con la calculada sobre el blob. Son pocos chunks, así que se
+     * lee en el hilo lector: la metadata retenida no puede quedar detrás de los chunks del emisor.
+     */
+    private boolean proofMatches(Path blob, PendingProof pending, byte[] proof) {
+        try (FileChannel channel = FileChannel.open(blob, StandardOpenOption.READ)) {
+            return MessageDigest.isEqual(possessionProof(channel, pending.nonce, pending.chunks), proof);
+        } catch (IOException e) {
+            logger.warn("No se pudo leer el blob {} para verificar la prueba", pending.checksum, e);
+            return false;
+        }
+    }
+
+    /**
+     * Le responde al emisor como si fuera el receptor: ya tiene todos los chunks
+     */
+    private void sendBlobResume(String senderConnectionId, String recipientConnectionId, String resumeKey,
+                                int transferId, long fileSize) throws IOException {
+        int chunkCount = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        BitSet all = new BitSet(chunkCount);
+        all.set(0, chunkCount);
+        sendRoutedFrame(senderConnectionId, DIRECTION_SERVER_TO_CLIENT, FRAME_RESUME, recipientConnectionId,
+            encodeResumeState(resumeKey, transferId, chunkCount, all));
+    }
+
+    /**
+     * Envía el blob al receptor como si viniera del emisor original, con su misma clave de
+     * reanudación y la misma ventana de créditos. Los chunks se leen del disco directo al frame.
+     */
+    private void serveBlob(Path blob, String sha256, String fileName, long fileSize, int transferId, String resumeKey,
+                           String senderConnectionId, String recipientConnectionId) {
+        blobServers.execute(() -> {
+            try {
+                streamFile(recipientConnectionId, recipientConnectionId, blob, fileName, fileSize, transferId,
+                    resumeKey, new KnownDigest(sha256, null), DIRECTION_SERVER_TO_CLIENT, senderConnectionId);
+                logger.info("{} servido desde el almacén a {} sin subirlo de nuevo", fileName, recipientConnectionId);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("No se pudo servir {} desde el almacén a {}", fileName, recipientConnectionId, e);
+            } finally {
+                blobStore.release(sha256);
+            }
+        });
+    }
+
+    /**
+     * Descarta recepciones abandonadas (emisor desconectado sin trailer)
+     */
+    private void sweepStaleBlobs() {
+        long cutoff = System.currentTimeMillis() - BLOB_INGEST_STALE_MILLIS;
+        Iterator<Map.Entry<String, PendingBlob>> it = pendingBlobs.entrySet().iterator();
+        while (it.hasNext()) {
+            PendingBlob pending = it.next().getValue();
+            if (pending.ingest.getLastWriteMillis() < cutoff) {
+                it.remove();
+                pending.ingest.abort();
+            }
+        }
+        dedupedTransfers.values().removeIf(since -> since < cutoff);
+        pendingProofs.values().removeIf(pending -> pending.createdMillis < cutoff);
+    }
+
+    /**
+     * Servidor: una metadata sin SHA-256 (solo trailer) no se le reenvía a un receptor que no anunció
+     * file-trailer, porque daría el archivo por corrupto. Se le pide al emisor que la mande con el
+     * checksum; a un emisor que no espera la respuesta se le deja pasar como antes.
+     */
+    private boolean rejectTrailerOnlyMetadata(FileRouteFrame frame, String source) throws IOException {
+        if (frame.frameType != FRAME_METADATA
+            || !PeerFeatures.getInstance().supports(source, PeerFeatures.FILE_RESUME)
+            || PeerFeatures.getInstance().supports(frame.peerId, PeerFeatures.FILE_TRAILER)) {
+            return false;
+        }
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame.payload))) {
+            dis.readUTF(); // fileName
+            dis.readLong(); // fileSize
+            String checksum = dis.readUTF();
+            int transferId = dis.readInt();
+            if (!checksum.isEmpty() || dis.available() == 0) {
+                return false;
+            }
+            logger.info("{} no anunció file-trailer; se pide a {} la metadata con SHA-256", frame.peerId, source);
+            sendRoutedFrame(source, DIRECTION_SERVER_TO_CLIENT, FRAME_RESUME, frame.peerId,
+                encodeResumeState(dis.readUTF(), transferId, CHECKSUM_REQUIRED, new BitSet()));
+            return true;
+        }
+    }
+
+    /**
+     * Servidor: el emisor espera la respuesta a la metadata porque el servidor anuncia file-resume.
+     * Si el receptor no lo anunció nunca va a responder, así que el servidor avisa que no hay estado
+     * y el emisor arranca sin esperar.
+     */
+    private void answerForLegacyReceiver(FileRouteFrame frame, String source) throws IOException {
+        if (frame.frameType != FRAME_METADATA
+            || !PeerFeatures.getInstance().supports(source, PeerFeatures.FILE_RESUME)
+            || PeerFeatures.getInstance().supports(frame.peerId, PeerFeatures.FILE_RESUME)) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame.payload))) {
+            dis.readUTF(); // fileName
+            dis.readLong(); // fileSize
+            dis.readUTF(); // checksum
+            int transferId = dis.readInt();
+            if (dis.available() == 0) {
+                return; // Emisor sin reanudación
+            }
+            sendRoutedFrame(source, DIRECTION_SERVER_TO_CLIENT, FRAME_RESUME, frame.peerId,
+                encodeResumeState(dis.readUTF(), transferId, NO_RESUME_STATE, new BitSet()));
+        }
+    }
+
     private void forwardFrameToTarget(FileRouteFrame frame, String source) {
         try {
             byte[] forwardedPayload = wrapRoutedPayload(
@@ -408,18 +1377,10 @@ public class FileTransferService {
             );
 
             int correlId = correlIdGenerator.incrementAndGet();
-            MessageHeader header = new MessageHeader(
-                MessageHeader.MessageType.ARCHIVO,
-                forwardedPayload.length,
-                correlId,
-                calculateChecksum(forwardedPayload)
-            );
+            byte[] message = MessageHeaderView.frame(MessageHeader.MessageType.ARCHIVO, correlId,
+                ChecksumNegotiation.getInstance().compute(frame.peerId, forwardedPayload), forwardedPayload);
 
-            ByteArrayOutputStream fullMessage = new ByteArrayOutputStream();
-            fullMessage.write(header.toBytes());
-            fullMessage.write(forwardedPayload);
-
-            connectionManager.send(frame.peerId, fullMessage.toByteArray());
+            connectionManager.send(frame.peerId, message);
             logger.info("Frame de archivo reenviado de " + source + " a " + frame.peerId);
         } catch (IOException e) {
             logger.error("Error reenviando frame de archivo", e);
@@ -438,8 +1399,8 @@ public class FileTransferService {
         return baos.toByteArray();
     }
 
-    private FileRouteFrame parseFrame(byte[] payload) throws IOException {
-        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload))) {
+    private FileRouteFrame parseFrame(byte[] buffer, int offset, int payloadLength) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buffer, offset, payloadLength))) {
             byte direction = dis.readByte();
             byte frameType = dis.readByte();
             String peerId = dis.readUTF();
@@ -459,6 +1420,22 @@ public class FileTransferService {
         return timestamp + "_" + fileName;
     }
 
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
     private String calculateSHA256(Path path) throws IOException {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
@@ -470,25 +1447,12 @@ public class FileTransferService {
                     digest.update(buffer, 0, bytesRead);
                 }
             }
-            byte[] hash = digest.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
+            return toHex(digest.digest());
         } catch (Exception e) {
             throw new IOException("Error calculando SHA-256", e);
         }
     }
 
-    private int calculateChecksum(byte[] data) {
-        int checksum = 0;
-        for (byte b : data) {
-            checksum = (checksum << 1) ^ b;
-        }
-        return checksum;
-    }
-
     @SuppressWarnings("unused")
     private static class FileTransfer {
         final int transferId;
@@ -507,16 +1471,33 @@ public class FileTransferService {
     }
 
     private static class IncomingTransfer {
-        final int transferId;
-        final String senderId;
+        int transferId; // Cambia al reanudar (cada intento del emisor trae el suyo)
+        String senderId;
         final Path outputPath;
-        final String checksum;
         final long fileSize;
         final Long userId;
         final RandomAccessFile raf;
         final AtomicLong transferred = new AtomicLong(0);
-
-        IncomingTransfer(int transferId, String senderId, Path outputPath, String checksum, long fileSize, Long userId, RandomAccessFile raf) {
+        // Reanudación: bitmap de chunks recibidos, persistido junto al archivo parcial
+        final String resumeKey;
+        final Path sidecar;
+        final int chunkCount;
+        final BitSet received = new BitSet();
+        int chunksSinceCheckpoint;
+        // Control de flujo: chunks llegados en el intento actual y hasta cuál se devolvieron créditos
+        int sessionChunks;
+        int creditedChunks;
+        // Vacío hasta el trailer; los emisores viejos lo mandan en la metadata y no envían trailer
+        String checksum;
+        String treeChecksum;
+        // Digest incremental mientras los chunks llegan en orden; null tras el primer desorden
+        MessageDigest streamDigest = newSha256();
+        long nextOffset;
+        // Hashes por chunk, solo después del primer desorden
+        byte[][] chunkHashes;
+
+        IncomingTransfer(int transferId, String senderId, Path outputPath, String checksum, long fileSize, Long userId,
+                         RandomAccessFile raf, String resumeKey, Path sidecar) {
             this.transferId = transferId;
             this.senderId = senderId;
             this.outputPath = outputPath;
@@ -524,6 +1505,321 @@ public class FileTransferService {
             this.fileSize = fileSize;
             this.userId = userId;
             this.raf = raf;
+            this.resumeKey = resumeKey;
+            this.sidecar = sidecar;
+            this.chunkCount = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        }
+
+        /**
+         * Reconstruye una transferencia parcial de una ejecución anterior; null si el
+         * bitmap no corresponde, el archivo parcial ya no está o queda fuera de downloadDir
+         */
+        static IncomingTransfer restore(Path sidecar, String resumeKey, long fileSize, Path downloadDir)
+            throws IOException {
+            int chunkCount = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            Path outputPath;
+            byte[] bitmap;
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+                if (dis.readInt() != SIDECAR_MAGIC || dis.readLong() != fileSize) {
+                    return null;
+                }
+                outputPath = Paths.get(dis.readUTF()).toAbsolutePath().normalize();
+                int bitmapLength = dis.readInt();
+                if (bitmapLength < 0 || bitmapLength > (chunkCount + 7) / 8) {
+                    return null;
+                }
+                bitmap = new byte[bitmapLength];
+                dis.readFully(bitmap);
+            }
+            Path root = downloadDir.toAbsolutePath().normalize();
+            if (!outputPath.startsWith(root) || !Files.isRegularFile(outputPath)) {
+                logger.warn("Archivo parcial fuera de {}; se descarta la reanudación {}", root, resumeKey);
+                return null;
+            }
+            IncomingTransfer transfer = new IncomingTransfer(0, null, outputPath, "", fileSize, null,
+                new RandomAccessFile(outputPath.toFile(), "rw"), resumeKey, sidecar);
+            transfer.received.or(BitSet.valueOf(bitmap).get(0, chunkCount));
+            long bytes = 0;
+            for (int i = transfer.received.nextSetBit(0); i >= 0; i = transfer.received.nextSetBit(i + 1)) {
+                bytes += transfer.chunkLength(i);
+            }
+            transfer.transferred.set(bytes);
+            // Lo recibido antes del reinicio solo está en disco
+            transfer.switchToTreeHash();
+            return transfer;
+        }
+
+        int chunkLength(int chunkNumber) {
+            return (int) Math.min(CHUNK_SIZE, fileSize - (long) chunkNumber * CHUNK_SIZE);
+        }
+
+        void chunkWritten() throws IOException {
+            if (++chunksSinceCheckpoint >= CHECKPOINT_CHUNKS) {
+                checkpoint();
+            }
+        }
+
+        /**
+         * Persiste el bitmap; antes se fuerzan los datos a disco para que el bitmap
+         * nunca declare chunks que no están escritos
+         */
+        void checkpoint() throws IOException {
+            chunksSinceCheckpoint = 0;
+            if (sidecar == null) {
+                return;
+            }
+            raf.getChannel().force(false);
+            Path tmp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                byte[] bitmap = received.toByteArray();
+                dos.writeInt(SIDECAR_MAGIC);
+                dos.writeLong(fileSize);
+                dos.writeUTF(outputPath.toString());
+                dos.writeInt(bitmap.length);
+                dos.write(bitmap);
+            }
+            Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Lista para verificar: llegaron todos los bytes y, si el emisor manda trailer, también el trailer
+         */
+        boolean readyToFinalize() {
+            return transferred.get() >= fileSize && checksum != null && !checksum.isEmpty();
+        }
+
+        void hash(int chunkNumber, long offset, byte[] data, int dataOffset, int length) throws IOException {
+            if (streamDigest != null) {
+                if (offset == nextOffset) {
+                    streamDigest.update(data, dataOffset, length);
+                    nextOffset += length;
+                    return;
+                }
+                if (offset < nextOffset) {
+                    return; // Chunk repetido, ya está en el digest
+                }
+                switchToTreeHash();
+            }
+            if (chunkNumber >= 0 && chunkNumber < chunkHashes.length) {
+                MessageDigest digest = newSha256();
+                digest.update(data, dataOffset, length);
+                chunkHashes[chunkNumber] = digest.digest();
+            }
+        }
+
+        /**
+         * Primer chunk desordenado: se pasa a hashes por chunk, releyendo del disco solo
+         * los chunks ya recibidos (con el digest incremental, un prefijo)
+         */
+        private void switchToTreeHash() throws IOException {
+            streamDigest = null;
+            chunkHashes = new byte[chunkCount][];
+            byte[] buffer = new byte[CHUNK_SIZE];
+            for (int i = received.nextSetBit(0); i >= 0 && i < chunkCount; i = received.nextSetBit(i + 1)) {
+                int length = chunkLength(i);
+                raf.seek((long) i * CHUNK_SIZE);
+                raf.readFully(buffer, 0, length);
+                MessageDigest digest = newSha256();
+                digest.update(buffer, 0, length);
+                chunkHashes[i] = digest.digest();
+            }
+        }
+
+        byte[] treeHash() {
+            MessageDigest tree = newSha256();
+            for (byte[] chunkHash : chunkHashes) {
+                if (chunkHash != null) {
+                    tree.update(chunkHash);
+                }
+            }
+            return tree.digest();
+        }
+    }
+
+    /**
+     * Ventana de envío de un archivo. El receptor otorga créditos acumulados (cuántos chunks
+     * puede enviar el emisor en este intento) y además el emisor limita lo que tiene en vuelo
+     * al doble del producto ancho de banda × RTT mínimo medido, con arranque lento.
+     */
+    private static final class SendWindow {
+        private static final int MIN_WINDOW = 4;
+        private static final int MAX_WINDOW = 1024;
+
+        private final long[] sentAt = new long[MAX_WINDOW]; // Hora de envío, por número de secuencia
+        private int sent;
+        private int acked;
+        private int granted;
+        private int window = MIN_WINDOW;
+        private long minRttNanos = Long.MAX_VALUE;
+        private double bytesPerNano;
+        private long lastAckNanos;
+
+        /**
+         * Espera a tener crédito del receptor y lugar en la ventana para un chunk más
+         */
+        synchronized void awaitCredit(long timeoutMillis) throws IOException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (sent >= granted || sent - acked >= window) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new IOException("El receptor no otorgó créditos en " + timeoutMillis + " ms");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrumpido esperando créditos", e);
+                }
+            }
+            sentAt[sent % MAX_WINDOW] = System.nanoTime();
+            sent++;
+        }
+
+        synchronized void onCredit(int received, int grantedTotal) {
+            long now = System.nanoTime();
+            if (received > acked && received <= sent) {
+                minRttNanos = Math.min(minRttNanos, now - sentAt[(received - 1) % MAX_WINDOW]);
+                if (lastAckNanos != 0) {
+                    double rate = (double) (received - acked) * CHUNK_SIZE / Math.max(1, now - lastAckNanos);
+                    bytesPerNano = bytesPerNano == 0 ? rate : bytesPerNano * 0.8 + rate * 0.2;
+                }
+                lastAckNanos = now;
+                acked = received;
+                if (bytesPerNano == 0) {
+                    window = Math.min(MAX_WINDOW, window * 2);
+                } else {
+                    int bdp = (int) Math.ceil(bytesPerNano * minRttNanos * 2 / CHUNK_SIZE);
+                    window = Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, bdp));
+                }
+            }
+            granted = Math.max(granted, grantedTotal);
+            notifyAll();
+        }
+
+        synchronized int getWindow() {
+            return window;
+        }
+
+        synchronized double getMinRttMillis() {
+            return minRttNanos == Long.MAX_VALUE ? 0 : minRttNanos / 1_000_000.0;
+        }
+    }
+
+    /**
+     * Avance de un archivo que el servidor reenvía; se persiste cada PROGRESS_PERSIST_BYTES
+     */
+    private static class RelayTransfer {
+        final Transferencia row;
+        final String resumeKey;
+        long bytes;
+        long persisted;
+
+        RelayTransfer(Transferencia row, String resumeKey) {
+            this.row = row;
+            this.resumeKey = resumeKey;
+        }
+
+        boolean add(int length) {
+            bytes += length;
+            if (bytes - persisted >= PROGRESS_PERSIST_BYTES) {
+                persisted = bytes;
+                return true;
+            }
+            return false;
+        }
+
+        void reset(long confirmed) {
+            bytes = confirmed;
+            persisted = confirmed;
+        }
+    }
+
+    /**
+     * El receptor necesita el SHA-256 en la metadata (no entiende el trailer)
+     */
+    private static class ChecksumRequiredException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ChecksumRequiredException() {
+            super("El receptor requiere el checksum en la metadata");
+        }
+    }
+
+    /**
+     * Hashes de un archivo ya enviado; treeHash es null si solo se conoce el SHA-256
+     */
+    private static class KnownDigest {
+        final String fileHash;
+        final String treeHash;
+
+        KnownDigest(String fileHash, String treeHash) {
+            this.fileHash = fileHash;
+            this.treeHash = treeHash;
+        }
+    }
+
+    /**
+     * Servidor: metadata retenida hasta que el emisor responda el desafío
+     */
+    private static class PendingProof {
+        final FileRouteFrame metadata;
+        final String fileName;
+        final long fileSize;
+        final String checksum;
+        final int transferId;
+        final String resumeKey;
+        final byte[] nonce;
+        final int[] chunks;
+        final long createdMillis = System.currentTimeMillis();
+
+        PendingProof(FileRouteFrame metadata, String fileName, long fileSize, String checksum, int transferId,
+                     String resumeKey, byte[] nonce, int[] chunks) {
+            this.metadata = metadata;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.checksum = checksum;
+            this.transferId = transferId;
+            this.resumeKey = resumeKey;
+            this.nonce = nonce;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * Servidor: archivo que se está guardando en el almacén mientras se reenvía
+     */
+    private static class PendingBlob {
+        final BlobStore.Ingest ingest;
+        final String checksum; // de la metadata; vacío hasta el trailer
+
+        PendingBlob(BlobStore.Ingest ingest, String checksum) {
+            this.ingest = ingest;
+            this.checksum = checksum;
+        }
+    }
+
+    private static class ResumeState {
+        final String resumeKey;
+        final int transferId;
+        final int chunkCount;
+        final BitSet received;
+
+        private ResumeState(String resumeKey, int transferId, int chunkCount, BitSet received) {
+            this.resumeKey = resumeKey;
+            this.transferId = transferId;
+            this.chunkCount = chunkCount;
+            this.received = received;
+        }
+
+        static ResumeState parse(byte[] payload) throws IOException {
+            try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload))) {
+                String resumeKey = dis.readUTF();
+                int transferId = dis.readInt();
+                int chunkCount = dis.readInt();
+                byte[] bitmap = new byte[dis.readInt()];
+                dis.readFully(bitmap);
+                return new ResumeState(resumeKey, transferId, chunkCount, BitSet.valueOf(bitmap));
+            }
         }
     }
 
@@ -1,5 +1,8 @@
 package com.whatsapp.service;
 
+import com.whatsapp.database.DatabaseConfig;
+import com.whatsapp.database.DatabaseManager;
+import com.whatsapp.database.WriteBehindBuffer;
 import com.whatsapp.model.Log;
 import com.whatsapp.repository.LogRepository;
 import org.slf4j.Logger;
@@ -7,14 +10,58 @@ import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Logs de la aplicación: siempre a slf4j y, en el servidor, a la tabla Log. La inserción
+ * es diferida: log() solo encola y un hilo de fondo escribe por lotes, así los caminos
+ * de red no esperan a MySQL. Con el buffer lleno se descartan primero DEBUG/INFO;
+ * ERROR nunca se descarta (espera lugar).
+ */
 public class LogService {
     private static final Logger logger = LoggerFactory.getLogger(LogService.class);
+    private static final long SHUTDOWN_FLUSH_MILLIS = 5000;
+    private static final long DROP_WARN_INTERVAL_MILLIS = 10_000;
     private final LogRepository logRepository;
+    private final WriteBehindBuffer<Log> buffer;
+    private final OverflowPolicy overflowPolicy;
+    // Lugar reservado para WARN/ERROR: DEBUG/INFO no entran por debajo de esta cantidad libre
+    private final int lowPriorityReserve;
+    private final AtomicLong lastDropWarning = new AtomicLong();
+    private final LongAdder reserveDrops = new LongAdder();
     private static LogService instance;
 
+    public enum OverflowPolicy {
+        // DEBUG/INFO se descartan al quedar poco lugar, WARN al llenarse; ERROR espera
+        DROP_LOW,
+        // Todos los niveles esperan lugar
+        BLOCK;
+
+        static OverflowPolicy fromString(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException | NullPointerException e) {
+                return DROP_LOW;
+            }
+        }
+    }
+
     private LogService() {
-        this.logRepository = ServerRuntime.isServerProcess() ? new LogRepository() : null;
+        if (ServerRuntime.isServerProcess()) {
+            DatabaseConfig config = DatabaseManager.getInstance().getConfig();
+            this.logRepository = new LogRepository();
+            this.overflowPolicy = OverflowPolicy.fromString(config.getLogOverflow());
+            this.buffer = WriteBehindBuffer.start("log", config.getLogBufferCapacity(),
+                config.getLogBatchSize(), config.getLogFlushIntervalMillis(), logRepository::saveAll);
+            this.lowPriorityReserve = config.getLogBufferCapacity() / 10;
+            Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "log-shutdown-flush"));
+        } else {
+            this.logRepository = null;
+            this.overflowPolicy = OverflowPolicy.DROP_LOW;
+            this.buffer = null;
+            this.lowPriorityReserve = 0;
+        }
     }
 
     public static synchronized LogService getInstance() {
@@ -29,11 +76,10 @@ public class LogService {
     }
 
     public void log(Log.NivelLog nivel, String mensaje, String modulo, String traceId, Long userId) {
-        Log log = new Log(nivel, mensaje, modulo, traceId, userId);
-        if (logRepository != null) {
-        logRepository.save(log);
+        if (buffer != null) {
+            enqueue(new Log(nivel, mensaje, modulo, traceId, userId));
         }
-        
+
         // También loggear a slf4j
         switch (nivel) {
             case DEBUG -> logger.debug("[{}] {}: {}", modulo, traceId, mensaje);
@@ -43,6 +89,52 @@ public class LogService {
         }
     }
 
+    private void enqueue(Log log) {
+        boolean mustWait = log.getNivel() == Log.NivelLog.ERROR || overflowPolicy == OverflowPolicy.BLOCK;
+        if (mustWait) {
+            try {
+                buffer.put(log);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        boolean lowPriority = log.getNivel() == Log.NivelLog.DEBUG || log.getNivel() == Log.NivelLog.INFO;
+        if (lowPriority && buffer.remainingCapacity() <= lowPriorityReserve) {
+            reserveDrops.increment();
+            warnDropped();
+        } else if (!buffer.offer(log)) {
+            warnDropped();
+        }
+    }
+
+    private void warnDropped() {
+        long now = System.currentTimeMillis();
+        long last = lastDropWarning.get();
+        if (now - last >= DROP_WARN_INTERVAL_MILLIS && lastDropWarning.compareAndSet(last, now)) {
+            logger.warn("Buffer de logs lleno: {} logs descartados en total", getDroppedCount());
+        }
+    }
+
+    /**
+     * Espera a que se escriban los logs encolados hasta ahora
+     */
+    public void flush() {
+        if (buffer != null) {
+            buffer.flush(SHUTDOWN_FLUSH_MILLIS);
+        }
+    }
+
+    public long getDroppedCount() {
+        return buffer == null ? 0 : buffer.getDropped() + reserveDrops.sum();
+    }
+
+    public void shutdown() {
+        if (buffer != null) {
+            buffer.close(SHUTDOWN_FLUSH_MILLIS);
+        }
+    }
+
     public void logInfo(String mensaje, String modulo, String traceId, Long userId) {
         log(Log.NivelLog.INFO, mensaje, modulo, traceId, userId);
     }
@@ -56,10 +148,12 @@ public class LogService {
     }
 
     public List<Log> getLogsByTraceId(String traceId) {
+        flush();
         return logRepository == null ? java.util.Collections.emptyList() : logRepository.findByTraceId(traceId);
     }
 
     public List<Log> getAllLogs() {
+        flush();
         return logRepository == null ? java.util.Collections.emptyList() : logRepository.findAll();
     }
 }
@@ -0,0 +1,132 @@
+package com.whatsapp.service;
+
+import com.whatsapp.network.buffer.PooledFrame;
+import com.whatsapp.network.observer.DeliveryMode;
+import com.whatsapp.network.observer.EventAggregator;
+import com.whatsapp.network.observer.NetworkEvent;
+import com.whatsapp.protocol.MessageHeader;
+import com.whatsapp.protocol.MessageHeaderView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tabla de despacho de frames recibidos indexada por tipo de mensaje. Los manejadores se
+ * registran una sola vez y son de larga vida; cada frame se enruta en O(1) y se cuentan
+ * frames y tiempo de manejo por tipo.
+ * Patrón: Singleton
+ */
+public class MessageDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(MessageDispatcher.class);
+    private static final int TYPES = 256;
+    private static MessageDispatcher instance;
+
+    // Copia al escribir: los hilos lectores leen la tabla publicada sin lock
+    private volatile MessageHandler[] handlers = new MessageHandler[TYPES];
+    private final LongAdder[] handledFrames = new LongAdder[TYPES];
+    private final LongAdder[] handlerNanos = new LongAdder[TYPES];
+    private volatile MessageHandler fallback;
+    // El despacho corre en el hilo lector de cada conexión: una vista de header por hilo
+    private final ThreadLocal<MessageHeaderView> headerView = ThreadLocal.withInitial(MessageHeaderView::new);
+    private final ScheduledExecutorService statsLogger;
+
+    private MessageDispatcher() {
+        for (int i = 0; i < TYPES; i++) {
+            handledFrames[i] = new LongAdder();
+            handlerNanos[i] = new LongAdder();
+        }
+        // Síncrono: el frame del pool solo es válido mientras dura la publicación
+        EventAggregator.getInstance().subscribe(this::onFrame,
+            EnumSet.of(NetworkEvent.EventType.FRAME_RECEIVED), DeliveryMode.SYNC);
+        this.statsLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dispatch-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        statsLogger.scheduleAtFixedRate(this::logStats, 60, 60, TimeUnit.SECONDS);
+    }
+
+    public static synchronized MessageDispatcher getInstance() {
+        if (instance == null) {
+            instance = new MessageDispatcher();
+        }
+        return instance;
+    }
+
+    /**
+     * Registra el manejador de un tipo si todavía no hay uno. Devuelve false si ya existía.
+     */
+    public synchronized boolean registerIfAbsent(byte type, MessageHandler handler) {
+        if (handlers[type & 0xFF] != null) {
+            return false;
+        }
+        MessageHandler[] updated = handlers.clone();
+        updated[type & 0xFF] = handler;
+        handlers = updated;
+        return true;
+    }
+
+    /**
+     * Manejador para los tipos sin registro
+     */
+    public synchronized void setFallbackIfAbsent(MessageHandler handler) {
+        if (fallback == null) {
+            fallback = handler;
+        }
+    }
+
+    private void onFrame(NetworkEvent event) {
+        if (!(event.getData() instanceof PooledFrame frame)) {
+            return;
+        }
+        ByteBuffer data = frame.buffer();
+        if (data.remaining() < MessageHeader.HEADER_SIZE) {
+            return;
+        }
+        MessageHeaderView header = headerView.get().wrap(data, data.position());
+        int type = header.getTipo() & 0xFF;
+        MessageHandler handler = handlers[type];
+        if (handler == null) {
+            handler = fallback;
+            if (handler == null) {
+                logger.debug("Frame de tipo {} sin manejador desde {}", type, event.getSource());
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            handler.handle(header, data, event.getSource());
+        } catch (Exception e) {
+            logger.warn("Error procesando mensaje entrante", e);
+        } finally {
+            handlerNanos[type].add(System.nanoTime() - start);
+            handledFrames[type].increment();
+        }
+    }
+
+    public long getHandledFrames(byte type) {
+        return handledFrames[type & 0xFF].sum();
+    }
+
+    public long getHandlerNanos(byte type) {
+        return handlerNanos[type & 0xFF].sum();
+    }
+
+    private void logStats() {
+        for (int type = 0; type < TYPES; type++) {
+            long frames = handledFrames[type].sum();
+            if (frames == 0) {
+                continue;
+            }
+            long nanos = handlerNanos[type].sum();
+            logger.info(String.format("Despacho tipo %d: %d frames, %.1f ms en total (%.1f us/frame)",
+                type, frames, nanos / 1_000_000.0, nanos / 1_000.0 / frames));
+        }
+    }
+}
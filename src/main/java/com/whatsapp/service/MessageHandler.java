@@ -0,0 +1,13 @@
+package com.whatsapp.service;
+
+import com.whatsapp.protocol.MessageHeaderView;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Manejador de un tipo de mensaje. header y data solo son válidos durante la llamada.
+ */
+@FunctionalInterface
+public interface MessageHandler {
+    void handle(MessageHeaderView header, ByteBuffer data, String source);
+}
@@ -2,6 +2,7 @@ package com.whatsapp.service;
 
 import com.whatsapp.network.*;
 import com.whatsapp.network.observer.*;
+import com.whatsapp.protocol.MessageHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,66 +21,31 @@ public class NetworkFacade implements NetworkEventObserver {
     private final AudioStreamService audioStreamService;
     private final EventAggregator eventAggregator;
     private final LogService logService;
-    private final NetworkEventObserver incomingObserver;
 
     public NetworkFacade() {
         this.connectionManager = ConnectionManager.getInstance();
-        this.chatService = new ChatService();
-        this.fileTransferService = new FileTransferService();
-        this.videoStreamService = new VideoStreamService();
-        this.audioStreamService = new AudioStreamService();
+        this.chatService = ChatService.getInstance();
+        this.fileTransferService = FileTransferService.getInstance();
+        this.videoStreamService = VideoStreamService.getInstance();
+        this.audioStreamService = AudioStreamService.getInstance();
         this.eventAggregator = EventAggregator.getInstance();
         this.logService = LogService.getInstance();
         
-        // Suscribirse a eventos de red
-        eventAggregator.subscribe(this);
-
-        // Configurar listener para mensajes recibidos
-        this.incomingObserver = event -> {
-            if (event.getType() != NetworkEvent.EventType.MESSAGE_RECEIVED) {
-                return;
-            }
-
-            if (!(event.getData() instanceof byte[])) {
-                return;
-            }
-
-            byte[] data = (byte[]) event.getData();
-            if (data.length < com.whatsapp.protocol.MessageHeader.HEADER_SIZE) {
-                return;
-            }
-
-            try {
-                byte[] headerBytes = new byte[com.whatsapp.protocol.MessageHeader.HEADER_SIZE];
-                System.arraycopy(data, 0, headerBytes, 0, headerBytes.length);
-                com.whatsapp.protocol.MessageHeader header =
-                    com.whatsapp.protocol.MessageHeader.fromBytes(headerBytes);
-
-                switch (header.getTipo()) {
-                    case com.whatsapp.protocol.MessageHeader.MessageType.CONTROL:
-                        logger.info("NetworkFacade detectó mensaje de CONTROL, procesando...");
-                        ControlService controlService = new ControlService();
-                        controlService.handleControlMessage(data, event.getSource());
-                        break;
-                    case com.whatsapp.protocol.MessageHeader.MessageType.ARCHIVO:
-                        fileTransferService.handleIncomingPacket(data, event.getSource());
-                        break;
-                    case com.whatsapp.protocol.MessageHeader.MessageType.VIDEO:
-                        videoStreamService.handleIncomingPacket(data, event.getSource());
-                        break;
-                    case com.whatsapp.protocol.MessageHeader.MessageType.AUDIO:
-                        audioStreamService.handleIncomingPacket(data, event.getSource());
-                        break;
-                    case com.whatsapp.protocol.MessageHeader.MessageType.CHAT:
-                    default:
-                        chatService.handleReceivedMessage(data, event.getSource());
-                        break;
-                }
-            } catch (Exception e) {
-                logger.warn("Error procesando mensaje entrante", e);
-            }
-        };
-        eventAggregator.subscribe(incomingObserver);
+        // Suscribirse a eventos de conexión
+        eventAggregator.subscribe(this, java.util.EnumSet.of(
+            NetworkEvent.EventType.CONNECTED,
+            NetworkEvent.EventType.DISCONNECTED,
+            NetworkEvent.EventType.ERROR), DeliveryMode.SYNC);
+
+        // Tabla de despacho: los servicios son únicos por proceso, así que cualquier facade
+        // (la del login, la del registro, la de la sesión) envía y recibe con las mismas instancias
+        MessageDispatcher dispatcher = MessageDispatcher.getInstance();
+        dispatcher.registerIfAbsent(MessageHeader.MessageType.CONTROL, ControlService.getInstance()::handleControlMessage);
+        dispatcher.registerIfAbsent(MessageHeader.MessageType.ARCHIVO, fileTransferService::handleIncomingPacket);
+        dispatcher.registerIfAbsent(MessageHeader.MessageType.VIDEO, videoStreamService::handleIncomingPacket);
+        dispatcher.registerIfAbsent(MessageHeader.MessageType.AUDIO, audioStreamService::handleIncomingPacket);
+        dispatcher.registerIfAbsent(MessageHeader.MessageType.CHAT, chatService::handleReceivedMessage);
+        dispatcher.setFallbackIfAbsent(chatService::handleReceivedMessage);
     }
 
     // Métodos de conexión
@@ -90,7 +56,9 @@ public class NetworkFacade implements NetworkEventObserver {
     }
 
     public void connectToServer(String host, int port) throws IOException {
-        connectionManager.connectToServer(host, port);
+        java.net.Socket socket = connectionManager.connectToServer(host, port);
+        // Anunciar capacidades; un servidor viejo ignora el HELLO y seguimos con LEGACY
+        ControlService.getInstance().sendHello(socket.getRemoteSocketAddress().toString());
         logService.logInfo("Conectado a servidor vía NetworkFacade", "NetworkFacade", 
                           logService.generateTraceId(), null);
     }
@@ -165,7 +133,6 @@ public class NetworkFacade implements NetworkEventObserver {
 
     public void shutdown() {
         eventAggregator.unsubscribe(this);
-        eventAggregator.unsubscribe(incomingObserver);
     }
 }
 
@@ -0,0 +1,236 @@
+package com.whatsapp.service;
+
+import com.whatsapp.network.ConnectionManager;
+import com.whatsapp.network.observer.EventAggregator;
+import com.whatsapp.network.observer.NetworkEvent;
+import com.whatsapp.protocol.ControlCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Presencia versionada de usuarios. En el servidor es la fuente de verdad: cada alta,
+ * baja o cambio de alias sube la versión y queda como delta pendiente; los deltas de
+ * una ventana corta salen juntos en un único frame. En el cliente guarda la copia
+ * local y detecta saltos de versión para pedir un snapshot nuevo.
+ * Patrón: Singleton
+ */
+public class PresenceService {
+    private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+    private static PresenceService instance;
+
+    public static final byte OP_ADD = 0;
+    public static final byte OP_REMOVE = 1;
+    public static final byte OP_RENAME = 2;
+
+    private final ConnectionManager connectionManager;
+    private final EventAggregator eventAggregator;
+    private final long coalesceMillis;
+    private final ScheduledExecutorService flusher;
+    private ControlService controlService;
+
+    // Servidor: usuarios visibles (con alias) y deltas aún no enviados
+    private final Map<String, String> users = new LinkedHashMap<>();
+    private final List<Delta> pending = new ArrayList<>();
+    private long version;
+    private long pendingFromVersion;
+    private boolean flushScheduled;
+
+    // Cliente: versión de la copia local (-1 hasta recibir el primer snapshot)
+    private long mirrorVersion = -1;
+    private boolean syncRequested;
+
+    private PresenceService() {
+        this.connectionManager = ConnectionManager.getInstance();
+        this.eventAggregator = EventAggregator.getInstance();
+        this.coalesceMillis = connectionManager.getNetworkConfig().getPresenceCoalesceMillis();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "presence-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized PresenceService getInstance() {
+        if (instance == null) {
+            instance = new PresenceService();
+        }
+        return instance;
+    }
+
+    /**
+     * Registra (o renombra) un usuario visible. Ignora alias vacíos o iguales al ID.
+     */
+    public synchronized void userOnline(String connectionId, String alias) {
+        if (connectionId == null || alias == null || alias.isBlank() || alias.equals(connectionId)) {
+            return;
+        }
+        String previous = users.put(connectionId, alias);
+        if (previous == null) {
+            record(new Delta(OP_ADD, connectionId, alias));
+        } else if (!previous.equals(alias)) {
+            record(new Delta(OP_RENAME, connectionId, alias));
+        }
+    }
+
+    public synchronized void userOffline(String connectionId) {
+        if (connectionId != null && users.remove(connectionId) != null) {
+            record(new Delta(OP_REMOVE, connectionId, ""));
+        }
+    }
+
+    private void record(Delta delta) {
+        if (pending.isEmpty()) {
+            pendingFromVersion = version;
+        }
+        version++;
+        pending.add(delta);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            flusher.schedule(this::flush, coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Envía los deltas acumulados en un solo frame: versión base, versión final y operaciones.
+     * Se hace bajo el lock para que ningún snapshot quede intercalado fuera de orden.
+     */
+    void flush() {
+        Set<ControlService.UserDescriptor> serverSnapshot;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            ControlCodec.Writer writer = ControlCodec.writer()
+                .writeLong(pendingFromVersion)
+                .writeLong(version)
+                .writeVarint(pending.size());
+            for (Delta delta : pending) {
+                writer.writeByte(delta.op)
+                    .writeString(delta.connectionId)
+                    .writeString(delta.alias);
+            }
+            logger.debug("Presencia v{} -> v{} ({} cambios)", pendingFromVersion, version, pending.size());
+            pending.clear();
+            controlService().multicastControlMessage(
+                new ArrayList<>(connectionManager.getConnectedClients()),
+                ControlService.CONTROL_PRESENCE_DELTA, writer.toByteArray());
+            serverSnapshot = descriptors();
+        }
+        // La vista del servidor trabaja con la lista completa
+        eventAggregator.publish(new NetworkEvent(
+            NetworkEvent.EventType.CONNECTED,
+            serverSnapshot,
+            "SERVER_UI"
+        ));
+    }
+
+    /**
+     * Envía el snapshot actual (versión + usuarios) a un cliente
+     */
+    public synchronized void sendSnapshot(String connectionId) throws IOException {
+        ControlCodec.Writer writer = ControlCodec.writer()
+            .writeLong(version)
+            .writeVarint(users.size());
+        for (Map.Entry<String, String> entry : users.entrySet()) {
+            writer.writeString(entry.getKey()).writeString(entry.getValue());
+        }
+        controlService().sendControlMessage(connectionId, ControlService.CONTROL_USER_LIST, writer.toByteArray());
+    }
+
+    private Set<ControlService.UserDescriptor> descriptors() {
+        Set<ControlService.UserDescriptor> descriptors = new LinkedHashSet<>();
+        for (Map.Entry<String, String> entry : users.entrySet()) {
+            descriptors.add(new ControlService.UserDescriptor(entry.getKey(), entry.getValue()));
+        }
+        return descriptors;
+    }
+
+    /**
+     * Cliente: lee un snapshot y reinicia la versión local
+     */
+    public synchronized Set<ControlService.UserDescriptor> readSnapshot(ControlCodec.Reader reader) throws IOException {
+        long snapshotVersion = reader.readLong();
+        int count = reader.readVarint();
+        Set<ControlService.UserDescriptor> snapshot = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            String connectionId = reader.readString();
+            String alias = reader.readString();
+            if (!connectionId.isBlank() && !alias.isBlank()) {
+                snapshot.add(new ControlService.UserDescriptor(connectionId, alias));
+            }
+        }
+        mirrorVersion = snapshotVersion;
+        syncRequested = false;
+        return snapshot;
+    }
+
+    /**
+     * Cliente: aplica un frame de deltas y devuelve las operaciones nuevas. Devuelve null
+     * si falta una versión intermedia y hay que pedir un snapshot al servidor.
+     */
+    public synchronized List<Delta> applyDelta(ControlCodec.Reader reader) throws IOException {
+        long fromVersion = reader.readLong();
+        long toVersion = reader.readLong();
+        int count = reader.readVarint();
+        if (mirrorVersion < 0 || toVersion <= mirrorVersion) {
+            // Sin snapshot todavía, o deltas ya incluidos en el snapshot recibido
+            return List.of();
+        }
+        if (fromVersion > mirrorVersion) {
+            logger.info("Salto de versión de presencia (local v{}, delta desde v{})", mirrorVersion, fromVersion);
+            if (syncRequested) {
+                return List.of();
+            }
+            syncRequested = true;
+            return null;
+        }
+        List<Delta> applied = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Delta delta = new Delta(reader.readByte(), reader.readString(), reader.readString());
+            // Cada operación corresponde a fromVersion + 1 + i
+            if (fromVersion + 1 + i > mirrorVersion) {
+                applied.add(delta);
+            }
+        }
+        mirrorVersion = toVersion;
+        return applied;
+    }
+
+    private ControlService controlService() {
+        if (controlService == null) {
+            controlService = ControlService.getInstance();
+        }
+        return controlService;
+    }
+
+    public static class Delta {
+        private final byte op;
+        private final String connectionId;
+        private final String alias;
+
+        public Delta(byte op, String connectionId, String alias) {
+            this.op = op;
+            this.connectionId = connectionId;
+            this.alias = alias;
+        }
+
+        public byte getOp() {
+            return op;
+        }
+
+        public String getConnectionId() {
+            return connectionId;
+        }
+
+        public String getAlias() {
+            return alias;
+        }
+    }
+}
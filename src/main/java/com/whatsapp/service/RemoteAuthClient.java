@@ -1,73 +1,69 @@
 package com.whatsapp.service;
 
-import com.whatsapp.network.observer.EventAggregator;
-import com.whatsapp.network.observer.NetworkEvent;
-import com.whatsapp.network.observer.NetworkEventObserver;
-
 import java.io.IOException;
+import java.util.Set;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Cliente auxiliar que encapsula las solicitudes de autenticación/registro al servidor central.
+ * Cada solicitud va por RpcClient con su propio correlId, así que pueden convivir varias.
  */
-public class RemoteAuthClient implements NetworkEventObserver, AutoCloseable {
-    private final EventAggregator eventAggregator;
+public class RemoteAuthClient implements AutoCloseable {
     private final ControlService controlService;
-    private final AtomicReference<CompletableFuture<ControlService.OperationResultPayload>> pendingAuth;
-    private final AtomicReference<CompletableFuture<ControlService.OperationResultPayload>> pendingRegister;
+    private final Set<CompletableFuture<?>> inFlight;
 
     public RemoteAuthClient() {
-        this.eventAggregator = EventAggregator.getInstance();
-        this.controlService = new ControlService();
-        this.pendingAuth = new AtomicReference<>();
-        this.pendingRegister = new AtomicReference<>();
-        eventAggregator.subscribe(this);
+        this.controlService = ControlService.getInstance();
+        this.inFlight = ConcurrentHashMap.newKeySet();
     }
 
     public ControlService.OperationResultPayload authenticate(String serverConnectionId, String username, String password)
         throws IOException, TimeoutException, InterruptedException {
-        CompletableFuture<ControlService.OperationResultPayload> future = new CompletableFuture<>();
-        pendingAuth.set(future);
-        controlService.sendAuthRequest(serverConnectionId, username, password);
-        try {
-            return future.get(10, TimeUnit.SECONDS);
-        } catch (java.util.concurrent.ExecutionException e) {
-            throw new IOException("Error interno autenticando", e);
-        }
+        return await(controlService.authenticate(serverConnectionId, username, password), "Error interno autenticando");
+    }
+
+    /**
+     * Reconexión con el token de sesión de un login anterior; el servidor no recalcula BCrypt
+     */
+    public ControlService.OperationResultPayload resume(String serverConnectionId, String sessionToken)
+        throws IOException, TimeoutException, InterruptedException {
+        return await(controlService.resumeSession(serverConnectionId, sessionToken), "Error interno autenticando");
     }
 
     public ControlService.OperationResultPayload register(String serverConnectionId, String username, String password, String email)
         throws IOException, TimeoutException, InterruptedException {
-        CompletableFuture<ControlService.OperationResultPayload> future = new CompletableFuture<>();
-        pendingRegister.set(future);
-        controlService.sendRegisterRequest(serverConnectionId, username, password, email);
-        try {
-            return future.get(10, TimeUnit.SECONDS);
-        } catch (java.util.concurrent.ExecutionException e) {
-            throw new IOException("Error interno registrando", e);
-        }
+        return await(controlService.register(serverConnectionId, username, password, email), "Error interno registrando");
     }
 
-    @Override
-    public void onNetworkEvent(NetworkEvent event) {
-        if (event.getType() == NetworkEvent.EventType.AUTH_RESULT) {
-            CompletableFuture<ControlService.OperationResultPayload> future = pendingAuth.getAndSet(null);
-            if (future != null && event.getData() instanceof ControlService.OperationResultPayload payload) {
-                future.complete(payload);
+    private <T> T await(CompletableFuture<T> future, String errorMessage)
+        throws IOException, TimeoutException, InterruptedException {
+        inFlight.add(future);
+        try {
+            // El vencimiento lo marca RpcClient (rpc.timeoutMs)
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException timeout) {
+                throw timeout;
             }
-        } else if (event.getType() == NetworkEvent.EventType.REGISTER_RESULT) {
-            CompletableFuture<ControlService.OperationResultPayload> future = pendingRegister.getAndSet(null);
-            if (future != null && event.getData() instanceof ControlService.OperationResultPayload payload) {
-                future.complete(payload);
+            if (e.getCause() instanceof IOException io) {
+                throw io;
             }
+            throw new IOException(errorMessage, e.getCause());
+        } catch (CancellationException e) {
+            throw new IOException(errorMessage, e);
+        } finally {
+            inFlight.remove(future);
         }
     }
 
+    /**
+     * Cancela las solicitudes que sigan esperando respuesta
+     */
     @Override
     public void close() {
-        eventAggregator.unsubscribe(this);
+        for (CompletableFuture<?> future : inFlight) {
+            future.cancel(false);
+        }
+        inFlight.clear();
     }
 }
-
-
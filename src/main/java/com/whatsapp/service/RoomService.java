@@ -11,21 +11,34 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Servicio para gestionar rooms/grupos en el sistema.
+ * El estado de los rooms del servidor (pendientes y activos) vive en memoria y es la
+ * fuente de verdad: las lecturas no tocan la base y los cambios se persisten en segundo
+ * plano, en orden por room.
  * Patrón: Singleton
  */
 public class RoomService {
     private static final Logger logger = LoggerFactory.getLogger(RoomService.class);
+    private static final int WRITER_STRIPES = 4;
+    private static final long FLUSH_TIMEOUT_MILLIS = 5000;
     private static RoomService instance;
     private final RoomRepository roomRepository;
     private final ConnectionManager connectionManager;
     private final EventAggregator eventAggregator;
     private final UserAliasRegistry aliasRegistry;
     private final LogService logService;
-    private final Map<Long, Room> activeRoomsCache; // Cache de rooms activos en memoria
-    private final Map<Long, String> requestMessages; // Mensajes adjuntos por los clientes
+    private final Map<Long, Room> rooms; // Rooms pendientes y activos del servidor
+    // Un hilo por franja: las escrituras de un mismo room nunca se reordenan
+    private final ExecutorService[] writers;
     private String serverUsername;
     private String traceId;
 
@@ -35,9 +48,18 @@ public class RoomService {
         this.eventAggregator = EventAggregator.getInstance();
         this.aliasRegistry = UserAliasRegistry.getInstance();
         this.logService = LogService.getInstance();
-        this.activeRoomsCache = new ConcurrentHashMap<>();
-        this.requestMessages = new ConcurrentHashMap<>();
+        this.rooms = new ConcurrentHashMap<>();
+        this.writers = new ExecutorService[WRITER_STRIPES];
+        for (int i = 0; i < WRITER_STRIPES; i++) {
+            String name = "room-writer-" + i;
+            writers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
         this.traceId = logService.generateTraceId();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "room-writer-shutdown-flush"));
     }
 
     public static synchronized RoomService getInstance() {
@@ -49,7 +71,8 @@ public class RoomService {
 
     public void setServerUsername(String serverUsername) {
         this.serverUsername = serverUsername;
-        // Limpiar rooms anteriores y cache
+        // Los rooms no sobreviven al reinicio (sus miembros son IDs de conexión): se arranca
+        // vacío y desde aquí el mapa en memoria es la única fuente de lectura
         clearAllRoomsForServer();
     }
 
@@ -66,8 +89,9 @@ public class RoomService {
             return;
         }
         System.out.println("[RoomService] Limpiando rooms del servidor: " + serverUsername);
-        activeRoomsCache.clear();
-        requestMessages.clear();
+        // Que ninguna escritura pendiente reviva un room después del borrado
+        flush();
+        rooms.clear();
         roomRepository.deleteAllByServerUsername(serverUsername);
         System.out.println("[RoomService] Rooms limpiados correctamente");
     }
@@ -111,11 +135,8 @@ public class RoomService {
             throw e;
         }
         
-        activeRoomsCache.put(room.getId(), room);
-        if (requestMessage != null && !requestMessage.isBlank()) {
-            requestMessages.put(room.getId(), requestMessage);
-        }
-        System.out.println("[RoomService] Room agregado a cache");
+        track(room);
+        System.out.println("[RoomService] Room agregado a memoria");
         
         logService.logInfo("Solicitud de room creada: " + roomName, "RoomService", traceId, null);
         return room;
@@ -125,28 +146,25 @@ public class RoomService {
      * Aprueba un room pendiente
      */
     public boolean approveRoom(Long roomId) {
-        Optional<Room> roomOpt = roomRepository.findById(roomId);
-        if (roomOpt.isEmpty()) {
+        Room room = rooms.get(roomId);
+        if (room == null) {
             return false;
         }
 
-        Room room = roomOpt.get();
-        if (room.getEstado() != Room.EstadoRoom.PENDIENTE) {
-            return false;
-        }
+        synchronized (room) {
+            if (room.getEstado() != Room.EstadoRoom.PENDIENTE) {
+                return false;
+            }
+            room.setEstado(Room.EstadoRoom.ACTIVO);
 
-        room.setEstado(Room.EstadoRoom.ACTIVO);
-        
-        // Si el cliente quería incluir al servidor, agregarlo automáticamente
-        if (room.isIncludeServer() && serverUsername != null) {
-            String serverMemberId = "SERVER_" + serverUsername;
-            room.addMember(serverMemberId);
-            System.out.println("[RoomService] Servidor agregado automáticamente al room: " + serverMemberId);
+            // Si el cliente quería incluir al servidor, agregarlo automáticamente
+            if (room.isIncludeServer() && serverUsername != null) {
+                String serverMemberId = "SERVER_" + serverUsername;
+                room.addMember(serverMemberId);
+                System.out.println("[RoomService] Servidor agregado automáticamente al room: " + serverMemberId);
+            }
+            persistUpdate(room);
         }
-        
-        roomRepository.update(room);
-        activeRoomsCache.put(room.getId(), room);
-        requestMessages.remove(roomId);
 
         // Notificar a todos los miembros del room
         notifyRoomApproved(room);
@@ -159,21 +177,20 @@ public class RoomService {
      * Rechaza un room pendiente
      */
     public boolean rejectRoom(Long roomId) {
-        Optional<Room> roomOpt = roomRepository.findById(roomId);
-        if (roomOpt.isEmpty()) {
+        Room room = rooms.get(roomId);
+        if (room == null) {
             return false;
         }
 
-        Room room = roomOpt.get();
-        if (room.getEstado() != Room.EstadoRoom.PENDIENTE) {
-            return false;
+        synchronized (room) {
+            if (room.getEstado() != Room.EstadoRoom.PENDIENTE) {
+                return false;
+            }
+            room.setEstado(Room.EstadoRoom.RECHAZADO);
+            rooms.remove(roomId);
+            persistUpdate(room);
         }
 
-        room.setEstado(Room.EstadoRoom.RECHAZADO);
-        roomRepository.update(room);
-        activeRoomsCache.remove(room.getId());
-        requestMessages.remove(roomId);
-
         // Notificar al creador
         notifyRoomRejected(room);
         
@@ -185,16 +202,16 @@ public class RoomService {
      * Cierra un room activo
      */
     public boolean closeRoom(Long roomId) {
-        Optional<Room> roomOpt = roomRepository.findById(roomId);
-        if (roomOpt.isEmpty()) {
+        Room room = rooms.get(roomId);
+        if (room == null) {
             return false;
         }
 
-        Room room = roomOpt.get();
-        room.setEstado(Room.EstadoRoom.CERRADO);
-        roomRepository.update(room);
-        activeRoomsCache.remove(room.getId());
-        requestMessages.remove(roomId);
+        synchronized (room) {
+            room.setEstado(Room.EstadoRoom.CERRADO);
+            rooms.remove(roomId);
+            persistUpdate(room);
+        }
 
         // Notificar a todos los miembros
         notifyRoomClosed(room);
@@ -207,24 +224,24 @@ public class RoomService {
      * Agrega un miembro a un room activo
      */
     public boolean addMemberToRoom(Long roomId, String connectionId) {
-        Optional<Room> roomOpt = roomRepository.findById(roomId);
-        if (roomOpt.isEmpty()) {
+        Room room = rooms.get(roomId);
+        if (room == null) {
             return false;
         }
 
-        Room room = roomOpt.get();
-        if (room.getEstado() != Room.EstadoRoom.ACTIVO) {
-            return false;
-        }
+        synchronized (room) {
+            if (room.getEstado() != Room.EstadoRoom.ACTIVO) {
+                return false;
+            }
 
-        // Si ya es miembro, evitar duplicar eventos
-        if (room.hasMember(connectionId)) {
-            return true;
-        }
+            // Si ya es miembro, evitar duplicar eventos
+            if (room.hasMember(connectionId)) {
+                return true;
+            }
 
-        room.addMember(connectionId);
-        roomRepository.addMember(roomId, connectionId);
-        activeRoomsCache.put(room.getId(), room);
+            room.addMember(connectionId);
+            persist(roomId, () -> roomRepository.addMember(roomId, connectionId));
+        }
 
         // Notificar al nuevo miembro
         notifyMemberAdded(room, connectionId);
@@ -236,15 +253,15 @@ public class RoomService {
      * Elimina un miembro de un room
      */
     public boolean removeMemberFromRoom(Long roomId, String connectionId) {
-        Optional<Room> roomOpt = roomRepository.findById(roomId);
-        if (roomOpt.isEmpty()) {
+        Room room = rooms.get(roomId);
+        if (room == null) {
             return false;
         }
 
-        Room room = roomOpt.get();
-        room.removeMember(connectionId);
-        roomRepository.removeMember(roomId, connectionId);
-        activeRoomsCache.put(room.getId(), room);
+        synchronized (room) {
+            room.removeMember(connectionId);
+            persist(roomId, () -> roomRepository.removeMember(roomId, connectionId));
+        }
 
         // Notificar al miembro eliminado
         notifyMemberRemoved(room, connectionId);
@@ -256,49 +273,37 @@ public class RoomService {
      * Obtiene todos los rooms activos del servidor
      */
     public List<Room> getActiveRooms() {
-        if (serverUsername == null) {
-            return Collections.emptyList();
-        }
-        List<Room> rooms = roomRepository.findActiveRooms(serverUsername);
-        rooms.forEach(this::hydrateRequestMessage);
-        return rooms;
+        return roomsWithEstado(Room.EstadoRoom.ACTIVO);
     }
 
     /**
      * Obtiene todos los rooms pendientes
      */
     public List<Room> getPendingRooms() {
-        System.out.println("[RoomService] getPendingRooms llamado");
-        System.out.println("[RoomService] serverUsername: " + serverUsername);
-        
+        List<Room> pending = roomsWithEstado(Room.EstadoRoom.PENDIENTE);
+        System.out.println("[RoomService] Rooms PENDIENTES: " + pending.size());
+        return pending;
+    }
+
+    private List<Room> roomsWithEstado(Room.EstadoRoom estado) {
         if (serverUsername == null) {
-            System.out.println("[RoomService] serverUsername es null, retornando lista vacía");
             return Collections.emptyList();
         }
-        
-        List<Room> allRooms = roomRepository.findByServerUsername(serverUsername);
-        System.out.println("[RoomService] Rooms encontrados para servidor '" + serverUsername + "': " + allRooms.size());
-        
-        List<Room> pending = allRooms.stream()
-                .filter(r -> r.getEstado() == Room.EstadoRoom.PENDIENTE)
-                .toList();
-        pending.forEach(this::hydrateRequestMessage);
-        System.out.println("[RoomService] Rooms PENDIENTES: " + pending.size());
-        
-        return pending;
+        List<Room> result = new ArrayList<>();
+        for (Room room : rooms.values()) {
+            if (room.getEstado() == estado) {
+                result.add(room);
+            }
+        }
+        result.sort(Comparator.comparing(Room::getId));
+        return result;
     }
 
     /**
-     * Obtiene un room por ID
+     * Obtiene un room por ID (solo pendientes y activos; los demás ya no existen)
      */
     public Optional<Room> getRoom(Long roomId) {
-        Room cached = activeRoomsCache.get(roomId);
-        if (cached != null) {
-            return Optional.of(cached);
-        }
-        Optional<Room> roomOpt = roomRepository.findById(roomId);
-        roomOpt.ifPresent(this::hydrateRequestMessage);
-        return roomOpt;
+        return Optional.ofNullable(rooms.get(roomId));
     }
 
     /**
@@ -306,7 +311,7 @@ public class RoomService {
      */
     public List<Room> getRoomsForUser(String connectionId) {
         List<Room> userRooms = new ArrayList<>();
-        for (Room room : activeRoomsCache.values()) {
+        for (Room room : rooms.values()) {
             if (room.hasMember(connectionId) && room.getEstado() == Room.EstadoRoom.ACTIVO) {
                 userRooms.add(room);
             }
@@ -341,24 +346,72 @@ public class RoomService {
         }
     }
 
-    private void refreshActiveRoomsCache() {
-        activeRoomsCache.clear();
-        if (serverUsername != null) {
-            List<Room> activeRooms = roomRepository.findActiveRooms(serverUsername);
-            for (Room room : activeRooms) {
-                hydrateRequestMessage(room);
-                activeRoomsCache.put(room.getId(), room);
-            }
+    /**
+     * Pone el room en memoria con un conjunto de miembros seguro para lectores concurrentes
+     */
+    private void track(Room room) {
+        Set<String> members = ConcurrentHashMap.newKeySet();
+        members.addAll(room.getMembers());
+        room.setMembers(members);
+        rooms.put(room.getId(), room);
+    }
+
+    /**
+     * Persiste el estado y los miembros actuales; se copia ahora para que el hilo
+     * escritor no vea cambios posteriores fuera de orden
+     */
+    private void persistUpdate(Room room) {
+        Room snapshot = new Room(room.getName(), room.getCreatorConnectionId(), room.getCreatorUsername(),
+            room.getServerUsername());
+        snapshot.setId(room.getId());
+        snapshot.setEstado(room.getEstado());
+        snapshot.setFechaCreacion(room.getFechaCreacion());
+        snapshot.setRequestMessage(room.getRequestMessage());
+        snapshot.setIncludeServer(room.isIncludeServer());
+        snapshot.setMembers(new HashSet<>(room.getMembers()));
+        persist(room.getId(), () -> roomRepository.update(snapshot));
+    }
+
+    private void persist(Long roomId, Runnable write) {
+        ExecutorService writer = writers[Math.floorMod(roomId.hashCode(), WRITER_STRIPES)];
+        try {
+            writer.execute(() -> {
+                try {
+                    write.run();
+                } catch (RuntimeException e) {
+                    logger.error("Error persistiendo cambios del room {}", roomId, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Escritura del room {} descartada: escritor detenido", roomId);
         }
     }
 
-    private void hydrateRequestMessage(Room room) {
-        if (room == null || room.getId() == null) {
-            return;
+    /**
+     * Espera a que se persistan los cambios encolados hasta ahora
+     */
+    public void flush() {
+        List<Future<?>> barriers = new ArrayList<>(WRITER_STRIPES);
+        for (ExecutorService writer : writers) {
+            try {
+                barriers.add(writer.submit(() -> { }));
+            } catch (RejectedExecutionException e) {
+                // Escritor ya detenido: no hay nada que esperar
+            }
         }
-        String message = requestMessages.get(room.getId());
-        if (message != null && (room.getRequestMessage() == null || room.getRequestMessage().isBlank())) {
-            room.setRequestMessage(message);
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        for (Future<?> barrier : barriers) {
+            try {
+                barrier.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                logger.warn("Persistencia de rooms sin terminar tras {} ms", FLUSH_TIMEOUT_MILLIS);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // La barrera no falla
+            }
         }
     }
 
@@ -0,0 +1,116 @@
+package com.whatsapp.service;
+
+import com.whatsapp.network.ConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Solicitudes CONTROL con respuesta: cada solicitud lleva un correlId propio y el servidor
+ * lo devuelve en la respuesta, así que pueden ir varias en vuelo por la misma conexión.
+ * Los correlId de solicitud tienen el bit alto encendido para no confundirse con los
+ * mensajes que el servidor envía por iniciativa propia.
+ * Patrón: Singleton
+ */
+public class RpcClient {
+    private static final Logger logger = LoggerFactory.getLogger(RpcClient.class);
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+    private static RpcClient instance;
+
+    private final Map<Integer, Pending<?>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger idGenerator = new AtomicInteger();
+    private final TimerWheel timeouts;
+    private final long defaultTimeoutMillis;
+
+    private RpcClient() {
+        this.timeouts = new TimerWheel("rpc-timeouts", TICK_MILLIS, WHEEL_SIZE);
+        this.defaultTimeoutMillis = ConnectionManager.getInstance().getNetworkConfig().getRpcTimeoutMillis();
+    }
+
+    public static synchronized RpcClient getInstance() {
+        if (instance == null) {
+            instance = new RpcClient();
+        }
+        return instance;
+    }
+
+    /**
+     * Indica si el correlId corresponde a una respuesta de solicitud (bit alto encendido)
+     */
+    public static boolean isReply(int correlId) {
+        return correlId < 0;
+    }
+
+    public <T> CompletableFuture<T> call(String connectionId, byte controlType, byte[] payload, Class<T> responseType) {
+        return call(connectionId, controlType, payload, responseType, defaultTimeoutMillis);
+    }
+
+    public <T> CompletableFuture<T> call(String connectionId, byte controlType, byte[] payload,
+                                         Class<T> responseType, long timeoutMillis) {
+        int correlId = Integer.MIN_VALUE | (idGenerator.incrementAndGet() & Integer.MAX_VALUE);
+        Pending<T> request = new Pending<>(responseType);
+        pending.put(correlId, request);
+        request.timeout = timeouts.schedule(() -> {
+            if (pending.remove(correlId, request)) {
+                request.future.completeExceptionally(new TimeoutException(
+                    "Sin respuesta a la solicitud de control " + controlType + " en " + timeoutMillis + " ms"));
+            }
+        }, timeoutMillis);
+        try {
+            ControlService.getInstance().sendControlMessage(connectionId, controlType, payload, correlId);
+        } catch (IOException e) {
+            pending.remove(correlId, request);
+            request.timeout.cancel();
+            request.future.completeExceptionally(e);
+        }
+        return request.future;
+    }
+
+    /**
+     * Entrega una respuesta a su solicitud. Devuelve false si nadie la esperaba
+     * (ya venció o el tipo no coincide) para que el llamador la publique como evento.
+     */
+    public boolean complete(int correlId, Object response) {
+        if (!isReply(correlId)) {
+            return false;
+        }
+        Pending<?> request = pending.get(correlId);
+        if (request == null || !request.responseType.isInstance(response)) {
+            if (request == null) {
+                logger.debug("Respuesta {} sin solicitud pendiente (¿venció?)", correlId);
+            }
+            return false;
+        }
+        if (!pending.remove(correlId, request)) {
+            return false;
+        }
+        request.timeout.cancel();
+        request.completeWith(response);
+        return true;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private static final class Pending<T> {
+        private final Class<T> responseType;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private volatile TimerWheel.Timeout timeout;
+
+        private Pending(Class<T> responseType) {
+            this.responseType = responseType;
+        }
+
+        private void completeWith(Object response) {
+            future.complete(responseType.cast(response));
+        }
+    }
+}
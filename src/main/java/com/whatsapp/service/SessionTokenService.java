@@ -0,0 +1,211 @@
+package com.whatsapp.service;
+
+import com.whatsapp.model.Usuario;
+import com.whatsapp.network.ConnectionManager;
+import com.whatsapp.network.NetworkConfig;
+import com.whatsapp.repository.UsuarioRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tokens de sesión firmados con HMAC-SHA256 para reconectar sin volver a pasar por BCrypt.
+ * El token lleva userId, vencimiento y un sello del estado del usuario (hash de contraseña y
+ * estado); si cualquiera de los dos cambia en UsuarioRepository el token deja de valer.
+ * Formato (Base64 URL): versión(1) | userId(8) | vence(8, epoch s) | sello(8) | HMAC(32)
+ * Patrón: Singleton
+ */
+public class SessionTokenService {
+    private static final Logger logger = LoggerFactory.getLogger(SessionTokenService.class);
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte TOKEN_VERSION = 1;
+    private static final int BODY_LENGTH = 1 + 8 + 8 + 8;
+    private static final int MAC_LENGTH = 32;
+    private static SessionTokenService instance;
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    private final ThreadLocal<Mac> macs;
+    private final UsuarioRepository usuarioRepository;
+    // Usuarios ya validados contra la base: el camino habitual no toca MySQL
+    private final Map<Long, CachedUser> users = new ConcurrentHashMap<>();
+
+    private SessionTokenService() {
+        NetworkConfig config = ConnectionManager.getInstance().getNetworkConfig();
+        this.key = new SecretKeySpec(loadSecret(config.getSessionSecret()), ALGORITHM);
+        this.ttlSeconds = config.getSessionTtlMinutes() * 60L;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        this.usuarioRepository = new UsuarioRepository();
+        UsuarioRepository.addChangeListener(this::revoke);
+    }
+
+    public static synchronized SessionTokenService getInstance() {
+        if (instance == null) {
+            instance = new SessionTokenService();
+        }
+        return instance;
+    }
+
+    public String issue(Usuario usuario) {
+        long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+        long stamp = stamp(usuario);
+        ByteBuffer token = ByteBuffer.allocate(BODY_LENGTH + MAC_LENGTH);
+        token.put(TOKEN_VERSION)
+            .putLong(usuario.getId())
+            .putLong(expiresAt)
+            .putLong(stamp);
+        Mac mac = macs.get();
+        mac.update(token.array(), 0, BODY_LENGTH);
+        token.put(mac.doFinal());
+        users.put(usuario.getId(), new CachedUser(usuario, stamp));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+    }
+
+    /**
+     * Verifica firma y vencimiento (solo CPU). Devuelve null si el token no es válido.
+     */
+    public Claims parse(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        byte[] raw;
+        try {
+            raw = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (raw.length != BODY_LENGTH + MAC_LENGTH || raw[0] != TOKEN_VERSION) {
+            return null;
+        }
+        Mac mac = macs.get();
+        mac.update(raw, 0, BODY_LENGTH);
+        byte[] expected = mac.doFinal();
+        byte[] actual = java.util.Arrays.copyOfRange(raw, BODY_LENGTH, raw.length);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            logger.warn("Token de sesión con firma inválida");
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.wrap(raw, 1, BODY_LENGTH - 1);
+        Claims claims = new Claims(body.getLong(), body.getLong(), body.getLong());
+        if (claims.expiresAt <= System.currentTimeMillis() / 1000) {
+            return null;
+        }
+        return claims;
+    }
+
+    /**
+     * Usuario del token si ya está en memoria; null si hay que ir a la base (ver {@link #load}).
+     */
+    public Usuario cached(Claims claims) {
+        CachedUser cached = users.get(claims.userId);
+        if (cached == null) {
+            return null;
+        }
+        return cached.stamp == claims.stamp ? cached.usuario : null;
+    }
+
+    /**
+     * Carga el usuario desde la base y comprueba que su estado no cambió desde que se emitió el token
+     */
+    public Optional<Usuario> load(Claims claims) {
+        Optional<Usuario> usuarioOpt = usuarioRepository.findById(claims.userId);
+        if (usuarioOpt.isEmpty()) {
+            return Optional.empty();
+        }
+        Usuario usuario = usuarioOpt.get();
+        long current = stamp(usuario);
+        users.put(usuario.getId(), new CachedUser(usuario, current));
+        if (current != claims.stamp || usuario.getEstado() != Usuario.EstadoUsuario.ACTIVO) {
+            return Optional.empty();
+        }
+        return usuarioOpt;
+    }
+
+    /**
+     * Olvida el estado en memoria del usuario: el próximo token se revalida contra la base
+     */
+    public void revoke(long userId) {
+        if (users.remove(userId) != null) {
+            logger.info("Sesiones del usuario {} revalidadas por cambio de estado", userId);
+        }
+    }
+
+    /**
+     * Sello del estado del usuario: cambia si cambia la contraseña o el estado
+     */
+    private long stamp(Usuario usuario) {
+        Mac mac = macs.get();
+        mac.update(String.valueOf(usuario.getPasswordHash()).getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(String.valueOf(usuario.getEstado()).getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(mac.doFinal()).getLong();
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 no disponible", e);
+        }
+    }
+
+    private static byte[] loadSecret(String configured) {
+        if (configured != null && !configured.isEmpty()) {
+            try {
+                byte[] secret = Base64.getDecoder().decode(configured);
+                if (secret.length >= 16) {
+                    return secret;
+                }
+                logger.warn("session.secret demasiado corta, se genera una clave temporal");
+            } catch (IllegalArgumentException e) {
+                logger.warn("session.secret no es Base64 válido, se genera una clave temporal");
+            }
+        }
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+
+    public static class Claims {
+        private final long userId;
+        private final long expiresAt;
+        private final long stamp;
+
+        private Claims(long userId, long expiresAt, long stamp) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+            this.stamp = stamp;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+    private static class CachedUser {
+        private final Usuario usuario;
+        private final long stamp;
+
+        private CachedUser(Usuario usuario, long stamp) {
+            this.usuario = usuario;
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.whatsapp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rueda de temporizadores: cada ranura agrupa los vencimientos de un tick y un único hilo
+ * recorre una ranura por tick. Programar y cancelar son O(1), lo que sirve para miles de
+ * timeouts que casi nunca vencen (la respuesta llega antes).
+ */
+public final class TimerWheel {
+    private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+    private final long tickMillis;
+    private final ConcurrentLinkedQueue<Timeout>[] slots;
+    private final long startNanos;
+    private volatile long currentTick;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(String threadName, long tickMillis, int wheelSize) {
+        this.tickMillis = tickMillis;
+        this.slots = new ConcurrentLinkedQueue[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.startNanos = System.nanoTime();
+        Thread worker = new Thread(this::run, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Ejecuta la tarea en el hilo de la rueda pasado el retardo (redondeado al tick siguiente)
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        // +1: la ranura del tick en curso puede estar recorriéndose ahora mismo
+        Timeout timeout = new Timeout(task, currentTick + ticks + 1);
+        slots[(int) (timeout.deadlineTick % slots.length)].add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            long wakeNanos = startNanos + (tick + 1) * tickMillis * 1_000_000L;
+            long sleepMillis = (wakeNanos - System.nanoTime()) / 1_000_000L;
+            if (sleepMillis > 0) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            tick++;
+            currentTick = tick;
+            expire(slots[(int) (tick % slots.length)], tick);
+        }
+    }
+
+    private void expire(ConcurrentLinkedQueue<Timeout> slot, long tick) {
+        Iterator<Timeout> iterator = slot.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.cancelled.get()) {
+                iterator.remove();
+            } else if (timeout.deadlineTick <= tick) {
+                iterator.remove();
+                if (timeout.cancelled.compareAndSet(false, true)) {
+                    try {
+                        timeout.task.run();
+                    } catch (Exception e) {
+                        logger.warn("Error en tarea del temporizador", e);
+                    }
+                }
+            }
+        }
+    }
+
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * @return false si la tarea ya se ejecutó o ya estaba cancelada
+         */
+        public boolean cancel() {
+            return cancelled.compareAndSet(false, true);
+        }
+    }
+}
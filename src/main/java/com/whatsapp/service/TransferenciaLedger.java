@@ -0,0 +1,78 @@
+package com.whatsapp.service;
+
+import com.whatsapp.database.DatabaseConfig;
+import com.whatsapp.database.DatabaseManager;
+import com.whatsapp.database.WriteBehindBuffer;
+import com.whatsapp.model.Transferencia;
+import com.whatsapp.repository.TransferenciaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registro solo-anexar de transferencias TEXTO: un registro por mensaje de chat, que nunca
+ * se actualiza, así que se insertan por lotes sin pedir el ID generado. Compartido por
+ * todas las instancias de ChatService para que los lotes se llenen.
+ * Patrón: Singleton
+ */
+public class TransferenciaLedger {
+    private static final Logger logger = LoggerFactory.getLogger(TransferenciaLedger.class);
+    private static final long SHUTDOWN_FLUSH_MILLIS = 5000;
+    private static final long DROP_WARN_INTERVAL_MILLIS = 10_000;
+    private static TransferenciaLedger instance;
+
+    private final WriteBehindBuffer<Transferencia> buffer;
+    private final long maxBlockMillis;
+    private final AtomicLong lastDropWarning = new AtomicLong();
+
+    private TransferenciaLedger() {
+        DatabaseConfig config = DatabaseManager.getInstance().getConfig();
+        TransferenciaRepository repository = new TransferenciaRepository();
+        this.maxBlockMillis = config.getTransferMaxBlockMillis();
+        this.buffer = WriteBehindBuffer.start("transferencia", config.getTransferBufferCapacity(),
+            config.getTransferBatchSize(), config.getTransferFlushIntervalMillis(), repository::saveAll);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "transferencia-shutdown-flush"));
+    }
+
+    public static synchronized TransferenciaLedger getInstance() {
+        if (instance == null) {
+            instance = new TransferenciaLedger();
+        }
+        return instance;
+    }
+
+    /**
+     * Encola el registro; con el buffer lleno espera como máximo db.transfer.maxBlockMs
+     * y, si MySQL sigue sin dar abasto, lo descarta en lugar de frenar el chat.
+     */
+    public void record(Transferencia transferencia) {
+        if (!buffer.offer(transferencia, maxBlockMillis)) {
+            long now = System.currentTimeMillis();
+            long last = lastDropWarning.get();
+            if (now - last >= DROP_WARN_INTERVAL_MILLIS && lastDropWarning.compareAndSet(last, now)) {
+                logger.warn("Buffer de transferencias lleno: {} registros descartados en total", buffer.getDropped());
+            }
+        }
+    }
+
+    public void flush() {
+        buffer.flush(SHUTDOWN_FLUSH_MILLIS);
+    }
+
+    public void shutdown() {
+        buffer.close(SHUTDOWN_FLUSH_MILLIS);
+    }
+
+    public double getAverageRowsPerBatch() {
+        return buffer.getAverageBatchSize();
+    }
+
+    public double getAverageFlushMillis() {
+        return buffer.getAverageFlushMillis();
+    }
+
+    public long getDroppedCount() {
+        return buffer.getDropped();
+    }
+}
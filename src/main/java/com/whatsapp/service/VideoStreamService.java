@@ -4,7 +4,9 @@ import com.github.sarxos.webcam.Webcam;
 import com.whatsapp.network.ConnectionManager;
 import com.whatsapp.network.observer.EventAggregator;
 import com.whatsapp.network.observer.NetworkEvent;
+import com.whatsapp.protocol.ChecksumNegotiation;
 import com.whatsapp.protocol.MessageHeader;
+import com.whatsapp.protocol.MessageHeaderView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,12 +14,19 @@ import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Captura, envío y recepción de video. Una sola instancia por proceso: es la que
+ * recibe los frames VIDEO del MessageDispatcher.
+ * Patrón: Singleton
+ */
 public class VideoStreamService {
     private static final Logger logger = LoggerFactory.getLogger(VideoStreamService.class);
+    private static VideoStreamService instance;
     private final ConnectionManager connectionManager;
     private final EventAggregator eventAggregator;
     private final LogService logService;
@@ -33,7 +42,7 @@ public class VideoStreamService {
     private static final int FRAME_HEIGHT = 240;
     private Webcam webcam;
 
-    public VideoStreamService() {
+    private VideoStreamService() {
         this.connectionManager = ConnectionManager.getInstance();
         this.eventAggregator = EventAggregator.getInstance();
         this.logService = LogService.getInstance();
@@ -42,6 +51,13 @@ public class VideoStreamService {
         this.traceId = logService.generateTraceId();
     }
 
+    public static synchronized VideoStreamService getInstance() {
+        if (instance == null) {
+            instance = new VideoStreamService();
+        }
+        return instance;
+    }
+
     public void startStreaming(String serverConnectionId, String targetConnectionId) {
         if (isStreaming.get()) {
             throw new IllegalStateException("Ya se está transmitiendo video");
@@ -68,35 +84,22 @@ public class VideoStreamService {
             }
 
             byte[] routedPayload = wrapPayload(DIRECTION_CLIENT_TO_SERVER, currentTargetConnectionId, frameData);
-            MessageHeader header = new MessageHeader(
-                MessageHeader.MessageType.VIDEO,
-                routedPayload.length,
-                frameId,
-                calculateChecksum(routedPayload)
-            );
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            baos.write(header.toBytes());
-            baos.write(routedPayload);
-            connectionManager.send(currentServerConnectionId, baos.toByteArray());
+            byte[] message = MessageHeaderView.frame(MessageHeader.MessageType.VIDEO, frameId,
+                ChecksumNegotiation.getInstance().compute(currentServerConnectionId, routedPayload), routedPayload);
+            connectionManager.send(currentServerConnectionId, message);
         } catch (IOException e) {
             logger.error("Error enviando frame de video", e);
         }
     }
 
-    public void handleIncomingPacket(byte[] data, String source) {
+    public void handleIncomingPacket(MessageHeaderView header, ByteBuffer data, String source) {
         try {
-            byte[] headerBytes = new byte[MessageHeader.HEADER_SIZE];
-            System.arraycopy(data, 0, headerBytes, 0, headerBytes.length);
-            MessageHeader header = MessageHeader.fromBytes(headerBytes);
             if (header.getTipo() != MessageHeader.MessageType.VIDEO) {
                 return;
             }
 
-            byte[] payload = new byte[header.getLongitud()];
-            System.arraycopy(data, MessageHeader.HEADER_SIZE, payload, 0, payload.length);
-
-            VideoFrame frame = parseFrame(payload);
+            VideoFrame frame = parseFrame(data.array(),
+                data.arrayOffset() + header.payloadOffset(), header.getLongitud());
             if (frame == null) {
                 return;
             }
@@ -118,17 +121,9 @@ public class VideoStreamService {
     private void forwardFrame(VideoFrame frame, String originalSender, int correlId) {
         try {
             byte[] routedPayload = wrapPayload(DIRECTION_SERVER_TO_CLIENT, originalSender, frame.payload);
-            MessageHeader header = new MessageHeader(
-                MessageHeader.MessageType.VIDEO,
-                routedPayload.length,
-                correlId,
-                calculateChecksum(routedPayload)
-            );
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            baos.write(header.toBytes());
-            baos.write(routedPayload);
-            connectionManager.send(frame.peerId, baos.toByteArray());
+            byte[] message = MessageHeaderView.frame(MessageHeader.MessageType.VIDEO, correlId,
+                ChecksumNegotiation.getInstance().compute(frame.peerId, routedPayload), routedPayload);
+            connectionManager.send(frame.peerId, message);
         } catch (IOException e) {
             logger.error("Error reenviando frame de video", e);
         }
@@ -207,8 +202,8 @@ public class VideoStreamService {
         return baos.toByteArray();
     }
 
-    private VideoFrame parseFrame(byte[] payload) throws IOException {
-        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload))) {
+    private VideoFrame parseFrame(byte[] buffer, int offset, int payloadLength) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buffer, offset, payloadLength))) {
             byte direction = dis.readByte();
             String peerId = dis.readUTF();
             int length = dis.readInt();
@@ -218,14 +213,6 @@ public class VideoStreamService {
         }
     }
 
-    private int calculateChecksum(byte[] data) {
-        int checksum = 0;
-        for (byte b : data) {
-            checksum = (checksum << 1) ^ b;
-        }
-        return checksum;
-    }
-
     private static class VideoFrame {
         final byte direction;
         final String peerId;
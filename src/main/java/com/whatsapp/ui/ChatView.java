@@ -5,6 +5,7 @@ import com.whatsapp.command.SendFileCommand;
 import com.whatsapp.command.SendMessageCommand;
 import com.whatsapp.command.StartVideoCallCommand;
 import com.whatsapp.model.Usuario;
+import com.whatsapp.network.observer.DeliveryMode;
 import com.whatsapp.network.observer.EventAggregator;
 import com.whatsapp.network.observer.NetworkEvent;
 import com.whatsapp.network.observer.NetworkEventObserver;
@@ -49,7 +50,11 @@ public class ChatView extends BorderPane implements NetworkEventObserver {
         this.messagesList = new ListView<>();
         this.aliasRegistry = UserAliasRegistry.getInstance();
 
-        EventAggregator.getInstance().subscribe(this);
+        EventAggregator.getInstance().subscribe(this, java.util.EnumSet.of(
+            NetworkEvent.EventType.MESSAGE_RECEIVED,
+            NetworkEvent.EventType.FILE_PROGRESS,
+            NetworkEvent.EventType.VIDEO_FRAME,
+            NetworkEvent.EventType.DISCONNECTED), DeliveryMode.ASYNC);
         setupUI();
     }
 
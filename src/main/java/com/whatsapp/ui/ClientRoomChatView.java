@@ -10,7 +10,6 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
-import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -36,7 +35,7 @@ public class ClientRoomChatView extends BorderPane implements com.whatsapp.netwo
         this.roomId = roomId;
         this.roomName = roomName;
         this.serverConnectionId = serverConnectionId;
-        this.controlService = new ControlService();
+        this.controlService = ControlService.getInstance();
         this.eventAggregator = com.whatsapp.network.observer.EventAggregator.getInstance();
         this.aliasRegistry = UserAliasRegistry.getInstance();
         this.messagesList = new ListView<>();
@@ -46,7 +45,9 @@ public class ClientRoomChatView extends BorderPane implements com.whatsapp.netwo
         this.members = members == null ? new HashSet<>() : new HashSet<>(members);
         this.onDispose = onDispose == null ? () -> {} : onDispose;
 
-        eventAggregator.subscribe(this);
+        eventAggregator.subscribe(this,
+            java.util.EnumSet.of(com.whatsapp.network.observer.NetworkEvent.EventType.ROOM_MESSAGE),
+            com.whatsapp.network.observer.DeliveryMode.ASYNC);
         setupUI();
         refreshMembers();
     }
@@ -104,8 +105,7 @@ public class ClientRoomChatView extends BorderPane implements com.whatsapp.netwo
             return;
         }
         try {
-            String payload = encodeBase64(String.valueOf(roomId)) + "|" + encodeBase64(text);
-            controlService.sendControlMessage(serverConnectionId, ControlService.CONTROL_ROOM_MESSAGE, payload);
+            controlService.sendRoomMessage(serverConnectionId, roomId, "", text);
             appendMessage("Yo: " + text);
             messageField.clear();
         } catch (Exception e) {
@@ -128,10 +128,6 @@ public class ClientRoomChatView extends BorderPane implements com.whatsapp.netwo
         alert.showAndWait();
     }
 
-    private String encodeBase64(String value) {
-        return java.util.Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
-    }
-
     @Override
     public void onNetworkEvent(com.whatsapp.network.observer.NetworkEvent event) {
         if (event.getType() != com.whatsapp.network.observer.NetworkEvent.EventType.ROOM_MESSAGE) {
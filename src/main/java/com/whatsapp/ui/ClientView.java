@@ -2,11 +2,13 @@ package com.whatsapp.ui;
 
 import com.whatsapp.model.Room;
 import com.whatsapp.model.Usuario;
+import com.whatsapp.network.observer.DeliveryMode;
 import com.whatsapp.network.observer.EventAggregator;
 import com.whatsapp.network.observer.NetworkEvent;
 import com.whatsapp.network.observer.NetworkEventObserver;
 import com.whatsapp.service.ControlService;
 import com.whatsapp.service.NetworkFacade;
+import com.whatsapp.service.RemoteAuthClient;
 import com.whatsapp.service.UserAliasRegistry;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
@@ -17,6 +19,7 @@ import javafx.scene.text.Text;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeoutException;
 
 public class ClientView extends BorderPane implements NetworkEventObserver {
     private final NetworkFacade networkFacade;
@@ -30,18 +33,29 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
     private final Label statusLabel;
     private final Map<Long, Room> availableRooms = new LinkedHashMap<>();
     private final Map<Long, ClientRoomChatView> openRoomChats = new HashMap<>();
+    // Token de esta sesión; se descarta al desconectar a pedido del usuario
+    private String sessionToken;
 
-    public ClientView(Usuario currentUser, NetworkFacade networkFacade, String serverHost, int serverPort) {
+    public ClientView(Usuario currentUser, NetworkFacade networkFacade, String serverHost, int serverPort,
+                      String sessionToken) {
         this.currentUser = currentUser;
+        this.sessionToken = sessionToken;
         this.networkFacade = networkFacade;
-        this.controlService = new ControlService();
+        this.controlService = ControlService.getInstance();
         this.aliasRegistry = UserAliasRegistry.getInstance();
         this.usersList = new ListView<>();
         this.connectedHost = serverHost;
         this.connectedPort = serverPort;
         this.statusLabel = new Label();
 
-        EventAggregator.getInstance().subscribe(this);
+        EventAggregator.getInstance().subscribe(this, java.util.EnumSet.of(
+            NetworkEvent.EventType.CONNECTED,
+            NetworkEvent.EventType.DISCONNECTED,
+            NetworkEvent.EventType.ROOM_CREATED,
+            NetworkEvent.EventType.ROOM_LIST,
+            NetworkEvent.EventType.ROOM_APPROVED,
+            NetworkEvent.EventType.ROOM_REJECTED,
+            NetworkEvent.EventType.ROOM_MEMBER_ADDED), DeliveryMode.ASYNC);
         setupUI();
         updateStatus("Conectado a " + connectedHost + ":" + connectedPort);
         requestUserListRefresh();
@@ -62,7 +76,11 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
         disconnectButton.setStyle("-fx-background-color: #dc3545; -fx-text-fill: white;");
         disconnectButton.setOnAction(e -> disconnectFromServer());
 
-        HBox actionBox = new HBox(10, new Label("Sesión activa en: " + connectedHost + ":" + connectedPort), disconnectButton);
+        Button reconnectButton = new Button("Reconectar");
+        reconnectButton.setOnAction(e -> reconnectToServer());
+
+        HBox actionBox = new HBox(10, new Label("Sesión activa en: " + connectedHost + ":" + connectedPort),
+            reconnectButton, disconnectButton);
         actionBox.setAlignment(javafx.geometry.Pos.CENTER_LEFT);
         topPanel.getChildren().addAll(title, actionBox);
         setTop(topPanel);
@@ -148,6 +166,8 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
     }
 
     private void disconnectFromServer() {
+        // Cerrar sesión: el token ya no sirve para volver a entrar
+        sessionToken = null;
         networkFacade.disconnectClients();
 
         Platform.runLater(() -> {
@@ -173,6 +193,47 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
         chatStage.show();
     }
 
+    /**
+     * Vuelve a conectar la sesión actual tras un corte, con su token en lugar de la contraseña
+     */
+    private void reconnectToServer() {
+        if (networkFacade.isConnected()) {
+            updateStatus("Ya conectado a " + connectedHost + ":" + connectedPort);
+            return;
+        }
+        if (sessionToken == null || sessionToken.isEmpty()) {
+            updateStatus("Sesión cerrada: vuelva a iniciar sesión");
+            return;
+        }
+        try {
+            networkFacade.connectToServer(connectedHost, connectedPort);
+            String serverConnectionId = networkFacade.getPrimaryConnectionId();
+            if (serverConnectionId == null) {
+                throw new IOException("No se obtuvo conexión con el servidor");
+            }
+            try (RemoteAuthClient remoteAuthClient = new RemoteAuthClient()) {
+                ControlService.OperationResultPayload result = remoteAuthClient.resume(serverConnectionId, sessionToken);
+                if (!result.isSuccess()) {
+                    sessionToken = null;
+                    networkFacade.disconnectClients();
+                    updateStatus("Sesión expirada: vuelva a iniciar sesión");
+                    return;
+                }
+                if (!result.getSessionToken().isEmpty()) {
+                    sessionToken = result.getSessionToken();
+                }
+            }
+            updateStatus("Conectado a " + connectedHost + ":" + connectedPort);
+            requestUserListRefresh();
+            requestRoomList();
+        } catch (IOException | TimeoutException e) {
+            updateStatus("Error al reconectar: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            updateStatus("Reconexión interrumpida");
+        }
+    }
+
     private void updateStatus(String status) {
         statusLabel.setText(status);
     }
@@ -197,29 +258,31 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
     }
 
 
-    private void handleServerConnectedPayload(String data) {
-        if (data.startsWith("[") && data.endsWith("]")) {
-            try {
-                var users = ControlService.parseUserListJson(data);
-                serverUserMap.clear();
-                for (ControlService.UserDescriptor descriptor : users) {
-                    serverUserMap.put(descriptor.getConnectionId(), descriptor);
-                    aliasRegistry.registerAlias(descriptor.getConnectionId(), descriptor.getDisplayName());
-                }
-                refreshUsersList();
-                return;
-            } catch (Exception ignored) {
-                // caer a manejo como usuario individual
+    private void handleServerUserList(java.util.Collection<?> users) {
+        serverUserMap.clear();
+        for (Object obj : users) {
+            if (!(obj instanceof ControlService.UserDescriptor descriptor)) {
+                continue;
             }
+            // La lista difundida es la misma para todos: omitir la entrada propia
+            if (currentUser.getUsername().equals(descriptor.getDisplayName())) {
+                continue;
+            }
+            serverUserMap.put(descriptor.getConnectionId(), descriptor);
+            aliasRegistry.registerAlias(descriptor.getConnectionId(), descriptor.getDisplayName());
         }
+        refreshUsersList();
+    }
 
-        ControlService.UserDescriptor descriptor = ControlService.parseUserDescriptor(data);
-        if (descriptor != null) {
-            if (!descriptor.getConnectionId().equals(descriptor.getDisplayName())) {
-                serverUserMap.put(descriptor.getConnectionId(), descriptor);
-                aliasRegistry.registerAlias(descriptor.getConnectionId(), descriptor.getDisplayName());
-                refreshUsersList();
-            }
+    private void handleServerUserConnected(ControlService.UserDescriptor descriptor) {
+        // Los deltas de presencia también incluyen el alta propia
+        if (currentUser.getUsername().equals(descriptor.getDisplayName())) {
+            return;
+        }
+        if (!descriptor.getConnectionId().equals(descriptor.getDisplayName())) {
+            serverUserMap.put(descriptor.getConnectionId(), descriptor);
+            aliasRegistry.registerAlias(descriptor.getConnectionId(), descriptor.getDisplayName());
+            refreshUsersList();
         }
     }
 
@@ -312,15 +375,8 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
                 return;
             }
 
-            // Construir payload: roomName|creatorUsername|member1,member2,member3|mensaje|includeServer
-            String membersStr = String.join(",", memberConnectionIds);
-            String payload = encodeBase64(roomName) + "|" + 
-                           encodeBase64(currentUser.getUsername()) + "|" + 
-                           encodeBase64(membersStr) + "|" +
-                           encodeBase64(requestMessage == null ? "" : requestMessage) + "|" +
-                           (includeServer ? "true" : "false");
-
-            controlService.sendControlMessage(serverConnectionId, ControlService.CONTROL_ROOM_CREATE_REQUEST, payload);
+            controlService.sendRoomCreateRequest(serverConnectionId, roomName, currentUser.getUsername(),
+                memberConnectionIds, requestMessage, includeServer);
             updateStatus("Solicitud de room '" + roomName + "' enviada. Esperando aprobación...");
         } catch (IOException e) {
             showAlert("Error", "No se pudo crear el room: " + e.getMessage(), Alert.AlertType.ERROR);
@@ -328,34 +384,43 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
     }
 
     private void joinRoom(Room room) {
-        try {
-            String serverConnectionId = networkFacade.getPrimaryConnectionId();
-            if (serverConnectionId == null) {
-                showAlert("Error", "No hay conexión activa con el servidor.", Alert.AlertType.ERROR);
-                return;
-            }
-
-            String payload = encodeBase64(String.valueOf(room.getId()));
-            controlService.sendControlMessage(serverConnectionId, ControlService.CONTROL_ROOM_JOIN_REQUEST, payload);
-            updateStatus("Solicitando unirse al room '" + room.getName() + "'...");
-        } catch (IOException e) {
-            showAlert("Error", "No se pudo unir al room: " + e.getMessage(), Alert.AlertType.ERROR);
+        String serverConnectionId = networkFacade.getPrimaryConnectionId();
+        if (serverConnectionId == null) {
+            showAlert("Error", "No hay conexión activa con el servidor.", Alert.AlertType.ERROR);
+            return;
         }
+
+        controlService.joinRoom(serverConnectionId, room.getId()).whenComplete((response, error) ->
+            Platform.runLater(() -> {
+                if (error != null) {
+                    showAlert("Error", "No se pudo unir al room: " + rootMessage(error), Alert.AlertType.ERROR);
+                } else {
+                    handleJoinResponse(response);
+                }
+            }));
+        updateStatus("Solicitando unirse al room '" + room.getName() + "'...");
     }
 
     private void requestRoomList() {
-        try {
-            String serverConnectionId = networkFacade.getPrimaryConnectionId();
-            if (serverConnectionId != null) {
-                controlService.sendControlMessage(serverConnectionId, ControlService.CONTROL_ROOM_LIST, "");
-            }
-        } catch (IOException e) {
-            showAlert("Error", "No se pudo obtener la lista de rooms: " + e.getMessage(), Alert.AlertType.ERROR);
+        String serverConnectionId = networkFacade.getPrimaryConnectionId();
+        if (serverConnectionId == null) {
+            return;
         }
+        controlService.fetchRoomList(serverConnectionId).whenComplete((summaries, error) ->
+            Platform.runLater(() -> {
+                if (error != null) {
+                    showAlert("Error", "No se pudo obtener la lista de rooms: " + rootMessage(error), Alert.AlertType.ERROR);
+                } else {
+                    applyRoomList(summaries);
+                }
+            }));
     }
 
-    private String encodeBase64(String value) {
-        return java.util.Base64.getEncoder().encodeToString(value.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+    private static String rootMessage(Throwable error) {
+        Throwable cause = error instanceof java.util.concurrent.CompletionException && error.getCause() != null
+            ? error.getCause()
+            : error;
+        return cause.getMessage();
     }
 
     private void openRoomChat(Room room) {
@@ -402,8 +467,12 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
         Platform.runLater(() -> {
             switch (event.getType()) {
                 case CONNECTED:
-                    if ("SERVER".equals(event.getSource()) && event.getData() instanceof String) {
-                        handleServerConnectedPayload((String) event.getData());
+                    if ("SERVER".equals(event.getSource())) {
+                        if (event.getData() instanceof java.util.Collection<?> users) {
+                            handleServerUserList(users);
+                        } else if (event.getData() instanceof ControlService.UserDescriptor descriptor) {
+                            handleServerUserConnected(descriptor);
+                        }
                     }
                     break;
                 case DISCONNECTED:
@@ -420,11 +489,10 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
                         availableRooms.put(room.getId(), room);
                         refreshRoomsList();
                         requestRoomList();
-                    } else if (event.getData() instanceof String response) {
-                        if (response.startsWith("ERROR")) {
+                    } else if (event.getData() instanceof ControlService.RoomCreateResponse response) {
+                        if (!response.isSuccess()) {
                             // Respuesta de error del servidor
-                            var result = ControlService.OperationResultPayload.fromPayload(response);
-                            String message = result.getMessage();
+                            String message = response.getMessage();
                             showAlert("Room", message.isBlank() ? "No se pudo crear el room" : message, Alert.AlertType.ERROR);
                         }
                         requestRoomList();
@@ -432,19 +500,7 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
                     break;
                 case ROOM_LIST:
                     if (event.getData() instanceof java.util.List<?> list) {
-                        availableRooms.clear();
-                        for (Object obj : list) {
-                            if (obj instanceof ControlService.RoomSummary summary) {
-                                Room room = new Room();
-                                room.setId(summary.getId());
-                                room.setName(summary.getName());
-                                room.setCreatorUsername(summary.getCreatorUsername());
-                                room.setMembers(new java.util.HashSet<>(summary.getMembers()));
-                                availableRooms.put(room.getId(), room);
-                            }
-                        }
-                        refreshRoomsList();
-                        updateStatus("Rooms sincronizados con el servidor");
+                        applyRoomList(list);
                     }
                     break;
                 case ROOM_APPROVED:
@@ -467,16 +523,7 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
                     break;
                 case ROOM_MEMBER_ADDED:
                     if (event.getData() instanceof ControlService.RoomJoinResponse joinResponse) {
-                        if (joinResponse.isSuccess()) {
-                            updateStatus("Unido al room " + joinResponse.getRoomId());
-                            requestRoomList();
-                            Room joined = availableRooms.get(joinResponse.getRoomId());
-                            if (joined != null) {
-                                openRoomChat(joined);
-                            }
-                        } else {
-                            showAlert("Room", joinResponse.getMessage(), Alert.AlertType.WARNING);
-                        }
+                        handleJoinResponse(joinResponse);
                     }
                     break;
                 default:
@@ -485,6 +532,35 @@ public class ClientView extends BorderPane implements NetworkEventObserver {
         });
     }
 
+    private void applyRoomList(java.util.List<?> list) {
+        availableRooms.clear();
+        for (Object obj : list) {
+            if (obj instanceof ControlService.RoomSummary summary) {
+                Room room = new Room();
+                room.setId(summary.getId());
+                room.setName(summary.getName());
+                room.setCreatorUsername(summary.getCreatorUsername());
+                room.setMembers(new java.util.HashSet<>(summary.getMembers()));
+                availableRooms.put(room.getId(), room);
+            }
+        }
+        refreshRoomsList();
+        updateStatus("Rooms sincronizados con el servidor");
+    }
+
+    private void handleJoinResponse(ControlService.RoomJoinResponse joinResponse) {
+        if (joinResponse.isSuccess()) {
+            updateStatus("Unido al room " + joinResponse.getRoomId());
+            requestRoomList();
+            Room joined = availableRooms.get(joinResponse.getRoomId());
+            if (joined != null) {
+                openRoomChat(joined);
+            }
+        } else {
+            showAlert("Room", joinResponse.getMessage(), Alert.AlertType.WARNING);
+        }
+    }
+
     private void refreshRoomsList() {
         roomsList.getItems().setAll(availableRooms.values());
     }
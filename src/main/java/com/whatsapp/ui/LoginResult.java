@@ -14,13 +14,20 @@ public class LoginResult {
     private final NetworkFacade networkFacade;
     private final String serverHost;
     private final int serverPort;
+    private final String sessionToken;
 
     public LoginResult(Mode mode, Usuario usuario, NetworkFacade networkFacade, String serverHost, int serverPort) {
+        this(mode, usuario, networkFacade, serverHost, serverPort, null);
+    }
+
+    public LoginResult(Mode mode, Usuario usuario, NetworkFacade networkFacade, String serverHost, int serverPort,
+                       String sessionToken) {
         this.mode = mode;
         this.usuario = usuario;
         this.networkFacade = networkFacade;
         this.serverHost = serverHost;
         this.serverPort = serverPort;
+        this.sessionToken = sessionToken;
     }
 
     public Mode getMode() {
@@ -42,6 +49,13 @@ public class LoginResult {
     public int getServerPort() {
         return serverPort;
     }
+
+    /**
+     * Token para reconectar esta sesión sin contraseña; null o vacío si no hay
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
 }
 
 
@@ -170,13 +170,17 @@ public class LoginView {
                 throw new IOException("No se obtuvo conexión con el servidor");
             }
 
+            // El formulario siempre verifica la contraseña; el token de sesión solo lo usa
+            // ClientView para reconectar la sesión ya autenticada
             try (RemoteAuthClient remoteAuthClient = new RemoteAuthClient()) {
-                ControlService.OperationResultPayload result = remoteAuthClient.authenticate(serverConnectionId, username, password);
+                ControlService.OperationResultPayload result =
+                    remoteAuthClient.authenticate(serverConnectionId, username, password);
                 if (result.isSuccess()) {
                     currentUser = buildUsuarioFromPayload(result);
                     statusLabel.setText("Login exitoso (modo cliente)");
                     statusLabel.setStyle("-fx-text-fill: green;");
-                    notifyLoginSuccess(new LoginResult(LoginResult.Mode.CLIENT, currentUser, remoteNetworkFacade, host, port));
+                    notifyLoginSuccess(new LoginResult(LoginResult.Mode.CLIENT, currentUser, remoteNetworkFacade, host, port,
+                        result.getSessionToken()));
                 } else {
                     statusLabel.setText(result.getMessage());
                     statusLabel.setStyle("-fx-text-fill: red;");
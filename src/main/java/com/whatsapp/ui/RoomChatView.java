@@ -2,6 +2,7 @@ package com.whatsapp.ui;
 
 import com.whatsapp.model.Room;
 import com.whatsapp.model.Usuario;
+import com.whatsapp.network.observer.DeliveryMode;
 import com.whatsapp.network.observer.EventAggregator;
 import com.whatsapp.network.observer.NetworkEvent;
 import com.whatsapp.network.observer.NetworkEventObserver;
@@ -21,7 +22,6 @@ import javafx.scene.layout.*;
 import javafx.stage.*;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 
@@ -57,12 +57,18 @@ public class RoomChatView extends BorderPane implements NetworkEventObserver {
         this.membersList = new ListView<>();
         this.aliasRegistry = UserAliasRegistry.getInstance();
         this.isServerMode = isServerMode;
-        this.controlService = new ControlService();
+        this.controlService = ControlService.getInstance();
 
         // Cargar miembros del room
         loadRoomMembers();
 
-        EventAggregator.getInstance().subscribe(this);
+        EventAggregator.getInstance().subscribe(this, java.util.EnumSet.of(
+            NetworkEvent.EventType.MESSAGE_RECEIVED,
+            NetworkEvent.EventType.FILE_PROGRESS,
+            NetworkEvent.EventType.VIDEO_FRAME,
+            NetworkEvent.EventType.ROOM_MEMBER_ADDED,
+            NetworkEvent.EventType.ROOM_MEMBER_REMOVED,
+            NetworkEvent.EventType.ROOM_MESSAGE), DeliveryMode.ASYNC);
         setupUI();
     }
 
@@ -181,8 +187,6 @@ public class RoomChatView extends BorderPane implements NetworkEventObserver {
         }
 
         try {
-            String encodedMessage = Base64.getEncoder().encodeToString(message.getBytes(StandardCharsets.UTF_8));
-            String roomIdEncoded = Base64.getEncoder().encodeToString(String.valueOf(room.getId()).getBytes(StandardCharsets.UTF_8));
             String senderId;
             if (isServerMode) {
                 senderId = ensureServerSenderAlias();
@@ -190,11 +194,9 @@ public class RoomChatView extends BorderPane implements NetworkEventObserver {
                 senderId = currentUser.getUsername();
                 aliasRegistry.registerAlias(senderId, currentUser.getUsername());
             }
-            String payload = roomIdEncoded + "|" + Base64.getEncoder().encodeToString(senderId.getBytes(StandardCharsets.UTF_8)) + "|" + encodedMessage;
+            byte[] payload = ControlService.encodeRoomMessage(room.getId(), senderId, message);
             if (isServerMode) {
-                for (String memberConnectionId : getDeliverableMembers()) {
-                    controlService.sendControlMessage(memberConnectionId, ControlService.CONTROL_ROOM_MESSAGE, payload);
-                }
+                controlService.multicastControlMessage(getDeliverableMembers(), ControlService.CONTROL_ROOM_MESSAGE, payload);
             } else {
                 String serverConnectionId = networkFacade.getPrimaryConnectionId();
                 if (serverConnectionId != null) {
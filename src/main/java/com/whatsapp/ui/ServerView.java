@@ -14,6 +14,7 @@ import java.util.Set;
 
 import com.whatsapp.model.Room;
 import com.whatsapp.model.Usuario;
+import com.whatsapp.network.observer.DeliveryMode;
 import com.whatsapp.network.observer.EventAggregator;
 import com.whatsapp.network.observer.NetworkEvent;
 import com.whatsapp.network.observer.NetworkEventObserver;
@@ -61,7 +62,7 @@ public class ServerView extends BorderPane implements NetworkEventObserver {
         this.connectedUsersList = new ListView<>();
         this.portField = new TextField("8080");
         this.aliasRegistry = UserAliasRegistry.getInstance();
-        this.controlService = new ControlService();
+        this.controlService = ControlService.getInstance();
         this.roomService = RoomService.getInstance();
         this.pendingRoomsList = new ListView<>();
         this.activeRoomsList = new ListView<>();
@@ -69,7 +70,16 @@ public class ServerView extends BorderPane implements NetworkEventObserver {
         // Configurar RoomService con el username del servidor
         roomService.setServerUsername(currentUser.getUsername());
         
-        EventAggregator.getInstance().subscribe(this);
+        EventAggregator.getInstance().subscribe(this, java.util.EnumSet.of(
+            NetworkEvent.EventType.CONNECTED,
+            NetworkEvent.EventType.DISCONNECTED,
+            NetworkEvent.EventType.MESSAGE_RECEIVED,
+            NetworkEvent.EventType.FILE_PROGRESS,
+            NetworkEvent.EventType.VIDEO_FRAME,
+            NetworkEvent.EventType.ROOM_CREATED,
+            NetworkEvent.EventType.ROOM_APPROVED,
+            NetworkEvent.EventType.ROOM_REJECTED,
+            NetworkEvent.EventType.ROOM_CLOSED), DeliveryMode.ASYNC);
         setupUI();
     }
 
@@ -388,7 +398,9 @@ public class ServerView extends BorderPane implements NetworkEventObserver {
             switch (event.getType()) {
                 case CONNECTED:
                     if ("SERVER_UI".equals(event.getSource())) {
-                        handleAliasSnapshot(event.getData().toString());
+                        if (event.getData() instanceof java.util.Collection<?> snapshot) {
+                            handleAliasSnapshot(snapshot);
+                        }
                         break;
                     }
                     String clientId = event.getData().toString();
@@ -473,13 +485,12 @@ public class ServerView extends BorderPane implements NetworkEventObserver {
         });
     }
 
-    private void handleAliasSnapshot(String data) {
-        if (!data.startsWith("[") || !data.endsWith("]")) {
-            return;
-        }
+    private void handleAliasSnapshot(java.util.Collection<?> descriptors) {
         // No limpiar el mapa, solo actualizar los alias existentes y agregar nuevos
-        Set<ControlService.UserDescriptor> descriptors = ControlService.parseUserListJson(data);
-        for (ControlService.UserDescriptor descriptor : descriptors) {
+        for (Object obj : descriptors) {
+            if (!(obj instanceof ControlService.UserDescriptor descriptor)) {
+                continue;
+            }
             String connectionId = descriptor.getConnectionId();
             String displayName = descriptor.getDisplayName();
             
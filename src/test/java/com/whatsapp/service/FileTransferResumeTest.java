@@ -0,0 +1,234 @@
+package com.whatsapp.service;
+
+import com.whatsapp.protocol.MessageHeader;
+import com.whatsapp.protocol.MessageHeaderView;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reanudación del lado receptor: se corta la transferencia en puntos al azar (entre chunks),
+ * se "reinicia" el proceso creando una instancia nueva del servicio y se sigue desde el bitmap
+ * del sidecar. El bitmap nunca puede declarar bytes que no coincidan con el original, y el
+ * archivo final tiene que quedar idéntico.
+ */
+public class FileTransferResumeTest {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int SIDECAR_MAGIC = 0x57415052;
+    private static final String SERVER = "server";
+    private static final String SENDER = "sender";
+
+    private static Path downloads;
+
+    @BeforeAll
+    static void redirectDownloads() throws IOException {
+        Path home = Files.createTempDirectory("resume-test");
+        System.setProperty("user.home", home.toString());
+        downloads = home.resolve("Downloads").resolve("whatsapp_clone");
+    }
+
+    @Test
+    void resumesAfterRandomCutsWithIdenticalResult() throws Exception {
+        for (long seed = 1; seed <= 5; seed++) {
+            runScenario(seed);
+        }
+    }
+
+    private void runScenario(long seed) throws Exception {
+        Random random = new Random(seed);
+        // Más de 64 chunks para que haya checkpoints intermedios del bitmap
+        byte[] source = new byte[200 * CHUNK_SIZE + random.nextInt(CHUNK_SIZE)];
+        random.nextBytes(source);
+        int chunkCount = (source.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        String fileName = "archivo-" + seed + ".bin";
+        String resumeKey = String.format("%032x", seed);
+        int transferId = (int) seed * 100;
+
+        BitSet delivered = new BitSet();
+        int cuts = 0;
+        while (delivered.nextClearBit(0) < chunkCount) {
+            FileTransferService service = restartService();
+            transferId++;
+            sendFrame(service, 1, metadata(fileName, source.length, transferId, resumeKey));
+
+            List<Integer> pending = new ArrayList<>();
+            for (int i = delivered.nextClearBit(0); i < chunkCount; i = delivered.nextClearBit(i + 1)) {
+                pending.add(i);
+            }
+            if (random.nextBoolean()) {
+                Collections.shuffle(pending, random); // también fuera de orden (hash de árbol)
+            }
+            // Corte en un límite de chunk al azar; en la última vuelta se envía todo
+            int cut = cuts < 4 ? random.nextInt(pending.size() + 1) : pending.size();
+            for (int i = 0; i < cut; i++) {
+                sendFrame(service, 2, chunk(source, transferId, pending.get(i)));
+            }
+            if (cut == pending.size()) {
+                sendFrame(service, 3, trailer(source, transferId));
+                break;
+            }
+            cuts++;
+
+            // Lo que un proceso nuevo va a creer que tiene: solo lo que dice el sidecar
+            Path sidecar = downloads.resolve(".partial").resolve(resumeKey + ".chunks");
+            assertTrue(Files.exists(sidecar), "Falta el sidecar tras el corte");
+            Sidecar state = readSidecar(sidecar, source.length);
+            assertPrefixMatches(source, state, chunkCount);
+            delivered = state.received;
+        }
+
+        Path received = findReceived(fileName);
+        assertArrayEquals(source, Files.readAllBytes(received), "El archivo reanudado difiere del original");
+        assertFalse(Files.exists(downloads.resolve(".partial").resolve(resumeKey + ".chunks")),
+            "El sidecar debe borrarse al completar");
+        Files.delete(received);
+    }
+
+    /**
+     * Cada chunk marcado en el bitmap tiene que estar escrito tal cual en el archivo parcial
+     */
+    private static void assertPrefixMatches(byte[] source, Sidecar state, int chunkCount) throws IOException {
+        assertTrue(state.received.length() <= chunkCount, "El bitmap declara chunks inexistentes");
+        try (RandomAccessFile partial = new RandomAccessFile(state.outputPath.toFile(), "r")) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            for (int i = state.received.nextSetBit(0); i >= 0; i = state.received.nextSetBit(i + 1)) {
+                int offset = i * CHUNK_SIZE;
+                int length = Math.min(CHUNK_SIZE, source.length - offset);
+                partial.seek(offset);
+                partial.readFully(buffer, 0, length);
+                for (int b = 0; b < length; b++) {
+                    if (buffer[b] != source[offset + b]) {
+                        throw new AssertionError("Chunk " + i + " marcado en el bitmap pero distinto en disco");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Simula el reinicio del proceso receptor: la instancia nueva no tiene nada en memoria
+     */
+    private static FileTransferService restartService() throws ReflectiveOperationException {
+        Field instance = FileTransferService.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, null);
+        return FileTransferService.getInstance();
+    }
+
+    private static void sendFrame(FileTransferService service, int frameType, byte[] payload) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeByte(1); // servidor -> cliente
+            dos.writeByte(frameType);
+            dos.writeUTF(SENDER);
+            dos.writeInt(payload.length);
+            dos.write(payload);
+        }
+        ByteBuffer data = ByteBuffer.wrap(MessageHeaderView.frame(MessageHeader.MessageType.ARCHIVO, 0, 0,
+            baos.toByteArray()));
+        service.handleIncomingPacket(new MessageHeaderView().wrap(data, 0), data, SERVER);
+    }
+
+    private static byte[] metadata(String fileName, long fileSize, int transferId, String resumeKey)
+        throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeUTF(fileName);
+            dos.writeLong(fileSize);
+            dos.writeUTF(""); // el SHA-256 viaja en el trailer
+            dos.writeInt(transferId);
+            dos.writeUTF(resumeKey);
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] chunk(byte[] source, int transferId, int chunkNumber) throws IOException {
+        int offset = chunkNumber * CHUNK_SIZE;
+        int length = Math.min(CHUNK_SIZE, source.length - offset);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeInt(transferId);
+            dos.writeInt(chunkNumber);
+            dos.writeLong(offset);
+            dos.writeInt(length);
+            dos.write(source, offset, length);
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] trailer(byte[] source, int transferId) throws Exception {
+        MessageDigest tree = MessageDigest.getInstance("SHA-256");
+        for (int offset = 0; offset < source.length; offset += CHUNK_SIZE) {
+            MessageDigest chunk = MessageDigest.getInstance("SHA-256");
+            chunk.update(source, offset, Math.min(CHUNK_SIZE, source.length - offset));
+            tree.update(chunk.digest());
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeInt(transferId);
+            dos.writeUTF(hex(MessageDigest.getInstance("SHA-256").digest(source)));
+            dos.writeUTF(hex(tree.digest()));
+        }
+        return baos.toByteArray();
+    }
+
+    private static Sidecar readSidecar(Path sidecar, long fileSize) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            assertEquals(SIDECAR_MAGIC, dis.readInt());
+            assertEquals(fileSize, dis.readLong());
+            Path outputPath = Paths.get(dis.readUTF());
+            byte[] bitmap = new byte[dis.readInt()];
+            dis.readFully(bitmap);
+            return new Sidecar(outputPath, BitSet.valueOf(bitmap));
+        }
+    }
+
+    private static Path findReceived(String fileName) throws IOException {
+        try (Stream<Path> files = Files.list(downloads)) {
+            List<Path> matches = files.filter(p -> p.getFileName().toString().endsWith("_" + fileName)).toList();
+            assertEquals(1, matches.size(), "Se esperaba un único archivo recibido para " + fileName);
+            return matches.get(0);
+        }
+    }
+
+    private static String hex(byte[] hash) {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static final class Sidecar {
+        final Path outputPath;
+        final BitSet received;
+
+        Sidecar(Path outputPath, BitSet received) {
+            this.outputPath = outputPath;
+            this.received = received;
+        }
+    }
+}